@@ -9,6 +9,7 @@ import java.io.StringReader;
 import java.util.List;
 
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
 import org.apache.log4j.Logger;
@@ -24,13 +25,15 @@ public class CclService {
 	
 	private static final Logger LOGGER = Logger.getLogger(CclService.class);
 
+	// JAXBContext jest drogi w budowie i bezpieczny watkowo - tworzymy go raz, Unmarshaller juz nie jest
+	private volatile JAXBContext context;
+
 	public ChunkList loadFile(File file) {
 		Preconditions.checkNotNull(file);
 
 		ChunkList chunkList = new ChunkList();
 		try {
-			JAXBContext context = JAXBContext.newInstance(ChunkList.class);
-			Unmarshaller um = context.createUnmarshaller();
+			Unmarshaller um = getContext().createUnmarshaller();
 			chunkList = (ChunkList) um.unmarshal(new FileReader(file));
 			chunkList.setFileName(file.getName());
 			chunkList.setTitle(file.getName().replace("ccl-", "").replaceAll("\\.xml$", "").replace("32", " "));
@@ -45,8 +48,7 @@ public class CclService {
 
 		ChunkList chunkList = null;
 		try {
-			JAXBContext context = JAXBContext.newInstance(ChunkList.class);
-			Unmarshaller um = context.createUnmarshaller();
+			Unmarshaller um = getContext().createUnmarshaller();
 			chunkList = (ChunkList) um.unmarshal(new StringReader(string));
 		} catch (Exception ex) {
 			LOGGER.error(ex, ex);
@@ -137,6 +139,20 @@ public class CclService {
 		}
 	}
 	
+	private JAXBContext getContext() throws JAXBException {
+		JAXBContext result = context;
+		if (result == null) {
+			synchronized (this) {
+				result = context;
+				if (result == null) {
+					result = JAXBContext.newInstance(ChunkList.class);
+					context = result;
+				}
+			}
+		}
+		return result;
+	}
+	
 	private class XmlFileFilter implements FileFilter {
 		
 		public boolean accept(File pathname) {
@@ -38,8 +38,15 @@ public class JsonService {
 		json.put(SearchEngineService.FIELD_PLAIN_TEXT, chunkList.getPlainText());
 		json.put(SearchEngineService.FIELD_BASE_PLAIN_TEXT, chunkList.getBasePlainText());
 		
+		return toJson(json);
+	}
+
+	/**
+	 * Dowolny obiekt (mapa, lista, bean z getterami) jako JSON, null przy bledzie.
+	 */
+	public String toJson(Object value) {
 		try {
-			return mapper.writeValueAsString(json);
+			return mapper.writeValueAsString(value);
 		} catch (JsonGenerationException e) {
 			LOGGER.error(e, e);
 		} catch (JsonMappingException e) {
@@ -2,6 +2,8 @@ package pl.wwiizt.main;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,7 +29,15 @@ import pl.wwiizt.feature.service.FeatureService;
 import pl.wwiizt.helpers.MeasuresHelper;
 import pl.wwiizt.liner.LinerWebservice;
 import pl.wwiizt.search.service.SearchEngineService;
+import pl.wwiizt.server.SearchServer;
+import pl.wwiizt.vector.index.HnswFormat;
+import pl.wwiizt.vector.index.IvfFormat;
+import pl.wwiizt.vector.index.LsaFormat;
+import pl.wwiizt.vector.index.NeighbourGraph;
+import pl.wwiizt.vector.index.QuantizedFormat;
+import pl.wwiizt.vector.index.VectorIndexFormat;
 import pl.wwiizt.vector.model.Hint;
+import pl.wwiizt.vector.model.HintListener;
 import pl.wwiizt.vector.service.VectorSearchService;
 import pl.wwizt.vector.distances.CosineDistance;
 import pl.wwizt.vector.distances.Distance;
@@ -57,6 +67,42 @@ public class Main {
 	private final static String SEARCH_VECTOR = "searchVector"; //dokument do szukania
 	private final static String DOCUMENTS_DIR = "documentsDir"; //dokumenty nie zaindeksowane, do wyszukania
 	private final static String INDEXED_VECTORS_PATH = "indexedVectors"; //dokumenty zaindeksowane, do wyszukiwania
+	private final static String CONVERT_VECTOR_INDEX = "convertVectorIndex"; //katalog ze starym indeksem (header.csv + index.csv)
+	private final static String DOUBLE_PRECISION = "doublePrecision"; //gesty float64 zamiast rzadkiego float32 w index.bin
+	private final static String MAX_DOCS_OPTION = "maxDocs"; //ile dokumentow zwraca wyszukiwanie wektorowe
+	private final static String THREADS = "threads"; //na ile czesci dzielone jest indeksowanie wektorowe, wspolbieznosc ogranicza vector.threads
+	private final static String VOCABULARY_MEMORY = "vocabularyMemory"; //MB na slownik w pamieci przy indeksowaniu wektorowym, nadmiar idzie na dysk
+	private final static String SEARCH_THREADS = "searchThreads"; //na ile czesci dzielone jest przegladanie index.bin, wspolbieznosc ogranicza vector.threads
+	private final static String ADD_VECTORS = "addVectors"; //katalog z nowymi dokumentami, dopisywane jako segment do INDEXED_VECTORS_PATH
+	private final static String DELETE_VECTOR = "deleteVector"; //sciezka dokumentu do usuniecia z INDEXED_VECTORS_PATH
+	private final static String MERGE_SEGMENTS = "mergeSegments"; //laczy segmenty INDEXED_VECTORS_PATH w jeden
+	private final static String HASH_BUCKETS = "hashBuckets"; //liczba kubelkow hashing trick przy DOCUMENTS_DIR (0 - wspolny naglowek)
+	private final static String BUILD_HNSW = "buildHnsw"; //buduje graf HNSW dla segmentow INDEXED_VECTORS_PATH (miara jak przy wyszukiwaniu)
+	private final static String HNSW_M = "hnswM"; //liczba sasiadow w grafie HNSW
+	private final static String HNSW_EF_CONSTRUCTION = "hnswEfConstruction"; //szerokosc przeszukiwania przy budowie grafu
+	private final static String EF_SEARCH = "efSearch"; //szerokosc przeszukiwania grafu (0 - pelny przeglad)
+	private final static String HNSW_RECALL = "hnswRecall"; //porownuje graf z pelnym przegladem dla zapytan z SEARCH_VECTOR (plik lub katalog)
+	private final static String BUILD_IVF = "buildIvf"; //buduje indeks IVF (k-medoids) dla segmentow INDEXED_VECTORS_PATH
+	private final static String IVF_CLUSTERS = "ivfClusters"; //liczba skupien w segmencie (0 - pierwiastek z liczby dokumentow)
+	private final static String NPROBE = "nprobe"; //ile najblizszych skupien IVF przegladac (0 - pelny przeglad)
+	private final static String IVF_RECALL = "ivfRecall"; //jak HNSW_RECALL, dla indeksu IVF
+	private final static String BUILD_LSA = "buildLsa"; //buduje indeks LSA (obciete SVD) dla segmentow INDEXED_VECTORS_PATH
+	private final static String LSA_RANK = "lsaRank"; //liczba wymiarow po rzucie LSA
+	private final static String LSA = "lsa"; //wyszukiwanie w przestrzeni LSA
+	private final static String QUANTIZE = "quantize"; //kwantyzuje wektory segmentow INDEXED_VECTORS_PATH: int8 albo pq
+	private final static String PQ_SUBSPACES = "pqSubspaces"; //liczba podprzestrzeni kwantyzacji produktowej
+	private final static String QUANTIZED = "quantized"; //wyszukiwanie po wektorach skwantyzowanych
+	private final static String REORDER_POSTINGS = "reorderPostings"; //przepisuje listy odwrocone segmentow INDEXED_VECTORS_PATH z podobnymi dokumentami obok siebie
+	private final static String RERANK = "rerank"; //ilu kandydatow z wektorow skwantyzowanych przeliczyc dokladnie
+	private final static String BATCH_SEARCH = "batchSearch"; //katalog albo plik z zapytaniami, szukane jednym przejsciem po INDEXED_VECTORS_PATH
+	private final static String SERVE = "serve"; //port serwera HTTP/JSON z indeksem INDEXED_VECTORS_PATH i klientem ES w pamieci
+	private final static String SERVER_THREADS = "serverThreads"; //liczba watkow obslugujacych zapytania serwera
+	private final static String SERVER_HOST = "serverHost"; //adres, na ktorym nasluchuje serwer - domyslnie tylko petla zwrotna
+	private final static String BUILD_NEIGHBOURS = "buildNeighbours"; //liczy k najblizszych sasiadow (kosinus) kazdego dokumentu INDEXED_VECTORS_PATH do neighbours.knn
+	private final static String NEIGHBOURS_K = "neighboursK"; //liczba sasiadow dokumentu w neighbours.knn
+	private final static String NEIGHBOURS = "neighbours"; //sciezka zaindeksowanego dokumentu, wypisuje jego sasiadow z neighbours.knn
+	private final static String SEARCH_DOCUMENT = "searchDocument"; //numer dokumentu w INDEXED_VECTORS_PATH albo jego sciezka - szuka podobnych po wektorze z indeksu
+	private final static String RANGE = "range"; //zamiast MAX_DOCS_OPTION: wszystkie dokumenty z odlegloscia <= range albo podobienstwem >= range
 
 	public final static int MAX_DOCS = 20;
 
@@ -115,12 +161,47 @@ public class Main {
 			search();
 		}
 
+		if (cmd.hasOption(CONVERT_VECTOR_INDEX))
+			handleVectorIndexConversion(cmd);
+
 		if (cmd.hasOption(INDEX_VECTORS))
 			handleVectorIndex(cmd);
 
-		if (cmd.hasOption(SEARCH_VECTOR))
+		if (cmd.hasOption(ADD_VECTORS) || cmd.hasOption(DELETE_VECTOR) || cmd.hasOption(MERGE_SEGMENTS))
+			handleVectorSegments(cmd);
+
+		if (cmd.hasOption(BUILD_HNSW))
+			handleGraphBuild(cmd);
+
+		if (cmd.hasOption(BUILD_IVF))
+			handleClustersBuild(cmd);
+
+		if (cmd.hasOption(BUILD_LSA))
+			handleLatentIndexBuild(cmd);
+
+		if (cmd.hasOption(QUANTIZE))
+			handleQuantization(cmd);
+
+		if (cmd.hasOption(REORDER_POSTINGS))
+			handlePostingsReorder(cmd);
+
+		if (cmd.hasOption(BATCH_SEARCH))
+			handleBatchSearch(cmd);
+
+		if (cmd.hasOption(BUILD_NEIGHBOURS) || cmd.hasOption(NEIGHBOURS))
+			handleNeighbours(cmd);
+
+		if (cmd.hasOption(SEARCH_DOCUMENT))
+			handleDocumentSearch(cmd);
+
+		if (cmd.hasOption(SEARCH_VECTOR) && (cmd.hasOption(HNSW_RECALL) || cmd.hasOption(IVF_RECALL)))
+			handleRecall(cmd);
+		else if (cmd.hasOption(SEARCH_VECTOR))
 			handleVectorSearch(cmd);
 
+		if (cmd.hasOption(SERVE))
+			handleServer(cmd);
+
 		service.closeNode();
 	}
 
@@ -128,23 +209,305 @@ public class Main {
 		String indexName = cmd.hasOption(INDEX_NAME) ? cmd.getOptionValue(INDEX_NAME) : "index";
 		String inputPath = cmd.getOptionValue(INDEX_VECTORS);
 		boolean tfidf = cmd.hasOption(TFIDF);
+		int threads = Integer.parseInt(cmd.getOptionValue(THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+		long vocabularyMemory = cmd.hasOption(VOCABULARY_MEMORY) ? Long.parseLong(cmd.getOptionValue(VOCABULARY_MEMORY)) << 20 : Runtime.getRuntime().maxMemory() / 4;
 		
 		VectorSearchService service = appContext.getBean(VectorSearchService.class);
-		service.index(new File(inputPath), indexName, stopList, tfidf);
+		service.index(new File(inputPath), indexName, stopList, tfidf, getValueType(cmd), threads, vocabularyMemory);
+	}
+
+	private static void handleVectorSegments(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		File indexDir = new File(cmd.getOptionValue(INDEXED_VECTORS_PATH));
+		boolean tfidf = cmd.hasOption(TFIDF);
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+
+		if (cmd.hasOption(DELETE_VECTOR)) {
+			int deleted = service.delete(indexDir, cmd.getOptionValue(DELETE_VECTOR));
+			System.out.println("Deleted documents: " + deleted);
+		}
+
+		if (cmd.hasOption(ADD_VECTORS)) {
+			File[] files = new File(cmd.getOptionValue(ADD_VECTORS)).listFiles();
+			List<File> xmlFiles = Lists.newArrayList();
+			if (files != null) {
+				for (File file : files) {
+					if (file.getName().endsWith(".xml"))
+						xmlFiles.add(file);
+				}
+			}
+			int threads = Integer.parseInt(cmd.getOptionValue(THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+			service.add(indexDir, xmlFiles.toArray(new File[xmlFiles.size()]), stopList, tfidf, getValueType(cmd), threads);
+		}
+
+		if (cmd.hasOption(MERGE_SEGMENTS))
+			service.mergeSegments(indexDir, tfidf);
+	}
+
+	private static void handleGraphBuild(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		int m = Integer.parseInt(cmd.getOptionValue(HNSW_M, String.valueOf(HnswFormat.DEFAULT_M)));
+		int efConstruction = Integer.parseInt(cmd.getOptionValue(HNSW_EF_CONSTRUCTION, String.valueOf(HnswFormat.DEFAULT_EF_CONSTRUCTION)));
+
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+		service.buildGraphs(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), getDistance(cmd), m, efConstruction);
+	}
+
+	private static void handleClustersBuild(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		int clusters = Integer.parseInt(cmd.getOptionValue(IVF_CLUSTERS, "0"));
+
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+		service.buildClusters(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), getDistance(cmd), clusters, IvfFormat.DEFAULT_ITERATIONS);
+	}
+
+	private static void handleLatentIndexBuild(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		int rank = Integer.parseInt(cmd.getOptionValue(LSA_RANK, String.valueOf(LsaFormat.DEFAULT_RANK)));
+
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+		service.buildLatentIndex(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), rank);
+	}
+
+	private static void handleQuantization(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		String method = cmd.getOptionValue(QUANTIZE);
+		if (!"int8".equals(method) && !"pq".equals(method)) {
+			System.out.println("Unknown quantisation " + method + ", expected int8 or pq");
+			return;
+		}
+		int subspaces = Integer.parseInt(cmd.getOptionValue(PQ_SUBSPACES, "0"));
+
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+		service.buildQuantized(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), "pq".equals(method) ? QuantizedFormat.PRODUCT
+				: QuantizedFormat.SCALAR_INT8, subspaces);
+	}
+
+	private static void handlePostingsReorder(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+		service.reorderPostings(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)));
+	}
+
+	private static void handleBatchSearch(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		List<String> queries = getQueryFiles(new File(cmd.getOptionValue(BATCH_SEARCH)));
+		int maxDocs = Integer.parseInt(cmd.getOptionValue(MAX_DOCS_OPTION, String.valueOf(MAX_DOCS)));
+
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+		List<List<Hint>> results = service.searchBatch(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), queries, stopList, getDistance(cmd),
+				cmd.hasOption(TFIDF), cmd.hasOption(USE_SYNONYMS), maxDocs);
+
+		for (int i = 0; i < results.size(); i++) {
+			System.out.println("Query: " + queries.get(i));
+			for (Hint hint : results.get(i)) {
+				System.out.println(hint);
+			}
+		}
+	}
+
+	private static void handleNeighbours(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		File indexDir = new File(cmd.getOptionValue(INDEXED_VECTORS_PATH));
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+
+		if (cmd.hasOption(BUILD_NEIGHBOURS)) {
+			int k = Integer.parseInt(cmd.getOptionValue(NEIGHBOURS_K, String.valueOf(NeighbourGraph.DEFAULT_K)));
+			int threads = Integer.parseInt(cmd.getOptionValue(THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+			service.buildNeighbours(indexDir, k, threads);
+		}
+
+		if (cmd.hasOption(NEIGHBOURS)) {
+			for (Hint hint : service.getNeighbours(indexDir, cmd.getOptionValue(NEIGHBOURS))) {
+				System.out.println(hint);
+			}
+		}
+	}
+
+	/**
+	 * Pliki zapytan: podany plik albo wszystkie pliki katalogu, w kolejnosci nazw.
+	 */
+	private static List<String> getQueryFiles(File path) {
+		List<String> queries = Lists.newArrayList();
+		File[] files = path.isDirectory() ? path.listFiles() : new File[] { path };
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.isFile())
+					queries.add(file.getPath());
+			}
+		}
+		return queries;
+	}
+
+	private static void handleRecall(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		List<String> queries = getQueryFiles(new File(cmd.getOptionValue(SEARCH_VECTOR)));
+
+		int maxDocs = Integer.parseInt(cmd.getOptionValue(MAX_DOCS_OPTION, String.valueOf(MAX_DOCS)));
+		int efSearch = Integer.parseInt(cmd.getOptionValue(EF_SEARCH, cmd.hasOption(HNSW_RECALL) ? String.valueOf(HnswFormat.DEFAULT_EF_SEARCH) : "0"));
+		int nprobe = Integer.parseInt(cmd.getOptionValue(NPROBE, cmd.hasOption(IVF_RECALL) ? String.valueOf(IvfFormat.DEFAULT_NPROBE) : "0"));
+
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+		System.out.println(service.measureRecall(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), queries, stopList, getDistance(cmd),
+				cmd.hasOption(TFIDF), maxDocs, efSearch, nprobe));
+	}
+
+	/**
+	 * Uruchamia serwer i czeka na jego zatrzymanie (Ctrl+C). Opcje wyszukiwania z linii polecen sa domyslnymi
+	 * parametrami zapytan o tych samych nazwach.
+	 */
+	private static void handleServer(CommandLine cmd) {
+		int port = Integer.parseInt(cmd.getOptionValue(SERVE));
+		int threads = Integer.parseInt(cmd.getOptionValue(SERVER_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+		File indexDir = cmd.hasOption(INDEXED_VECTORS_PATH) ? new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)) : null;
+
+		Map<String, String> defaults = new HashMap<String, String>();
+		defaults.put(EUCLIDES_DISTANCE, String.valueOf(cmd.hasOption(EUCLIDES_DISTANCE)));
+		defaults.put(TFIDF, String.valueOf(cmd.hasOption(TFIDF)));
+		defaults.put(USE_SYNONYMS, String.valueOf(cmd.hasOption(USE_SYNONYMS)));
+		defaults.put(LSA, String.valueOf(cmd.hasOption(LSA)));
+		defaults.put(QUANTIZED, String.valueOf(cmd.hasOption(QUANTIZED)));
+		defaults.put(INDEX_NAME, indexName);
+		for (String option : new String[] { MAX_DOCS_OPTION, EF_SEARCH, NPROBE, RERANK }) {
+			if (cmd.hasOption(option))
+				defaults.put(option, cmd.getOptionValue(option));
+		}
+
+		final SearchServer server = appContext.getBean(SearchServer.class);
+		try {
+			// zapytania wskazuja pliki na maszynie serwera, wiec dostep z zewnatrz tylko na wyrazne zyczenie
+			InetAddress address = cmd.hasOption(SERVER_HOST) ? InetAddress.getByName(cmd.getOptionValue(SERVER_HOST)) : InetAddress.getLoopbackAddress();
+			server.start(address, port, threads, indexDir, stopList, defaults);
+		} catch (IOException e) {
+			System.out.println("Cannot start server: " + e.getMessage());
+			return;
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+
+			@Override
+			public void run() {
+				server.stop();
+			}
+
+		});
+
+		try {
+			server.awaitStop();
+		} catch (InterruptedException e) {
+			server.stop();
+		}
+	}
+
+	private static Distance getDistance(CommandLine cmd) {
+		return cmd.hasOption(EUCLIDES_DISTANCE) ? new EuclidesDistance() : new CosineDistance();
+	}
+
+	private static void handleVectorIndexConversion(CommandLine cmd) {
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+		service.convertIndex(new File(cmd.getOptionValue(CONVERT_VECTOR_INDEX)), getValueType(cmd));
+	}
+
+	private static int getValueType(CommandLine cmd) {
+		return cmd.hasOption(DOUBLE_PRECISION) ? VectorIndexFormat.FLOAT64 : VectorIndexFormat.FLOAT32;
+	}
+
+	private static void handleDocumentSearch(CommandLine cmd) {
+		if (!cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			System.out.println("Option " + INDEXED_VECTORS_PATH + " is required");
+			return;
+		}
+
+		File indexDir = new File(cmd.getOptionValue(INDEXED_VECTORS_PATH));
+		String document = cmd.getOptionValue(SEARCH_DOCUMENT);
+		VectorSearchService service = appContext.getBean(VectorSearchService.class);
+
+		int doc = document.matches("\\d+") ? Integer.parseInt(document) : service.findDocument(indexDir, document);
+		if (doc < 0) {
+			System.out.println("Document " + document + " is not indexed in " + indexDir);
+			return;
+		}
+
+		int maxDocs = Integer.parseInt(cmd.getOptionValue(MAX_DOCS_OPTION, String.valueOf(MAX_DOCS)));
+		int searchThreads = Integer.parseInt(cmd.getOptionValue(SEARCH_THREADS, "1"));
+		int efSearch = Integer.parseInt(cmd.getOptionValue(EF_SEARCH, "0"));
+		int nprobe = Integer.parseInt(cmd.getOptionValue(NPROBE, "0"));
+		int rerank = Integer.parseInt(cmd.getOptionValue(RERANK, "0"));
+
+		for (Hint hint : service.searchByDocument(indexDir, doc, getDistance(cmd), cmd.hasOption(TFIDF), maxDocs, searchThreads, efSearch, nprobe,
+				cmd.hasOption(LSA), cmd.hasOption(QUANTIZED), rerank)) {
+			System.out.println(hint);
+		}
 	}
 
 	private static void handleVectorSearch(CommandLine cmd) {
-		Distance distance = cmd.hasOption(EUCLIDES_DISTANCE) ? new EuclidesDistance() : new CosineDistance();
+		Distance distance = getDistance(cmd);
 		boolean tfidf = cmd.hasOption(TFIDF);
 		boolean useSynonyms = cmd.hasOption(USE_SYNONYMS);
 
+		int maxDocs = Integer.parseInt(cmd.getOptionValue(MAX_DOCS_OPTION, String.valueOf(MAX_DOCS)));
+		int searchThreads = Integer.parseInt(cmd.getOptionValue(SEARCH_THREADS, "1"));
+		int hashBuckets = Integer.parseInt(cmd.getOptionValue(HASH_BUCKETS, "0"));
+		int efSearch = Integer.parseInt(cmd.getOptionValue(EF_SEARCH, "0"));
+		int nprobe = Integer.parseInt(cmd.getOptionValue(NPROBE, "0"));
+		int rerank = Integer.parseInt(cmd.getOptionValue(RERANK, "0"));
+
 		VectorSearchService service = appContext.getBean(VectorSearchService.class);
 		List<Hint> hints = Lists.newArrayList();
 		
-		if (cmd.hasOption(INDEXED_VECTORS_PATH)) {
-			hints = service.search(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), cmd.getOptionValue(SEARCH_VECTOR), stopList, distance, tfidf, useSynonyms);
+		if (cmd.hasOption(INDEXED_VECTORS_PATH) && cmd.hasOption(RANGE)) {
+			int found = service.searchRange(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), cmd.getOptionValue(SEARCH_VECTOR), stopList, distance, tfidf, useSynonyms,
+					Double.parseDouble(cmd.getOptionValue(RANGE)), new HintListener() {
+
+						@Override
+						public void found(Hint hint) {
+							System.out.println(hint);
+						}
+
+					});
+			System.out.println("Found: " + found);
+		} else if (cmd.hasOption(INDEXED_VECTORS_PATH)) {
+			hints = service.search(new File(cmd.getOptionValue(INDEXED_VECTORS_PATH)), cmd.getOptionValue(SEARCH_VECTOR), stopList, distance, tfidf, useSynonyms, maxDocs, searchThreads, efSearch, nprobe, cmd.hasOption(LSA),
+					cmd.hasOption(QUANTIZED), rerank);
 		} else if (cmd.hasOption(DOCUMENTS_DIR)) {
-			hints = service.searchWithoutIndex(new File(cmd.getOptionValue(DOCUMENTS_DIR)), cmd.getOptionValue(SEARCH_VECTOR), distance, stopList, tfidf, useSynonyms);
+			hints = service.searchWithoutIndex(new File(cmd.getOptionValue(DOCUMENTS_DIR)), cmd.getOptionValue(SEARCH_VECTOR), distance, stopList, tfidf, useSynonyms, maxDocs, hashBuckets);
 		}
 		
 		for(Hint hint : hints) {
@@ -171,6 +534,42 @@ public class Main {
 		options.addOption(SEARCH_VECTOR, "v", true, "ccl to search similar documents");
 		options.addOption(DOCUMENTS_DIR, true, "directory of unindexed documents to find similar");
 		options.addOption(INDEXED_VECTORS_PATH, true, "directory of indexed documents to find similar");
+		options.addOption(CONVERT_VECTOR_INDEX, true, "convert index.csv/header.csv directory to binary index.bin");
+		options.addOption(DOUBLE_PRECISION, false, "store dense float64 vectors (sparse float32 otherwise)");
+		options.addOption(MAX_DOCS_OPTION, true, "number of documents returned by vector search (default " + MAX_DOCS + ")");
+		options.addOption(THREADS, true, "number of parts vector indexing is split into (default: number of processors); concurrency is capped by vector.threads");
+		options.addOption(VOCABULARY_MEMORY, true, "MB of vocabulary kept in memory when indexing vectors, the rest is merged from disk (default: quarter of the heap)");
+		options.addOption(SEARCH_THREADS, true, "number of parts the vector index scan is split into (default 1); concurrency is capped by vector.threads");
+		options.addOption(ADD_VECTORS, true, "folder of documents to add as a new segment of " + INDEXED_VECTORS_PATH);
+		options.addOption(DELETE_VECTOR, true, "path of a document to delete from " + INDEXED_VECTORS_PATH);
+		options.addOption(MERGE_SEGMENTS, false, "merge segments of " + INDEXED_VECTORS_PATH + " into one");
+		options.addOption(HASH_BUCKETS, true, "vectorise " + DOCUMENTS_DIR + " with feature hashing into this many buckets");
+		options.addOption(BUILD_HNSW, false, "build HNSW graphs for segments of " + INDEXED_VECTORS_PATH);
+		options.addOption(HNSW_M, true, "HNSW neighbours per node (default " + HnswFormat.DEFAULT_M + ")");
+		options.addOption(HNSW_EF_CONSTRUCTION, true, "HNSW candidate list size when building (default " + HnswFormat.DEFAULT_EF_CONSTRUCTION + ")");
+		options.addOption(EF_SEARCH, true, "HNSW candidate list size when searching (default: exact scan, " + HnswFormat.DEFAULT_EF_SEARCH + " with " + HNSW_RECALL + ")");
+		options.addOption(HNSW_RECALL, false, "measure HNSW recall against exact search for " + SEARCH_VECTOR + " (file or folder)");
+		options.addOption(BUILD_IVF, false, "build IVF (k-medoids) indexes for segments of " + INDEXED_VECTORS_PATH);
+		options.addOption(IVF_CLUSTERS, true, "IVF clusters per segment (default: square root of the number of documents)");
+		options.addOption(NPROBE, true, "number of nearest IVF clusters to scan (default: exact scan, " + IvfFormat.DEFAULT_NPROBE + " with " + IVF_RECALL + ")");
+		options.addOption(IVF_RECALL, false, "measure IVF recall against exact search for " + SEARCH_VECTOR + " (file or folder)");
+		options.addOption(BUILD_LSA, false, "build LSA (truncated SVD) indexes for segments of " + INDEXED_VECTORS_PATH);
+		options.addOption(LSA_RANK, true, "LSA dimensions (default " + LsaFormat.DEFAULT_RANK + ")");
+		options.addOption(LSA, false, "search in the LSA space of " + INDEXED_VECTORS_PATH);
+		options.addOption(QUANTIZE, true, "quantise vectors of " + INDEXED_VECTORS_PATH + " segments (LSA vectors if built): int8 or pq");
+		options.addOption(PQ_SUBSPACES, true, "product quantisation subspaces (default: one per " + QuantizedFormat.DEFAULT_SUBSPACE_DIMENSIONS + " dimensions)");
+		options.addOption(QUANTIZED, false, "search the quantised vectors of " + INDEXED_VECTORS_PATH);
+		options.addOption(REORDER_POSTINGS, false, "rewrite the postings of " + INDEXED_VECTORS_PATH + " segments with similar documents next to each other (smaller files)");
+		options.addOption(RERANK, true, "re-rank this many quantised candidates with exact vectors (default 0)");
+		options.addOption(BATCH_SEARCH, true, "ccl query file or folder of queries searched in one pass over " + INDEXED_VECTORS_PATH);
+		options.addOption(SERVE, true, "run an HTTP/JSON search server on this port, keeping " + INDEXED_VECTORS_PATH + " and the Elasticsearch client in memory");
+		options.addOption(SERVER_THREADS, true, "number of server threads handling requests (default: number of processors)");
+		options.addOption(SERVER_HOST, true, "address the server listens on, e.g. 0.0.0.0 for remote clients (default: loopback only)");
+		options.addOption(BUILD_NEIGHBOURS, false, "compute the " + NEIGHBOURS_K + " most cosine-similar documents of every document of " + INDEXED_VECTORS_PATH + " into " + NeighbourGraph.FILE_NAME);
+		options.addOption(NEIGHBOURS_K, true, "neighbours per document (default " + NeighbourGraph.DEFAULT_K + ")");
+		options.addOption(NEIGHBOURS, true, "indexed document whose neighbours are printed from " + NeighbourGraph.FILE_NAME);
+		options.addOption(SEARCH_DOCUMENT, true, "number (in the whole index) or path of a document of " + INDEXED_VECTORS_PATH + " - find similar documents using its stored vector, without parsing");
+		options.addOption(RANGE, true, "print every document of " + INDEXED_VECTORS_PATH + " within this distance (cosine: with at least this similarity) as it is found, instead of the top " + MAX_DOCS_OPTION);
 
 		options.addOption(HELP, "h", false, "help");
 
@@ -0,0 +1,283 @@
+package pl.wwiizt.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import pl.wwiizt.ccl.model.ChunkList;
+import pl.wwiizt.ccl.service.CclService;
+import pl.wwiizt.json.service.JsonService;
+import pl.wwiizt.main.Main;
+import pl.wwiizt.search.service.SearchEngineService;
+import pl.wwiizt.vector.model.Hint;
+import pl.wwiizt.vector.service.VectorSearchService;
+import pl.wwizt.vector.distances.CosineDistance;
+import pl.wwizt.vector.distances.Distance;
+import pl.wwizt.vector.distances.EuclidesDistance;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serwer HTTP/JSON trzymajacy w pamieci kontekst Springa, indeks wektorowy i klienta Elasticsearch - czas zapytania
+ * to tylko liczenie wyniku. Zapytania obslugiwane sa rownolegle przez pule watkow.
+ * <ul>
+ * <li>GET /vector?file=zapytanie.xml - wyszukiwanie wektorowe, opcjonalnie maxDocs, euclidesDistance, tfidf,
+ * useSynonyms, efSearch, nprobe, lsa, quantized, rerank (domyslne wartosci z linii polecen)</li>
+ * <li>GET /vector?doc=numer - dokumenty podobne do zaindeksowanego dokumentu (numer w calym indeksie), jego wektor
+ * z indeksu jest zapytaniem; te same parametry poza useSynonyms</li>
+ * <li>GET /search?file=zapytanie.xml - wyszukiwanie w Elasticsearch, opcjonalnie indexName</li>
+ * </ul>
+ * Plik zapytania to sciezka ccl na maszynie serwera, tak jak przy wyszukiwaniu z linii polecen.
+ */
+@Service
+public class SearchServer {
+
+	private static final Logger LOGGER = Logger.getLogger(SearchServer.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+	private static final String FILE = "file";
+	private static final String DOC = "doc";
+	private static final String MAX_DOCS = "maxDocs";
+	private static final String EUCLIDES_DISTANCE = "euclidesDistance";
+	private static final String TFIDF = "tfidf";
+	private static final String USE_SYNONYMS = "useSynonyms";
+	private static final String EF_SEARCH = "efSearch";
+	private static final String NPROBE = "nprobe";
+	private static final String LSA = "lsa";
+	private static final String QUANTIZED = "quantized";
+	private static final String RERANK = "rerank";
+	private static final String INDEX_NAME = "indexName";
+
+	@Autowired
+	private VectorSearchService vectorSearchService;
+	@Autowired
+	private SearchEngineService searchEngineService;
+	@Autowired
+	private CclService cclService;
+	@Autowired
+	private JsonService jsonService;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private CountDownLatch stopped;
+
+	private File indexDir;
+	private Set<String> stopList;
+	private Map<String, String> defaults;
+
+	/**
+	 * @param address adres, na ktorym serwer nasluchuje - zapytania czytaja dowolne pliki serwera, wiec zwykle
+	 *            {@link InetAddress#getLoopbackAddress()}
+	 * @param indexDir katalog indeksu wektorowego wczytywany do pamieci, null - tylko Elasticsearch
+	 * @param defaults wartosci parametrow zapytania, gdy nie ma ich w adresie (te same nazwy)
+	 */
+	public synchronized void start(InetAddress address, int port, int threads, File indexDir, Set<String> stopList, Map<String, String> defaults) throws IOException {
+		Preconditions.checkState(server == null, "Server already started");
+		Preconditions.checkNotNull(address);
+		Preconditions.checkArgument(threads > 0);
+		Preconditions.checkNotNull(stopList);
+		Preconditions.checkNotNull(defaults);
+
+		this.indexDir = indexDir;
+		this.stopList = stopList;
+		this.defaults = defaults;
+
+		if (indexDir != null && !vectorSearchService.loadIndex(indexDir)) {
+			throw new IOException("Cannot load vector index " + indexDir);
+		}
+
+		// bez TCP_NODELAY odpowiedz czeka na opoznione ACK klienta (~40 ms) - dluzej niz samo wyszukiwanie
+		if (System.getProperty(NODELAY_PROPERTY) == null) {
+			System.setProperty(NODELAY_PROPERTY, "true");
+		}
+
+		executor = Executors.newFixedThreadPool(threads);
+		stopped = new CountDownLatch(1);
+		server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		server.createContext("/vector", new VectorHandler());
+		server.createContext("/search", new SearchHandler());
+		server.setExecutor(executor);
+		server.start();
+
+		LOGGER.info("Search server listening on " + address.getHostAddress() + ":" + port + " with " + threads + " threads");
+	}
+
+	public synchronized void stop() {
+		if (server == null) {
+			return;
+		}
+		server.stop(0);
+		executor.shutdown();
+		vectorSearchService.unloadIndexes();
+		server = null;
+		stopped.countDown();
+	}
+
+	/**
+	 * Czeka na {@link #stop()}.
+	 */
+	public void awaitStop() throws InterruptedException {
+		CountDownLatch latch;
+		synchronized (this) {
+			latch = stopped;
+		}
+		if (latch != null) {
+			latch.await();
+		}
+	}
+
+	private class VectorHandler extends JsonHandler {
+
+		@Override
+		protected Object handle(Map<String, String> params) {
+			Preconditions.checkState(indexDir != null, "Server started without a vector index");
+
+			Distance distance = getBoolean(params, EUCLIDES_DISTANCE) ? new EuclidesDistance() : new CosineDistance();
+
+			if (params.containsKey(DOC)) {
+				int doc = getInt(params, DOC, -1);
+				List<Hint> hints = vectorSearchService.searchByDocument(indexDir, doc, distance, getBoolean(params, TFIDF),
+						getInt(params, MAX_DOCS, Main.MAX_DOCS), 1, getInt(params, EF_SEARCH, 0), getInt(params, NPROBE, 0), getBoolean(params, LSA),
+						getBoolean(params, QUANTIZED), getInt(params, RERANK, 0));
+
+				Map<String, Object> result = Maps.newLinkedHashMap();
+				result.put(DOC, doc);
+				result.put("hints", hints);
+				return result;
+			}
+
+			String file = getFile(params);
+			List<Hint> hints = vectorSearchService.search(indexDir, file, stopList, distance, getBoolean(params, TFIDF), getBoolean(params, USE_SYNONYMS),
+					getInt(params, MAX_DOCS, Main.MAX_DOCS), 1, getInt(params, EF_SEARCH, 0), getInt(params, NPROBE, 0), getBoolean(params, LSA),
+					getBoolean(params, QUANTIZED), getInt(params, RERANK, 0));
+
+			Map<String, Object> result = Maps.newLinkedHashMap();
+			result.put(FILE, file);
+			result.put("hints", hints);
+			return result;
+		}
+
+	}
+
+	private class SearchHandler extends JsonHandler {
+
+		@Override
+		protected Object handle(Map<String, String> params) {
+			String file = getFile(params);
+			ChunkList cl = cclService.loadFile(file);
+
+			Map<String, Object> result = Maps.newLinkedHashMap();
+			result.put(FILE, file);
+			result.put("hits", searchEngineService.search(cl, getParam(params, INDEX_NAME, SearchEngineService.INDEX_NAME), stopList));
+			return result;
+		}
+
+	}
+
+	/**
+	 * Parametry z adresu, wynik jako JSON z czasem obslugi. Bledny parametr daje 400, pozostale wyjatki 500.
+	 */
+	private abstract class JsonHandler implements HttpHandler {
+
+		protected abstract Object handle(Map<String, String> params);
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			long time = System.currentTimeMillis();
+			int status = 200;
+			Map<String, Object> response = Maps.newLinkedHashMap();
+
+			try {
+				response.put("result", handle(parseQuery(exchange.getRequestURI().getRawQuery())));
+			} catch (IllegalArgumentException e) {
+				status = 400;
+				response.put("error", e.getMessage());
+			} catch (RuntimeException e) {
+				LOGGER.error("[handle]", e);
+				status = 500;
+				response.put("error", String.valueOf(e.getMessage()));
+			}
+			response.put("time", System.currentTimeMillis() - time);
+
+			String json = jsonService.toJson(response);
+			if (json == null) {
+				status = 500;
+				json = "{}";
+			}
+			byte[] body = json.getBytes(UTF8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+
+		protected String getFile(Map<String, String> params) {
+			String file = params.get(FILE);
+			Preconditions.checkArgument(file != null, "Parameter %s is required", FILE);
+			Preconditions.checkArgument(new File(file).isFile(), "No such file: %s", file);
+			return file;
+		}
+
+		protected String getParam(Map<String, String> params, String name, String defaultValue) {
+			if (params.containsKey(name)) {
+				return params.get(name);
+			}
+			return defaults.containsKey(name) ? defaults.get(name) : defaultValue;
+		}
+
+		protected boolean getBoolean(Map<String, String> params, String name) {
+			return Boolean.parseBoolean(getParam(params, name, "false"));
+		}
+
+		protected int getInt(Map<String, String> params, String name, int defaultValue) {
+			String value = getParam(params, name, String.valueOf(defaultValue));
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Parameter " + name + " is not a number: " + value);
+			}
+		}
+
+		private Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+			Map<String, String> params = Maps.newHashMap();
+			if (query == null) {
+				return params;
+			}
+			for (String pair : query.split("&")) {
+				if (pair.isEmpty()) {
+					continue;
+				}
+				int eq = pair.indexOf('=');
+				// parametr bez wartosci (np. &tfidf) to flaga
+				String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+				String value = eq < 0 ? "true" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+				params.put(name, value);
+			}
+			return params;
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+package pl.wwiizt.vector.index;
+
+import java.util.Arrays;
+
+import pl.wwizt.vector.distances.Distance;
+
+/**
+ * Kolejka kandydatow przy przeszukiwaniu grafu - kopiec z najlepsza ranga w korzeniu (odwrotnie niz
+ * {@link pl.wwiizt.vector.model.TopKCollector}), bez ograniczenia rozmiaru.
+ */
+class CandidateQueue {
+
+	private final Distance distance;
+	private int[] docs = new int[64];
+	private double[] ranks = new double[64];
+	private int size;
+
+	CandidateQueue(Distance distance) {
+		this.distance = distance;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	void add(int doc, double rank) {
+		if (size == docs.length) {
+			docs = Arrays.copyOf(docs, size * 2);
+			ranks = Arrays.copyOf(ranks, size * 2);
+		}
+		docs[size] = doc;
+		ranks[size] = rank;
+
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!better(i, parent)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	int peekDoc() {
+		return docs[0];
+	}
+
+	double peekRank() {
+		return ranks[0];
+	}
+
+	void poll() {
+		size--;
+		docs[0] = docs[size];
+		ranks[0] = ranks[size];
+
+		int i = 0;
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size) {
+				break;
+			}
+			int best = left;
+			if (left + 1 < size && better(left + 1, left)) {
+				best = left + 1;
+			}
+			if (!better(best, i)) {
+				break;
+			}
+			swap(i, best);
+			i = best;
+		}
+	}
+
+	private boolean better(int i, int j) {
+		int result = distance.compareRanks(ranks[i], ranks[j]);
+		if (result != 0) {
+			return result < 0;
+		}
+		return docs[i] < docs[j];
+	}
+
+	private void swap(int i, int j) {
+		int doc = docs[i];
+		docs[i] = docs[j];
+		docs[j] = doc;
+		double rank = ranks[i];
+		ranks[i] = ranks[j];
+		ranks[j] = rank;
+	}
+
+}
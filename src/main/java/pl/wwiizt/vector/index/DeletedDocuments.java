@@ -0,0 +1,111 @@
+package pl.wwiizt.vector.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Usuniete dokumenty segmentu (nazwa.del): int magic, int documents, int n, long[n] slowa mapy bitowej.
+ * Segment jest niezmienny, usuniecie to tylko bit w tym pliku - miejsce odzyskuje dopiero laczenie segmentow.
+ */
+public class DeletedDocuments {
+
+	public static final String EXTENSION = ".del";
+
+	private static final int MAGIC = 0x5756444C; // "WVDL"
+
+	private final int documents;
+	private final BitSet deleted;
+
+	public DeletedDocuments(int documents) {
+		this(documents, new BitSet(documents));
+	}
+
+	private DeletedDocuments(int documents, BitSet deleted) {
+		this.documents = documents;
+		this.deleted = deleted;
+	}
+
+	/**
+	 * Wczytuje plik .del, a jesli go nie ma - zwraca segment bez usunietych dokumentow.
+	 */
+	public static DeletedDocuments load(File file, int documents) throws IOException {
+		Preconditions.checkNotNull(file);
+
+		if (!file.exists()) {
+			return new DeletedDocuments(documents);
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a deleted documents file: " + file);
+			}
+			int stored = in.readInt();
+			if (stored != documents) {
+				throw new IOException("Deleted documents file " + file + " has " + stored + " documents, segment has " + documents);
+			}
+
+			long[] words = new long[in.readInt()];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = in.readLong();
+			}
+			return new DeletedDocuments(documents, BitSet.valueOf(words));
+		}
+	}
+
+	public void write(File file) throws IOException {
+		Preconditions.checkNotNull(file);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			long[] words = deleted.toLongArray();
+			out.writeInt(MAGIC);
+			out.writeInt(documents);
+			out.writeInt(words.length);
+			for (long word : words) {
+				out.writeLong(word);
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public boolean isDeleted(int doc) {
+		return deleted.get(doc);
+	}
+
+	/**
+	 * Zwraca false, jesli dokument byl juz usuniety.
+	 */
+	public boolean delete(int doc) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		if (deleted.get(doc)) {
+			return false;
+		}
+		deleted.set(doc);
+		return true;
+	}
+
+	public int getDeletedCount() {
+		return deleted.cardinality();
+	}
+
+	public int getLiveCount() {
+		return documents - deleted.cardinality();
+	}
+
+}
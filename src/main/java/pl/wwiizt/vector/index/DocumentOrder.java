@@ -0,0 +1,197 @@
+package pl.wwiizt.vector.index;
+
+import java.util.Arrays;
+
+import pl.wwiizt.vector.model.SparseVector;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Kolejnosc dokumentow na listach odwroconych, w ktorej podobne dokumenty leza obok siebie - mniejsze roznice numerow
+ * na listach to krotsze bloki. Rekurencyjny podzial na polowy (graph bisection): w kazdej iteracji dokumenty, ktorych
+ * przeniesienie do drugiej polowy najbardziej zmniejsza szacowany rozmiar list (suma po termach deg * log(n / deg)),
+ * sa zamieniane parami. Termy dokumentow trzymane sa w pamieci - 4 bajty na wpis.
+ */
+public final class DocumentOrder {
+
+	public static final int ITERATIONS = 8;
+	public static final int MIN_PARTITION = 16;
+
+	private final int[] starts;
+	private final int[] terms;
+	private final int[] order;
+	private final int[] left;
+	private final int[] right;
+	private final double[] leftGains;
+	private final double[] rightGains;
+	private final int[] touched;
+	private int size;
+	private final double[] log;
+	private long[] keys = new long[0];
+	private double[] gains = new double[0];
+
+	private DocumentOrder(int[] starts, int[] terms, int dimensions) {
+		int documents = starts.length - 1;
+		this.starts = starts;
+		this.terms = terms;
+		this.order = new int[documents];
+		for (int doc = 0; doc < documents; doc++) {
+			order[doc] = doc;
+		}
+		this.left = new int[dimensions];
+		this.right = new int[dimensions];
+		this.leftGains = new double[dimensions];
+		this.rightGains = new double[dimensions];
+		this.touched = new int[dimensions];
+		this.log = new double[documents + 2];
+		for (int i = 1; i < log.length; i++) {
+			log[i] = Math.log(i);
+		}
+	}
+
+	/**
+	 * @return order[nowy numer] = numer w index.bin
+	 */
+	public static int[] compute(VectorIndex index) {
+		Preconditions.checkNotNull(index);
+
+		int documents = index.getDocuments();
+		int dimensions = index.getDimensions();
+
+		// termy z jednym dokumentem nie zmieniaja kosztu zadnego podzialu
+		int[] df = new int[dimensions];
+		long entries = 0;
+		for (int doc = 0; doc < documents; doc++) {
+			SparseVector vector = index.getVector(doc);
+			for (int i = 0; i < vector.size(); i++) {
+				if (vector.getValue(i) != 0) {
+					df[vector.getId(i)]++;
+				}
+			}
+		}
+		for (int term = 0; term < dimensions; term++) {
+			if (df[term] > 1) {
+				entries += df[term];
+			}
+		}
+		Preconditions.checkArgument(entries <= Integer.MAX_VALUE, "Too many postings to reorder: %s", entries);
+
+		int[] starts = new int[documents + 1];
+		int[] terms = new int[(int) entries];
+		int next = 0;
+		for (int doc = 0; doc < documents; doc++) {
+			SparseVector vector = index.getVector(doc);
+			for (int i = 0; i < vector.size(); i++) {
+				if (vector.getValue(i) != 0 && df[vector.getId(i)] > 1) {
+					terms[next++] = vector.getId(i);
+				}
+			}
+			starts[doc + 1] = next;
+		}
+
+		DocumentOrder documentOrder = new DocumentOrder(starts, terms, dimensions);
+		documentOrder.bisect(0, documents);
+		return documentOrder.order;
+	}
+
+	private void bisect(int from, int to) {
+		if (to - from <= MIN_PARTITION) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		if (gains.length < to - from) {
+			keys = new long[to - middle];
+			gains = new double[to - from];
+		}
+
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			count(from, middle, to);
+			double leftLog = log[middle - from];
+			double rightLog = log[to - middle];
+			for (int i = 0; i < size; i++) {
+				int term = touched[i];
+				int a = left[term];
+				int b = right[term];
+				leftGains[term] = cost(a, leftLog) + cost(b, rightLog) - cost(a - 1, leftLog) - cost(b + 1, rightLog);
+				rightGains[term] = cost(b, rightLog) + cost(a, leftLog) - cost(b - 1, rightLog) - cost(a + 1, leftLog);
+			}
+			for (int i = from; i < to; i++) {
+				gains[i - from] = gain(order[i], i < middle ? leftGains : rightGains);
+			}
+			clear();
+
+			// zamieniamy pary: najlepszy z lewej z najlepszym z prawej, dopoki suma zyskow dodatnia
+			int[] leftDocs = sortByGain(from, from, middle);
+			int[] rightDocs = sortByGain(from, middle, to);
+			int swapped = 0;
+			for (int i = 0; i < leftDocs.length && i < rightDocs.length; i++) {
+				if (gains[leftDocs[i] - from] + gains[rightDocs[i] - from] <= 0) {
+					break;
+				}
+				int doc = order[leftDocs[i]];
+				order[leftDocs[i]] = order[rightDocs[i]];
+				order[rightDocs[i]] = doc;
+				swapped++;
+			}
+			if (swapped == 0) {
+				break;
+			}
+		}
+
+		bisect(from, middle);
+		bisect(middle, to);
+	}
+
+	private void count(int from, int middle, int to) {
+		for (int i = from; i < to; i++) {
+			int[] degrees = i < middle ? left : right;
+			int doc = order[i];
+			for (int j = starts[doc]; j < starts[doc + 1]; j++) {
+				int term = terms[j];
+				if (left[term] == 0 && right[term] == 0) {
+					touched[size++] = term;
+				}
+				degrees[term]++;
+			}
+		}
+	}
+
+	private void clear() {
+		for (int i = 0; i < size; i++) {
+			left[touched[i]] = 0;
+			right[touched[i]] = 0;
+		}
+		size = 0;
+	}
+
+	// o ile zmaleje koszt po przeniesieniu dokumentu do drugiej polowy; termGains - zyski termow jego polowy
+	private double gain(int doc, double[] termGains) {
+		double gain = 0;
+		for (int j = starts[doc]; j < starts[doc + 1]; j++) {
+			gain += termGains[terms[j]];
+		}
+		return gain;
+	}
+
+	private double cost(int degree, double sizeLog) {
+		return degree * (sizeLog - log[degree + 1]);
+	}
+
+	// pozycje z [from, to) malejaco po zysku; zysk jako float w gornych bitach klucza, pozycja w dolnych
+	private int[] sortByGain(int base, int from, int to) {
+		int length = to - from;
+		for (int i = 0; i < length; i++) {
+			int bits = Float.floatToIntBits((float) gains[from + i - base]);
+			bits ^= (bits >> 31) & 0x7FFFFFFF;
+			keys[i] = (long) bits << 32 | (from + i);
+		}
+		Arrays.sort(keys, 0, length);
+
+		int[] positions = new int[length];
+		for (int i = 0; i < length; i++) {
+			positions[i] = (int) keys[length - 1 - i];
+		}
+		return positions;
+	}
+
+}
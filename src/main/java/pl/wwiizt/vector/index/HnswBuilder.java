@@ -0,0 +1,265 @@
+package pl.wwiizt.vector.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import pl.wwiizt.vector.model.SparseVector;
+import pl.wwiizt.vector.model.TopKCollector;
+import pl.wwizt.vector.distances.Distance;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Buduje graf HNSW (Malkov, Yashunin) dla wektorow segmentu i zapisuje go w formacie {@link HnswFormat}. Wektory sa na
+ * czas budowy wczytywane do pamieci. Dokumenty wstawiane sa po kolei, a poziomy losowane ze stalym ziarnem, wiec dla
+ * tego samego indeksu powstaje ten sam graf.
+ */
+public class HnswBuilder extends HnswGraph {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long SEED = 42;
+
+	private final int m;
+	private final int efConstruction;
+	private final double levelMultiplier;
+	private final Random random = new Random(SEED);
+	private final SparseVector[] vectors;
+	private final double[] norms;
+	private final VisitedSet visited;
+
+	// [wierzcholek][poziom] -> {n, sasiad1, ..., sasiadn, wolne miejsca}
+	private final int[][][] links;
+	private int entryPoint = -1;
+	private int maxLevel = -1;
+
+	private HnswBuilder(VectorIndex index, Distance distance, int m, int efConstruction) {
+		super(distance);
+
+		this.m = m;
+		this.efConstruction = efConstruction;
+		this.levelMultiplier = 1 / Math.log(m);
+
+		int documents = index.getDocuments();
+		vectors = new SparseVector[documents];
+		norms = new double[documents];
+		for (int doc = 0; doc < documents; doc++) {
+			vectors[doc] = index.getVector(doc);
+			norms[doc] = index.getNorm(doc);
+		}
+		visited = new VisitedSet(documents);
+		links = new int[documents][][];
+	}
+
+	public static void build(VectorIndex index, Distance distance, int m, int efConstruction, File file) throws IOException {
+		Preconditions.checkNotNull(index);
+		Preconditions.checkNotNull(distance);
+		Preconditions.checkNotNull(file);
+		Preconditions.checkArgument(m >= 2, "M must be at least 2: %s", m);
+		Preconditions.checkArgument(efConstruction > 0, "efConstruction must be positive: %s", efConstruction);
+
+		HnswBuilder builder = new HnswBuilder(index, distance, m, efConstruction);
+		for (int doc = 0; doc < index.getDocuments(); doc++) {
+			builder.insert(doc);
+		}
+		builder.write(file);
+	}
+
+	@Override
+	int getDocuments() {
+		return vectors.length;
+	}
+
+	@Override
+	int getM() {
+		return m;
+	}
+
+	@Override
+	int getMaxLevel() {
+		return maxLevel;
+	}
+
+	@Override
+	int getEntryPoint() {
+		return entryPoint;
+	}
+
+	@Override
+	int getNeighbours(int node, int level, int[] target) {
+		if (level >= links[node].length) {
+			return 0;
+		}
+		int[] block = links[node][level];
+		System.arraycopy(block, 1, target, 0, block[0]);
+		return block[0];
+	}
+
+	@Override
+	SparseVector getVector(int node) {
+		return vectors[node];
+	}
+
+	@Override
+	double getNorm(int node) {
+		return norms[node];
+	}
+
+	private void insert(int node) {
+		int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+		links[node] = new int[level + 1][];
+		for (int l = 0; l <= level; l++) {
+			links[node][l] = new int[1 + HnswFormat.maxConnections(m, l)];
+		}
+
+		if (entryPoint < 0) {
+			entryPoint = node;
+			maxLevel = level;
+			return;
+		}
+
+		SparseVector query = vectors[node];
+		double queryNorm = norms[node];
+
+		int[] entries = { entryPoint };
+		double[] entryRanks = { rank(entryPoint, query, queryNorm) };
+		int count = 1;
+
+		for (int l = maxLevel; l > level; l--) {
+			TopKCollector nearest = searchLayer(query, queryNorm, entries, entryRanks, 1, 1, l, visited);
+			entries[0] = nearest.getDoc(0);
+			entryRanks[0] = nearest.getRank(0);
+		}
+
+		for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+			TopKCollector nearest = searchLayer(query, queryNorm, entries, entryRanks, count, efConstruction, l, visited);
+
+			count = nearest.size();
+			entries = new int[count];
+			entryRanks = new double[count];
+			for (int i = 0; i < count; i++) {
+				entries[i] = nearest.getDoc(i);
+				entryRanks[i] = nearest.getRank(i);
+			}
+
+			int[] block = links[node][l];
+			block[0] = selectNeighbours(entries, entryRanks, count, m, block);
+			for (int i = 1; i <= block[0]; i++) {
+				connect(block[i], node, l);
+			}
+		}
+
+		if (level > maxLevel) {
+			maxLevel = level;
+			entryPoint = node;
+		}
+	}
+
+	// dodaje krawedz from -> to, a gdy lista jest pelna wybiera sasiadow od nowa
+	private void connect(int from, int to, int level) {
+		int[] block = links[from][level];
+		int max = HnswFormat.maxConnections(m, level);
+		if (block[0] < max) {
+			block[++block[0]] = to;
+			return;
+		}
+
+		TopKCollector candidates = new TopKCollector(max + 1, distance);
+		candidates.collect(to, rank(to, vectors[from], norms[from]));
+		for (int i = 1; i <= block[0]; i++) {
+			candidates.collect(block[i], rank(block[i], vectors[from], norms[from]));
+		}
+		candidates.sort();
+
+		int[] docs = new int[candidates.size()];
+		double[] ranks = new double[candidates.size()];
+		for (int i = 0; i < docs.length; i++) {
+			docs[i] = candidates.getDoc(i);
+			ranks[i] = candidates.getRank(i);
+		}
+		block[0] = selectNeighbours(docs, ranks, docs.length, max, block);
+	}
+
+	/**
+	 * Heurystyka wyboru sasiadow: kandydat (od najlepszego) wchodzi, jesli jest blizej wierzcholka niz kazdego juz
+	 * wybranego sasiada - graf lepiej laczy skupiska. Wolne miejsca dopelniane sa odrzuconymi, od najlepszego.
+	 * Wynik trafia do target[1..], zwraca liczbe wybranych.
+	 */
+	private int selectNeighbours(int[] candidates, double[] ranks, int count, int max, int[] target) {
+		boolean[] taken = new boolean[count];
+		int selected = 0;
+
+		for (int i = 0; i < count && selected < max; i++) {
+			int candidate = candidates[i];
+			boolean good = true;
+			for (int j = 1; j <= selected && good; j++) {
+				int other = target[j];
+				double between = distance.measureDistance(vectors[candidate], norms[candidate], vectors[other], norms[other]);
+				good = distance.compareRanks(between, ranks[i]) >= 0;
+			}
+			if (good) {
+				target[++selected] = candidate;
+				taken[i] = true;
+			}
+		}
+
+		for (int i = 0; i < count && selected < max; i++) {
+			if (!taken[i]) {
+				target[++selected] = candidates[i];
+			}
+		}
+		return selected;
+	}
+
+	private void write(File file) throws IOException {
+		int documents = vectors.length;
+		byte[] distanceName = distance.getClass().getName().getBytes(UTF8);
+
+		long levelsOffset = VectorIndexFormat.align(HnswFormat.HEADER_SIZE + distanceName.length);
+		long nodeOffsetsOffset = VectorIndexFormat.align(levelsOffset + 4L * documents);
+		long linksOffset = nodeOffsetsOffset + 8L * (documents + 1);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(HnswFormat.MAGIC);
+			out.writeInt(HnswFormat.VERSION);
+			out.writeInt(documents);
+			out.writeInt(m);
+			out.writeInt(efConstruction);
+			out.writeInt(maxLevel);
+			out.writeInt(entryPoint);
+			out.writeInt(distanceName.length);
+			out.writeLong(levelsOffset);
+			out.writeLong(nodeOffsetsOffset);
+			out.writeLong(linksOffset);
+			out.write(new byte[HnswFormat.HEADER_SIZE - 56]);
+
+			out.write(distanceName);
+			out.write(new byte[(int) (levelsOffset - HnswFormat.HEADER_SIZE - distanceName.length)]);
+
+			for (int node = 0; node < documents; node++) {
+				out.writeInt(links[node].length - 1);
+			}
+			out.write(new byte[(int) (nodeOffsetsOffset - levelsOffset - 4L * documents)]);
+
+			long position = 0;
+			for (int node = 0; node < documents; node++) {
+				out.writeLong(position);
+				position += HnswFormat.nodeSize(m, links[node].length - 1);
+			}
+			out.writeLong(position);
+
+			for (int node = 0; node < documents; node++) {
+				for (int[] block : links[node]) {
+					for (int value : block) {
+						out.writeInt(value);
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package pl.wwiizt.vector.index;
+
+/**
+ * Graf HNSW segmentu (nazwa.hnsw), zbudowany dla jednej miary odleglosci.
+ *
+ * <pre>
+ * naglowek (64 bajty, big-endian):
+ *   int magic, int version, int documents, int m, int efConstruction, int maxLevel, int entryPoint,
+ *   int dlugosc nazwy klasy Distance, long levelsOffset, long nodeOffsetsOffset, long linksOffset, reszta zera
+ * nazwa klasy Distance (UTF-8), wyrownana do 8 bajtow
+ * poziomy wierzcholkow: int[documents]
+ * poczatki wierzcholkow: long[documents + 1] - numer pierwszego inta bloku wierzcholka w sekcji sasiadow
+ * sasiedzi: dla kazdego wierzcholka i poziomu 0..poziom: int n, potem int[maxConnections(poziom)] (n wypelnionych)
+ * </pre>
+ */
+public final class HnswFormat {
+
+	public static final String EXTENSION = ".hnsw";
+
+	public static final int MAGIC = 0x5756484E; // "WVHN"
+	public static final int VERSION = 1;
+
+	public static final int DEFAULT_M = 16;
+	public static final int DEFAULT_EF_CONSTRUCTION = 200;
+	public static final int DEFAULT_EF_SEARCH = 50;
+
+	static final int HEADER_SIZE = 64;
+
+	private HnswFormat() {
+	}
+
+	/**
+	 * Na poziomie 0 dwa razy wiecej sasiadow niz wyzej, jak w oryginalnym HNSW.
+	 */
+	static int maxConnections(int m, int level) {
+		return level == 0 ? 2 * m : m;
+	}
+
+	/**
+	 * Przesuniecie (w intach) bloku poziomu wzgledem poczatku bloku wierzcholka.
+	 */
+	static long levelOffset(int m, int level) {
+		if (level == 0) {
+			return 0;
+		}
+		return 1 + maxConnections(m, 0) + (long) (level - 1) * (1 + m);
+	}
+
+	static long nodeSize(int m, int level) {
+		return levelOffset(m, level + 1);
+	}
+
+}
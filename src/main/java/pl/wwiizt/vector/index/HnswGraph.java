@@ -0,0 +1,112 @@
+package pl.wwiizt.vector.index;
+
+import pl.wwiizt.vector.model.SparseVector;
+import pl.wwiizt.vector.model.TopKCollector;
+import pl.wwizt.vector.distances.Distance;
+
+/**
+ * Przeszukiwanie grafu HNSW, wspolne dla budowy (graf w pamieci) i odczytu (graf z pliku). Kolejnosc rang wyznacza
+ * {@link Distance#compareRanks(double, double)}, wiec graf dziala z kazda miara - dla kosinusa lepsza jest wieksza
+ * wartosc, dla odleglosci euklidesowej mniejsza.
+ */
+abstract class HnswGraph {
+
+	final Distance distance;
+
+	HnswGraph(Distance distance) {
+		this.distance = distance;
+	}
+
+	public Distance getDistance() {
+		return distance;
+	}
+
+	abstract int getDocuments();
+
+	abstract int getM();
+
+	abstract int getMaxLevel();
+
+	abstract int getEntryPoint();
+
+	/**
+	 * Wpisuje sasiadow wierzcholka na poziomie do target (co najmniej maxConnections miejsc), zwraca ich liczbe.
+	 */
+	abstract int getNeighbours(int node, int level, int[] target);
+
+	abstract SparseVector getVector(int node);
+
+	abstract double getNorm(int node);
+
+	double rank(int node, SparseVector query, double queryNorm) {
+		return distance.measureDistance(getVector(node), getNorm(node), query, queryNorm);
+	}
+
+	/**
+	 * ef najlepszych wierzcholkow dla zapytania: zachlannie przez wyzsze poziomy, potem szeroko na poziomie 0.
+	 * Wynik jest posortowany od najlepszego.
+	 */
+	TopKCollector search(SparseVector query, double queryNorm, int ef, VisitedSet visited) {
+		if (getEntryPoint() < 0) {
+			TopKCollector empty = new TopKCollector(0, distance);
+			empty.sort();
+			return empty;
+		}
+
+		int[] entry = { getEntryPoint() };
+		double[] entryRank = { rank(entry[0], query, queryNorm) };
+
+		for (int level = getMaxLevel(); level > 0; level--) {
+			TopKCollector nearest = searchLayer(query, queryNorm, entry, entryRank, 1, 1, level, visited);
+			entry[0] = nearest.getDoc(0);
+			entryRank[0] = nearest.getRank(0);
+		}
+
+		return searchLayer(query, queryNorm, entry, entryRank, 1, ef, 0, visited);
+	}
+
+	/**
+	 * Przeszukanie jednego poziomu od podanych punktow wejscia, zwraca ef najlepszych posortowanych od najlepszego.
+	 */
+	TopKCollector searchLayer(SparseVector query, double queryNorm, int[] entries, double[] entryRanks, int count, int ef, int level,
+			VisitedSet visited) {
+		visited.clear();
+
+		TopKCollector results = new TopKCollector(ef, distance);
+		CandidateQueue candidates = new CandidateQueue(distance);
+		for (int i = 0; i < count; i++) {
+			visited.visit(entries[i]);
+			candidates.add(entries[i], entryRanks[i]);
+			results.collect(entries[i], entryRanks[i]);
+		}
+
+		int[] neighbours = new int[HnswFormat.maxConnections(getM(), level)];
+		while (!candidates.isEmpty()) {
+			int node = candidates.peekDoc();
+			double nodeRank = candidates.peekRank();
+			candidates.poll();
+
+			// najlepszy kandydat gorszy od najgorszego wyniku - dalej bedzie tylko gorzej
+			if (results.isFull() && distance.compareRanks(nodeRank, results.getThreshold()) > 0) {
+				break;
+			}
+
+			int n = getNeighbours(node, level, neighbours);
+			for (int i = 0; i < n; i++) {
+				int neighbour = neighbours[i];
+				if (!visited.visit(neighbour)) {
+					continue;
+				}
+				double rank = rank(neighbour, query, queryNorm);
+				if (results.accepts(neighbour, rank)) {
+					candidates.add(neighbour, rank);
+					results.collect(neighbour, rank);
+				}
+			}
+		}
+
+		results.sort();
+		return results;
+	}
+
+}
@@ -0,0 +1,156 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import pl.wwiizt.vector.model.SparseVector;
+import pl.wwiizt.vector.model.TopKCollector;
+import pl.wwizt.vector.distances.Distance;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Graf HNSW segmentu otwarty przez FileChannel.map. Wektory czytane sa z index.bin segmentu.
+ */
+public class HnswIndex extends HnswGraph implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MappedFile file;
+	private final VectorIndex vectors;
+	private final int documents;
+	private final int m;
+	private final int efConstruction;
+	private final int maxLevel;
+	private final int entryPoint;
+	private final long levelsOffset;
+	private final long nodeOffsetsOffset;
+	private final long linksOffset;
+
+	private final ThreadLocal<VisitedSet> visited = new ThreadLocal<VisitedSet>() {
+		@Override
+		protected VisitedSet initialValue() {
+			return new VisitedSet(documents);
+		}
+	};
+
+	private HnswIndex(MappedFile file, VectorIndex vectors, Distance distance) throws IOException {
+		super(distance);
+
+		this.file = file;
+		this.vectors = vectors;
+
+		documents = file.getInt(8);
+		m = file.getInt(12);
+		efConstruction = file.getInt(16);
+		maxLevel = file.getInt(20);
+		entryPoint = file.getInt(24);
+		levelsOffset = file.getLong(32);
+		nodeOffsetsOffset = file.getLong(40);
+		linksOffset = file.getLong(48);
+
+		if (documents != vectors.getDocuments()) {
+			throw new IOException("Graph has " + documents + " documents, vector index has " + vectors.getDocuments());
+		}
+	}
+
+	public static HnswIndex open(File path, VectorIndex vectors) throws IOException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(vectors);
+
+		MappedFile file = MappedFile.map(path);
+		try {
+			if (file.size() < HnswFormat.HEADER_SIZE || file.getInt(0) != HnswFormat.MAGIC) {
+				throw new IOException("Not a HNSW graph file");
+			}
+			int version = file.getInt(4);
+			if (version > HnswFormat.VERSION) {
+				throw new IOException("Unsupported HNSW graph version: " + version);
+			}
+
+			byte[] name = new byte[file.getInt(28)];
+			file.getBytes(HnswFormat.HEADER_SIZE, name, 0, name.length);
+			return new HnswIndex(file, vectors, createDistance(new String(name, UTF8)));
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public Distance getDistance() {
+		return distance;
+	}
+
+	@Override
+	public int getDocuments() {
+		return documents;
+	}
+
+	@Override
+	public int getM() {
+		return m;
+	}
+
+	public int getEfConstruction() {
+		return efConstruction;
+	}
+
+	@Override
+	int getMaxLevel() {
+		return maxLevel;
+	}
+
+	@Override
+	int getEntryPoint() {
+		return entryPoint;
+	}
+
+	/**
+	 * Przyblizone ef najblizszych dokumentow, posortowane od najlepszego. Numery dokumentow sa numerami w segmencie.
+	 */
+	public TopKCollector search(SparseVector query, int ef) {
+		Preconditions.checkNotNull(query);
+		Preconditions.checkArgument(ef > 0, "ef must be positive: %s", ef);
+
+		return search(query, Math.sqrt(query.squaredLength()), ef, visited.get());
+	}
+
+	@Override
+	int getNeighbours(int node, int level, int[] target) {
+		if (level > file.getInt(levelsOffset + 4L * node)) {
+			return 0;
+		}
+
+		long position = linksOffset + 4L * (file.getLong(nodeOffsetsOffset + 8L * node) + HnswFormat.levelOffset(m, level));
+		int count = file.getInt(position);
+		file.getInts(position + 4, target, 0, count);
+		return count;
+	}
+
+	@Override
+	SparseVector getVector(int node) {
+		return vectors.getVector(node);
+	}
+
+	@Override
+	double getNorm(int node) {
+		return vectors.getNorm(node);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	static Distance createDistance(String className) throws IOException {
+		try {
+			return (Distance) Class.forName(className).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IOException("Cannot create distance " + className, e);
+		}
+	}
+
+}
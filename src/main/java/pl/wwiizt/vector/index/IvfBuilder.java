@@ -0,0 +1,286 @@
+package pl.wwiizt.vector.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import net.sf.javaml.clustering.KMedoids;
+import net.sf.javaml.core.Dataset;
+import net.sf.javaml.core.DefaultDataset;
+import net.sf.javaml.core.DenseInstance;
+import net.sf.javaml.core.Instance;
+import net.sf.javaml.distance.EuclideanDistance;
+import pl.wwiizt.vector.model.SparseVector;
+import pl.wwizt.vector.distances.CosineDistance;
+import pl.wwizt.vector.distances.Distance;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Buduje indeks IVF segmentu w formacie {@link IvfFormat}. Skupienia wyznacza KMedoids z javaml na probce dokumentow,
+ * zrzutowanej na najczestsze termy (javaml liczy na gestych wektorach, wiec pelny slownik bylby za drogi). KMeans z
+ * javaml 0.1.7 nie nadaje sie tutaj: losuje centroidy w prostopadloscianie danych i dla rzadkich wektorow petla z
+ * pustymi skupieniami sie nie konczy. Centroidy liczone sa potem w pelnej przestrzeni jako srednie czlonkow probki,
+ * a kazdy dokument segmentu trafia do najblizszego centroidu wedlug podanej miary. Dla miary kosinusowej wektory sa
+ * normalizowane przed usrednianiem. javaml losuje poczatkowe medoidy z ziarnem zaleznym od czasu, wiec kolejne budowy
+ * moga sie roznic.
+ */
+public class IvfBuilder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int TRAINING_DOCUMENTS_PER_CLUSTER = 64;
+	private static final int TRAINING_FEATURES = 512;
+
+	private final VectorIndex index;
+	private final Distance distance;
+	private final boolean normalize;
+
+	private IvfBuilder(VectorIndex index, Distance distance) {
+		this.index = index;
+		this.distance = distance;
+		this.normalize = distance instanceof CosineDistance;
+	}
+
+	/**
+	 * @param clusters liczba skupien, 0 - {@link IvfFormat#defaultClusters(int)}
+	 */
+	public static void build(VectorIndex index, Distance distance, int clusters, int iterations, File file) throws IOException {
+		Preconditions.checkNotNull(index);
+		Preconditions.checkNotNull(distance);
+		Preconditions.checkNotNull(file);
+		Preconditions.checkArgument(clusters >= 0, "Number of clusters must not be negative: %s", clusters);
+		Preconditions.checkArgument(iterations > 0, "Number of iterations must be positive: %s", iterations);
+
+		int documents = index.getDocuments();
+		if (clusters == 0) {
+			clusters = IvfFormat.defaultClusters(documents);
+		}
+		clusters = Math.max(1, Math.min(clusters, documents));
+
+		IvfBuilder builder = new IvfBuilder(index, distance);
+		SparseVector[] centroids = builder.train(clusters, iterations);
+		builder.write(centroids, builder.assign(centroids), file);
+	}
+
+	private SparseVector[] train(int clusters, int iterations) {
+		int documents = index.getDocuments();
+		int training = (int) Math.min(documents, (long) clusters * TRAINING_DOCUMENTS_PER_CLUSTER);
+
+		// rowno rozlozona probka dokumentow
+		int[] sample = new int[training];
+		for (int i = 0; i < training; i++) {
+			sample[i] = (int) ((long) documents * i / training);
+		}
+
+		int[] features = selectFeatures(sample);
+		int[] featureIndex = new int[index.getDimensions()];
+		Arrays.fill(featureIndex, -1);
+		for (int i = 0; i < features.length; i++) {
+			featureIndex[features[i]] = i;
+		}
+
+		Dataset dataset = new DefaultDataset();
+		for (int doc : sample) {
+			SparseVector vector = getVector(doc);
+			double[] values = new double[features.length];
+			for (int i = 0; i < vector.size(); i++) {
+				int feature = featureIndex[vector.getId(i)];
+				if (feature >= 0) {
+					values[feature] = vector.getValue(i);
+				}
+			}
+			dataset.add(new DenseInstance(values, doc));
+		}
+
+		List<SparseVector> centroids = Lists.newArrayList();
+		if (clusters == 1 || features.length == 0) {
+			centroids.add(mean(dataset));
+		} else {
+			for (Dataset cluster : new KMedoids(clusters, iterations, new EuclideanDistance()).cluster(dataset)) {
+				if (!cluster.isEmpty()) {
+					centroids.add(mean(cluster));
+				}
+			}
+		}
+		return centroids.toArray(new SparseVector[centroids.size()]);
+	}
+
+	// termy wystepujace w najwiekszej liczbie dokumentow probki
+	private int[] selectFeatures(int[] sample) {
+		final int[] documentFrequency = new int[index.getDimensions()];
+		int used = 0;
+		for (int doc : sample) {
+			SparseVector vector = index.getVector(doc);
+			for (int i = 0; i < vector.size(); i++) {
+				if (vector.getValue(i) != 0 && documentFrequency[vector.getId(i)]++ == 0) {
+					used++;
+				}
+			}
+		}
+
+		Integer[] terms = new Integer[used];
+		for (int term = 0, i = 0; term < documentFrequency.length; term++) {
+			if (documentFrequency[term] > 0) {
+				terms[i++] = term;
+			}
+		}
+		// czestosc malejaco, przy remisie numer termu
+		Arrays.sort(terms, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer t1, Integer t2) {
+				int result = Integer.compare(documentFrequency[t2], documentFrequency[t1]);
+				return result != 0 ? result : Integer.compare(t1, t2);
+			}
+		});
+
+		int[] features = new int[Math.min(TRAINING_FEATURES, used)];
+		for (int i = 0; i < features.length; i++) {
+			features[i] = terms[i];
+		}
+		Arrays.sort(features);
+		return features;
+	}
+
+	private SparseVector mean(Dataset cluster) {
+		double[] sum = new double[index.getDimensions()];
+		for (Instance instance : cluster) {
+			SparseVector vector = getVector((Integer) instance.classValue());
+			for (int i = 0; i < vector.size(); i++) {
+				sum[vector.getId(i)] += vector.getValue(i);
+			}
+		}
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] /= cluster.size();
+		}
+		return SparseVector.fromDense(sum);
+	}
+
+	private SparseVector getVector(int doc) {
+		SparseVector vector = index.getVector(doc);
+		double norm = index.getNorm(doc);
+		if (!normalize || norm == 0) {
+			return vector;
+		}
+
+		float[] values = new float[vector.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (float) (vector.getValue(i) / norm);
+		}
+		return new SparseVector(vector.getIds(), values);
+	}
+
+	/**
+	 * Numer najblizszego centroidu dla kazdego dokumentu.
+	 */
+	private int[] assign(SparseVector[] centroids) {
+		double[] norms = norms(centroids);
+		int[] assignment = new int[index.getDocuments()];
+
+		for (int doc = 0; doc < assignment.length; doc++) {
+			SparseVector vector = index.getVector(doc);
+			double norm = index.getNorm(doc);
+
+			int best = 0;
+			double bestRank = distance.measureDistance(centroids[0], norms[0], vector, norm);
+			for (int c = 1; c < centroids.length; c++) {
+				double rank = distance.measureDistance(centroids[c], norms[c], vector, norm);
+				if (distance.compareRanks(rank, bestRank) < 0) {
+					best = c;
+					bestRank = rank;
+				}
+			}
+			assignment[doc] = best;
+		}
+		return assignment;
+	}
+
+	private static double[] norms(SparseVector[] vectors) {
+		double[] norms = new double[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			norms[i] = Math.sqrt(vectors[i].squaredLength());
+		}
+		return norms;
+	}
+
+	private void write(SparseVector[] centroids, int[] assignment, File file) throws IOException {
+		int documents = assignment.length;
+		int clusters = centroids.length;
+		byte[] distanceName = distance.getClass().getName().getBytes(UTF8);
+
+		int[] starts = new int[clusters + 1];
+		for (int cluster : assignment) {
+			starts[cluster + 1]++;
+		}
+		for (int c = 0; c < clusters; c++) {
+			starts[c + 1] += starts[c];
+		}
+		// dokumenty w kolejnosci numerow - kazde skupienie rosnaco
+		int[] members = new int[documents];
+		int[] next = Arrays.copyOf(starts, clusters);
+		for (int doc = 0; doc < documents; doc++) {
+			members[next[assignment[doc]]++] = doc;
+		}
+
+		long centroidsOffset = VectorIndexFormat.align(IvfFormat.HEADER_SIZE + distanceName.length);
+		long[] positions = new long[clusters + 1];
+		positions[0] = centroidsOffset;
+		for (int c = 0; c < clusters; c++) {
+			positions[c + 1] = positions[c] + 8L * centroids[c].size();
+		}
+		long centroidIndexOffset = VectorIndexFormat.align(positions[clusters]);
+		long normsOffset = centroidIndexOffset + 8L * (clusters + 1);
+		long clusterStartsOffset = normsOffset + 8L * clusters;
+		long membersOffset = clusterStartsOffset + 4L * (clusters + 1);
+
+		double[] norms = norms(centroids);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(IvfFormat.MAGIC);
+			out.writeInt(IvfFormat.VERSION);
+			out.writeInt(documents);
+			out.writeInt(clusters);
+			out.writeInt(index.getDimensions());
+			out.writeInt(distanceName.length);
+			out.writeLong(centroidsOffset);
+			out.writeLong(centroidIndexOffset);
+			out.writeLong(normsOffset);
+			out.writeLong(clusterStartsOffset);
+			out.writeLong(membersOffset);
+
+			out.write(distanceName);
+			out.write(new byte[(int) (centroidsOffset - IvfFormat.HEADER_SIZE - distanceName.length)]);
+
+			for (SparseVector centroid : centroids) {
+				for (int i = 0; i < centroid.size(); i++) {
+					out.writeInt(centroid.getId(i));
+				}
+				for (int i = 0; i < centroid.size(); i++) {
+					out.writeFloat(centroid.getValue(i));
+				}
+			}
+			out.write(new byte[(int) (centroidIndexOffset - positions[clusters])]);
+
+			for (long position : positions) {
+				out.writeLong(position);
+			}
+			for (double norm : norms) {
+				out.writeDouble(norm);
+			}
+			for (int start : starts) {
+				out.writeInt(start);
+			}
+			for (int member : members) {
+				out.writeInt(member);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package pl.wwiizt.vector.index;
+
+/**
+ * Indeks IVF segmentu (nazwa.ivf): centroidy skupien k-means i numery dokumentow pogrupowane wedlug skupien, zbudowany
+ * dla jednej miary odleglosci.
+ *
+ * <pre>
+ * naglowek (64 bajty, big-endian):
+ *   int magic, int version, int documents, int clusters, int dimensions, int dlugosc nazwy klasy Distance,
+ *   long centroidsOffset, long centroidIndexOffset, long normsOffset, long clusterStartsOffset, long membersOffset
+ * nazwa klasy Distance (UTF-8), wyrownana do 8 bajtow
+ * centroidy: dla kazdego skupienia int[n] numery termow, potem float[n] wagi (jak wiersze SPARSE w index.bin)
+ * indeks centroidow: long[clusters + 1] pozycji centroidow w pliku
+ * normy L2 centroidow: double[clusters]
+ * poczatki skupien: int[clusters + 1] - pozycja pierwszego dokumentu skupienia w sekcji dokumentow
+ * dokumenty: int[documents], kazde skupienie w jednym ciagu, rosnaco
+ * </pre>
+ */
+public final class IvfFormat {
+
+	public static final String EXTENSION = ".ivf";
+
+	public static final int MAGIC = 0x57564956; // "WVIV"
+	public static final int VERSION = 1;
+
+	public static final int DEFAULT_NPROBE = 8;
+	public static final int DEFAULT_ITERATIONS = 20;
+
+	static final int HEADER_SIZE = 64;
+
+	private IvfFormat() {
+	}
+
+	/**
+	 * Domyslna liczba skupien - pierwiastek z liczby dokumentow.
+	 */
+	public static int defaultClusters(int documents) {
+		return Math.max(1, (int) Math.round(Math.sqrt(documents)));
+	}
+
+}
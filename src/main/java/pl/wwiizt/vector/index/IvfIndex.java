@@ -0,0 +1,134 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import pl.wwiizt.vector.model.SparseVector;
+import pl.wwiizt.vector.model.TopKCollector;
+import pl.wwizt.vector.distances.Distance;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Indeks IVF segmentu otwarty przez FileChannel.map. Centroidy sa przy otwarciu wczytywane do pamieci, numery
+ * dokumentow skupien czytane sa z pliku.
+ */
+public class IvfIndex implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MappedFile file;
+	private final Distance distance;
+	private final int documents;
+	private final SparseVector[] centroids;
+	private final double[] norms;
+	private final int[] starts;
+	private final long membersOffset;
+
+	private IvfIndex(MappedFile file, Distance distance) {
+		this.file = file;
+		this.distance = distance;
+
+		documents = file.getInt(8);
+		int clusters = file.getInt(12);
+		long centroidIndexOffset = file.getLong(32);
+		long normsOffset = file.getLong(40);
+		long clusterStartsOffset = file.getLong(48);
+		membersOffset = file.getLong(56);
+
+		centroids = new SparseVector[clusters];
+		norms = new double[clusters];
+		starts = new int[clusters + 1];
+		for (int c = 0; c < clusters; c++) {
+			long position = file.getLong(centroidIndexOffset + 8L * c);
+			int n = (int) ((file.getLong(centroidIndexOffset + 8L * (c + 1)) - position) / 8);
+			int[] ids = new int[n];
+			float[] values = new float[n];
+			file.getInts(position, ids, 0, n);
+			file.getFloats(position + 4L * n, values, 0, n);
+			centroids[c] = new SparseVector(ids, values);
+		}
+		file.getDoubles(normsOffset, norms, 0, clusters);
+		file.getInts(clusterStartsOffset, starts, 0, clusters + 1);
+	}
+
+	public static IvfIndex open(File path, VectorIndex vectors) throws IOException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(vectors);
+
+		MappedFile file = MappedFile.map(path);
+		try {
+			if (file.size() < IvfFormat.HEADER_SIZE || file.getInt(0) != IvfFormat.MAGIC) {
+				throw new IOException("Not an IVF index file");
+			}
+			int version = file.getInt(4);
+			if (version > IvfFormat.VERSION) {
+				throw new IOException("Unsupported IVF index version: " + version);
+			}
+			if (file.getInt(8) != vectors.getDocuments()) {
+				throw new IOException("IVF index has " + file.getInt(8) + " documents, vector index has " + vectors.getDocuments());
+			}
+
+			byte[] name = new byte[file.getInt(20)];
+			file.getBytes(IvfFormat.HEADER_SIZE, name, 0, name.length);
+			return new IvfIndex(file, HnswIndex.createDistance(new String(name, UTF8)));
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public Distance getDistance() {
+		return distance;
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public int getClusters() {
+		return centroids.length;
+	}
+
+	/**
+	 * Numery nprobe skupien o centroidach najblizszych zapytaniu, od najblizszego.
+	 */
+	public int[] probe(SparseVector query, int nprobe) {
+		Preconditions.checkNotNull(query);
+		Preconditions.checkArgument(nprobe > 0, "nprobe must be positive: %s", nprobe);
+
+		double queryNorm = Math.sqrt(query.squaredLength());
+		TopKCollector nearest = new TopKCollector(Math.min(nprobe, centroids.length), distance);
+		for (int c = 0; c < centroids.length; c++) {
+			nearest.collect(c, distance.measureDistance(centroids[c], norms[c], query, queryNorm));
+		}
+		nearest.sort();
+
+		int[] clusters = new int[nearest.size()];
+		for (int i = 0; i < clusters.length; i++) {
+			clusters[i] = nearest.getDoc(i);
+		}
+		return clusters;
+	}
+
+	public int getClusterSize(int cluster) {
+		return starts[cluster + 1] - starts[cluster];
+	}
+
+	/**
+	 * Numery dokumentow skupienia (rosnaco) do target, zwraca ich liczbe.
+	 */
+	public int getMembers(int cluster, int[] target) {
+		int size = getClusterSize(cluster);
+		file.getInts(membersOffset + 4L * starts[cluster], target, 0, size);
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
@@ -0,0 +1,322 @@
+package pl.wwiizt.vector.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+import Jama.QRDecomposition;
+import Jama.SingularValueDecomposition;
+import pl.wwiizt.vector.model.SparseVector;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Buduje indeks LSA segmentu w formacie {@link LsaFormat}. Dla malej macierzy dokument-term liczone jest pelne SVD
+ * (Jama), dla wiekszej - losowe SVD (Halko, Martinsson, Tropp): baza podprzestrzeni A * Omega z kilkoma iteracjami
+ * potegowymi, a potem rozklad malej macierzy l x l. Macierz A nie jest nigdy trzymana w calosci - mnozenia ida
+ * wierszami z index.bin, a losowa macierz Omega (dimensions x l) jest generowana wierszami w miare potrzeby. Na sterte
+ * trafia jedna macierz dimensions x l, ktora po rozkladzie przechodzi wierszami w macierz rzutu. Wektory dokumentow
+ * sa liczone tym samym rzutem co zapytania przy wyszukiwaniu.
+ */
+public class LsaBuilder {
+
+	private static final long SEED = 42;
+	private static final int OVERSAMPLING = 10;
+	private static final int POWER_ITERATIONS = 2;
+	// do tylu elementow (documents * dimensions) macierz gesta i pelne SVD
+	private static final long EXACT_LIMIT = 1L << 22;
+	// kwadrat normy kolumny wzgledem poczatkowego, ponizej ktorego kolumna jest traktowana jako zalezna
+	private static final double DEPENDENT_COLUMN = 1e-20;
+
+	private final VectorIndex index;
+	private final int rank;
+	// wiersz na term, w precyzji pliku
+	private float[][] projection;
+	private double[] singularValues;
+
+	private LsaBuilder(VectorIndex index, int rank) {
+		this.index = index;
+		this.rank = rank;
+	}
+
+	/**
+	 * @param rank liczba wymiarow po rzucie, ograniczana do min(documents, dimensions)
+	 */
+	public static void build(VectorIndex index, int rank, File file) throws IOException {
+		Preconditions.checkNotNull(index);
+		Preconditions.checkNotNull(file);
+		Preconditions.checkArgument(rank > 0, "Rank must be positive: %s", rank);
+
+		int documents = index.getDocuments();
+		int dimensions = index.getDimensions();
+
+		LsaBuilder builder = new LsaBuilder(index, Math.min(rank, Math.min(documents, dimensions)));
+		if (builder.rank == 0) {
+			builder.projection = new float[dimensions][0];
+			builder.singularValues = new double[0];
+		} else if ((long) documents * dimensions <= EXACT_LIMIT) {
+			builder.decompose();
+		} else {
+			builder.decomposeRandomized();
+		}
+		builder.write(file);
+	}
+
+	private void decompose() {
+		int documents = index.getDocuments();
+		int dimensions = index.getDimensions();
+
+		Matrix a = new Matrix(documents, dimensions);
+		for (int doc = 0; doc < documents; doc++) {
+			SparseVector vector = index.getVector(doc);
+			for (int i = 0; i < vector.size(); i++) {
+				a.set(doc, vector.getId(i), vector.getValue(i));
+			}
+		}
+
+		// Jama rozklada tylko macierze o co najmniej tylu wierszach co kolumnach
+		Matrix v;
+		SingularValueDecomposition svd;
+		if (documents >= dimensions) {
+			svd = a.svd();
+			v = svd.getV();
+		} else {
+			svd = a.transpose().svd();
+			v = svd.getU();
+		}
+
+		double[][] rows = v.getArray();
+		projection = new float[dimensions][rank];
+		for (int t = 0; t < dimensions; t++) {
+			for (int j = 0; j < rank; j++) {
+				projection[t][j] = (float) rows[t][j];
+			}
+		}
+		singularValues = new double[rank];
+		System.arraycopy(svd.getSingularValues(), 0, singularValues, 0, rank);
+	}
+
+	private void decomposeRandomized() {
+		int documents = index.getDocuments();
+		int dimensions = index.getDimensions();
+		int l = Math.min(rank + OVERSAMPLING, Math.min(documents, dimensions));
+
+		// Q - baza ortonormalna przestrzeni kolumn A * Omega, iteracje potegowe wzmacniaja gorne wartosci osobliwe
+		double[][] q = orthonormalize(multiplyRandom(l));
+		for (int i = 0; i < POWER_ITERATIONS; i++) {
+			double[][] y = multiplyTransposed(q, l);
+			orthonormalizeColumns(y, l);
+			q = orthonormalize(multiply(y, l));
+		}
+
+		// B = Q^T A, z = B^T; B B^T = z^T z = W L W^T, prawe wektory osobliwe B to z W / sigma
+		double[][] z = multiplyTransposed(q, l);
+		EigenvalueDecomposition eig = new Matrix(gram(z, l)).eig();
+		double[] eigenvalues = eig.getRealEigenvalues();
+		double[][] w = eig.getV().getArray();
+
+		// wartosci wlasne Jama sa rosnaco
+		singularValues = new double[rank];
+		for (int j = 0; j < rank; j++) {
+			singularValues[j] = Math.sqrt(Math.max(eigenvalues[l - 1 - j], 0));
+		}
+
+		// wiersz z nie jest juz potrzebny po policzeniu wiersza rzutu
+		projection = new float[dimensions][];
+		for (int t = 0; t < dimensions; t++) {
+			float[] row = new float[rank];
+			for (int j = 0; j < rank; j++) {
+				double sigma = singularValues[j];
+				if (sigma == 0) {
+					continue;
+				}
+				int column = l - 1 - j;
+				double sum = 0;
+				for (int c = 0; c < l; c++) {
+					sum += z[t][c] * w[c][column];
+				}
+				row[j] = (float) (sum / sigma);
+			}
+			projection[t] = row;
+			z[t] = null;
+		}
+	}
+
+	// A * Omega; Omega ma losowe znaki +-1 (Halko i in. dopuszczaja je zamiast rozkladu Gaussa), wiersz termu jest
+	// generowany z ziarna zaleznego od termu, wiec jest ten sam przy kazdym wystapieniu termu
+	private double[][] multiplyRandom(int columns) {
+		double[][] result = new double[index.getDocuments()][columns];
+		Random random = new Random();
+		double[] omega = new double[columns];
+		for (int doc = 0; doc < result.length; doc++) {
+			SparseVector vector = index.getVector(doc);
+			double[] row = result[doc];
+			for (int i = 0; i < vector.size(); i++) {
+				random.setSeed(SEED ^ vector.getId(i) * 0x9E3779B97F4A7C15L);
+				long bits = 0;
+				for (int c = 0; c < columns; c++) {
+					if ((c & 63) == 0) {
+						bits = random.nextLong();
+					}
+					omega[c] = (bits & 1) == 0 ? 1 : -1;
+					bits >>>= 1;
+				}
+
+				double value = vector.getValue(i);
+				for (int c = 0; c < columns; c++) {
+					row[c] += value * omega[c];
+				}
+			}
+		}
+		return result;
+	}
+
+	// A * m, m ma dimensions wierszy
+	private double[][] multiply(double[][] m, int columns) {
+		double[][] result = new double[index.getDocuments()][columns];
+		for (int doc = 0; doc < result.length; doc++) {
+			SparseVector vector = index.getVector(doc);
+			double[] row = result[doc];
+			for (int i = 0; i < vector.size(); i++) {
+				double value = vector.getValue(i);
+				double[] other = m[vector.getId(i)];
+				for (int c = 0; c < columns; c++) {
+					row[c] += value * other[c];
+				}
+			}
+		}
+		return result;
+	}
+
+	// A^T * m, m ma documents wierszy
+	private double[][] multiplyTransposed(double[][] m, int columns) {
+		double[][] result = new double[index.getDimensions()][columns];
+		for (int doc = 0; doc < m.length; doc++) {
+			SparseVector vector = index.getVector(doc);
+			double[] other = m[doc];
+			for (int i = 0; i < vector.size(); i++) {
+				double value = vector.getValue(i);
+				double[] row = result[vector.getId(i)];
+				for (int c = 0; c < columns; c++) {
+					row[c] += value * other[c];
+				}
+			}
+		}
+		return result;
+	}
+
+	// m^T * m
+	private static double[][] gram(double[][] m, int columns) {
+		double[][] result = new double[columns][columns];
+		for (double[] row : m) {
+			for (int a = 0; a < columns; a++) {
+				double value = row[a];
+				double[] sums = result[a];
+				for (int b = 0; b < columns; b++) {
+					sums[b] += value * row[b];
+				}
+			}
+		}
+		return result;
+	}
+
+	private static double[][] orthonormalize(double[][] m) {
+		return new QRDecomposition(new Matrix(m)).getQ().getArray();
+	}
+
+	/**
+	 * Modyfikowany Gram-Schmidt w miejscu, dla macierzy o dimensions wierszach - QRDecomposition robi jej dwie kopie.
+	 * Kolumna zalezna od poprzednich (zostaje z niej tylko blad zaokraglen) jest zerowana.
+	 */
+	private static void orthonormalizeColumns(double[][] m, int columns) {
+		double[] norms = new double[columns];
+		for (double[] row : m) {
+			for (int c = 0; c < columns; c++) {
+				norms[c] += row[c] * row[c];
+			}
+		}
+
+		double[] dots = new double[columns];
+		for (int j = 0; j < columns; j++) {
+			double norm = 0;
+			for (double[] row : m) {
+				norm += row[j] * row[j];
+			}
+			double scale = norm > DEPENDENT_COLUMN * norms[j] ? 1 / Math.sqrt(norm) : 0;
+
+			Arrays.fill(dots, 0);
+			for (double[] row : m) {
+				row[j] *= scale;
+				double value = row[j];
+				for (int k = j + 1; k < columns; k++) {
+					dots[k] += value * row[k];
+				}
+			}
+			for (double[] row : m) {
+				double value = row[j];
+				for (int k = j + 1; k < columns; k++) {
+					row[k] -= dots[k] * value;
+				}
+			}
+		}
+	}
+
+	private void write(File file) throws IOException {
+		int documents = index.getDocuments();
+		int dimensions = index.getDimensions();
+
+		long projectionOffset = LsaFormat.HEADER_SIZE;
+		long vectorsOffset = VectorIndexFormat.align(projectionOffset + 4L * dimensions * rank);
+		long normsOffset = VectorIndexFormat.align(vectorsOffset + 4L * documents * rank);
+		long singularValuesOffset = normsOffset + 8L * documents;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(LsaFormat.MAGIC);
+			out.writeInt(LsaFormat.VERSION);
+			out.writeInt(documents);
+			out.writeInt(dimensions);
+			out.writeInt(rank);
+			out.writeInt(0);
+			out.writeLong(projectionOffset);
+			out.writeLong(vectorsOffset);
+			out.writeLong(normsOffset);
+			out.writeLong(singularValuesOffset);
+			out.write(new byte[LsaFormat.HEADER_SIZE - 56]);
+
+			for (float[] row : projection) {
+				for (float value : row) {
+					out.writeFloat(value);
+				}
+			}
+			out.write(new byte[(int) (vectorsOffset - projectionOffset - 4L * dimensions * rank)]);
+
+			// ten sam rzut co dla zapytan w LsaIndex.project
+			double[] norms = new double[documents];
+			float[] projected = new float[rank];
+			for (int doc = 0; doc < documents; doc++) {
+				LsaIndex.project(index.getVector(doc), projection, projected);
+				double norm = 0;
+				for (float value : projected) {
+					out.writeFloat(value);
+					norm += (double) value * value;
+				}
+				norms[doc] = Math.sqrt(norm);
+			}
+			out.write(new byte[(int) (normsOffset - vectorsOffset - 4L * documents * rank)]);
+
+			for (double norm : norms) {
+				out.writeDouble(norm);
+			}
+			for (double value : singularValues) {
+				out.writeDouble(value);
+			}
+		}
+	}
+
+}
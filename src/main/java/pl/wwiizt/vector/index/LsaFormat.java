@@ -0,0 +1,31 @@
+package pl.wwiizt.vector.index;
+
+/**
+ * Indeks LSA segmentu (nazwa.lsa): rzut wektorow segmentu na k pierwszych prawych wektorow osobliwych macierzy
+ * dokument-term (obciete SVD).
+ *
+ * <pre>
+ * naglowek (64 bajty, big-endian):
+ *   int magic, int version, int documents, int dimensions, int rank, int 0,
+ *   long projectionOffset, long vectorsOffset, long normsOffset, long singularValuesOffset, reszta zera
+ * macierz rzutu: float32[dimensions * rank], wiersz na term
+ * wektory dokumentow: float32[documents * rank]
+ * normy L2 wektorow dokumentow: double[documents]
+ * wartosci osobliwe: double[rank], malejaco
+ * </pre>
+ */
+public final class LsaFormat {
+
+	public static final String EXTENSION = ".lsa";
+
+	public static final int MAGIC = 0x5756534C; // "WVSL"
+	public static final int VERSION = 1;
+
+	public static final int DEFAULT_RANK = 200;
+
+	static final int HEADER_SIZE = 64;
+
+	private LsaFormat() {
+	}
+
+}
@@ -0,0 +1,150 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import pl.wwiizt.vector.model.SparseVector;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Indeks LSA segmentu otwarty przez FileChannel.map. Wektory dokumentow i wiersze macierzy rzutu (tylko dla termow
+ * zapytania) czytane sa z pliku - macierz rzutu ma wiersz na kazdy term segmentu i nie jest trzymana w pamieci.
+ */
+public class LsaIndex implements Closeable {
+
+	private final MappedFile file;
+	private final int documents;
+	private final int dimensions;
+	private final int rank;
+	private final long projectionOffset;
+	private final long vectorsOffset;
+	private final long normsOffset;
+	private final long singularValuesOffset;
+
+	private LsaIndex(MappedFile file) {
+		this.file = file;
+
+		documents = file.getInt(8);
+		dimensions = file.getInt(12);
+		rank = file.getInt(16);
+		projectionOffset = file.getLong(24);
+		vectorsOffset = file.getLong(32);
+		normsOffset = file.getLong(40);
+		singularValuesOffset = file.getLong(48);
+	}
+
+	public static LsaIndex open(File path, VectorIndex vectors) throws IOException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(vectors);
+
+		MappedFile file = MappedFile.map(path);
+		try {
+			if (file.size() < LsaFormat.HEADER_SIZE || file.getInt(0) != LsaFormat.MAGIC) {
+				throw new IOException("Not a LSA index file");
+			}
+			int version = file.getInt(4);
+			if (version > LsaFormat.VERSION) {
+				throw new IOException("Unsupported LSA index version: " + version);
+			}
+			if (file.getInt(8) != vectors.getDocuments() || file.getInt(12) != vectors.getDimensions()) {
+				throw new IOException("LSA index has " + file.getInt(8) + " documents and " + file.getInt(12)
+						+ " dimensions, vector index has " + vectors.getDocuments() + " and " + vectors.getDimensions());
+			}
+			return new LsaIndex(file);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	public int getRank() {
+		return rank;
+	}
+
+	public double getSingularValue(int i) {
+		Preconditions.checkElementIndex(i, rank);
+		return file.getDouble(singularValuesOffset + 8L * i);
+	}
+
+	/**
+	 * Rzut wektora na przestrzen LSA. Termy spoza segmentu (np. z nowszego naglowka) sa pomijane.
+	 */
+	public float[] project(SparseVector vector, float[] target) {
+		Preconditions.checkNotNull(vector);
+
+		if (target == null || target.length != rank) {
+			target = new float[rank];
+		}
+
+		double[] sum = new double[rank];
+		float[] row = new float[rank];
+		for (int i = 0; i < vector.size(); i++) {
+			int term = vector.getId(i);
+			if (term >= dimensions) {
+				continue;
+			}
+			file.getFloats(projectionOffset + 4L * term * rank, row, 0, rank);
+			add(sum, vector.getValue(i), row);
+		}
+		toFloats(sum, target);
+		return target;
+	}
+
+	/**
+	 * Rzut z macierza w pamieci, przy budowie - te same dzialania co {@link #project(SparseVector, float[])}.
+	 */
+	static void project(SparseVector vector, float[][] projection, float[] target) {
+		double[] sum = new double[target.length];
+		for (int i = 0; i < vector.size(); i++) {
+			int term = vector.getId(i);
+			if (term >= projection.length) {
+				continue;
+			}
+			add(sum, vector.getValue(i), projection[term]);
+		}
+		toFloats(sum, target);
+	}
+
+	private static void add(double[] sum, double value, float[] row) {
+		for (int j = 0; j < sum.length; j++) {
+			sum[j] += value * row[j];
+		}
+	}
+
+	private static void toFloats(double[] sum, float[] target) {
+		for (int j = 0; j < sum.length; j++) {
+			target[j] = (float) sum[j];
+		}
+	}
+
+	public float[] getVector(int doc, float[] target) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		if (target == null || target.length != rank) {
+			target = new float[rank];
+		}
+		file.getFloats(vectorsOffset + 4L * doc * rank, target, 0, rank);
+		return target;
+	}
+
+	public double getNorm(int doc) {
+		Preconditions.checkElementIndex(doc, documents);
+		return file.getDouble(normsOffset + 8L * doc);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
@@ -0,0 +1,189 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plik zmapowany do pamieci (FileChannel.map) w kawalkach po 1GB, zeby obejsc limit 2GB na jeden bufor.
+ * Wartosci int/float/long/double musza byc wyrownane do swojej dlugosci - wtedy nigdy nie leza na granicy kawalkow.
+ */
+class MappedFile implements Closeable {
+
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] chunks;
+	private final long size;
+
+	private MappedFile(RandomAccessFile file, MappedByteBuffer[] chunks, long size) {
+		this.file = file;
+		this.chunks = chunks;
+		this.size = size;
+	}
+
+	static MappedFile map(File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		return map(file, file.length(), FileChannel.MapMode.READ_ONLY);
+	}
+
+	/**
+	 * Tworzy plik o zadanym rozmiarze zmapowany do zapisu - pozwala pisac w dowolne miejsca bez trzymania calosci na stercie.
+	 */
+	static MappedFile create(File path, long size) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			file.setLength(size);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		return map(file, size, FileChannel.MapMode.READ_WRITE);
+	}
+
+	private static MappedFile map(RandomAccessFile file, long size, FileChannel.MapMode mode) throws IOException {
+		try {
+			FileChannel channel = file.getChannel();
+			int count = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+			MappedByteBuffer[] chunks = new MappedByteBuffer[count];
+
+			for (int i = 0; i < count; i++) {
+				long start = (long) i << CHUNK_BITS;
+				chunks[i] = channel.map(mode, start, Math.min(CHUNK_SIZE, size - start));
+			}
+
+			return new MappedFile(file, chunks, size);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	long size() {
+		return size;
+	}
+
+	int getInt(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & CHUNK_MASK));
+	}
+
+	long getLong(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & CHUNK_MASK));
+	}
+
+	float getFloat(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getFloat((int) (pos & CHUNK_MASK));
+	}
+
+	double getDouble(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getDouble((int) (pos & CHUNK_MASK));
+	}
+
+	byte getByte(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+	}
+
+	void getBytes(long pos, byte[] dst, int offset, int length) {
+		while (length > 0) {
+			int inChunk = (int) (pos & CHUNK_MASK);
+			ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)].duplicate();
+			int n = Math.min(length, chunk.limit() - inChunk);
+			chunk.position(inChunk);
+			chunk.get(dst, offset, n);
+			pos += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	void getFloats(long pos, float[] dst, int offset, int length) {
+		if (sameChunk(pos, length * 4L)) {
+			ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (pos & CHUNK_MASK));
+			chunk.asFloatBuffer().get(dst, offset, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				dst[offset + i] = getFloat(pos + i * 4L);
+			}
+		}
+	}
+
+	void getDoubles(long pos, double[] dst, int offset, int length) {
+		if (sameChunk(pos, length * 8L)) {
+			ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (pos & CHUNK_MASK));
+			chunk.asDoubleBuffer().get(dst, offset, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				dst[offset + i] = getDouble(pos + i * 8L);
+			}
+		}
+	}
+
+	void getInts(long pos, int[] dst, int offset, int length) {
+		if (sameChunk(pos, length * 4L)) {
+			ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)].duplicate();
+			chunk.position((int) (pos & CHUNK_MASK));
+			chunk.asIntBuffer().get(dst, offset, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				dst[offset + i] = getInt(pos + i * 4L);
+			}
+		}
+	}
+
+	void putInt(long pos, int value) {
+		chunks[(int) (pos >>> CHUNK_BITS)].putInt((int) (pos & CHUNK_MASK), value);
+	}
+
+	void putLong(long pos, long value) {
+		chunks[(int) (pos >>> CHUNK_BITS)].putLong((int) (pos & CHUNK_MASK), value);
+	}
+
+	void putFloat(long pos, float value) {
+		chunks[(int) (pos >>> CHUNK_BITS)].putFloat((int) (pos & CHUNK_MASK), value);
+	}
+
+	void putDouble(long pos, double value) {
+		chunks[(int) (pos >>> CHUNK_BITS)].putDouble((int) (pos & CHUNK_MASK), value);
+	}
+
+	void putByte(long pos, byte value) {
+		chunks[(int) (pos >>> CHUNK_BITS)].put((int) (pos & CHUNK_MASK), value);
+	}
+
+	void putBytes(long pos, byte[] src, int offset, int length) {
+		while (length > 0) {
+			int inChunk = (int) (pos & CHUNK_MASK);
+			ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)].duplicate();
+			int n = Math.min(length, chunk.limit() - inChunk);
+			chunk.position(inChunk);
+			chunk.put(src, offset, n);
+			pos += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	void force() {
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private boolean sameChunk(long pos, long length) {
+		return length == 0 || (pos >>> CHUNK_BITS) == ((pos + length - 1) >>> CHUNK_BITS);
+	}
+
+}
@@ -0,0 +1,172 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Graf k najblizszych sasiadow calego indeksu (neighbours.knn), otwarty przez FileChannel.map. Numery dokumentow sa
+ * numerami w calym indeksie (base segmentu + numer w segmencie), wiec graf pasuje tylko do listy segmentow, dla ktorej
+ * zostal policzony - jest ona zapisana w pliku. Kazdy dokument ma k miejsc, wiec sasiadow czyta sie bez przeliczania.
+ *
+ * <pre>
+ * naglowek (32 bajty, big-endian):
+ *   int magic, int version, int documents, int k, int dlugosc listy segmentow, int 0, long rowsOffset
+ * lista segmentow (UTF-8, kazda nazwa zakonczona '\n'), wyrownana do 8 bajtow
+ * wiersze: dla kazdego dokumentu k par (int numer, float podobienstwo), od najlepszego; numer -1 - wolne miejsce
+ * </pre>
+ */
+public class NeighbourGraph implements Closeable {
+
+	public static final String FILE_NAME = "neighbours.knn";
+	public static final int DEFAULT_K = 10;
+
+	private static final int MAGIC = 0x57564B4E; // "WVKN"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int ENTRY_SIZE = 8;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MappedFile file;
+	private final int documents;
+	private final int k;
+	private final List<String> segments;
+	private final long rowsOffset;
+
+	private NeighbourGraph(MappedFile file, int documents, int k, List<String> segments, long rowsOffset) {
+		this.file = file;
+		this.documents = documents;
+		this.k = k;
+		this.segments = segments;
+		this.rowsOffset = rowsOffset;
+	}
+
+	/**
+	 * Nowy plik z pustymi wierszami do wypelnienia przez {@link #setNeighbours(int, int[], float[], int)}. Rozne
+	 * dokumenty mozna zapisywac z wielu watkow.
+	 */
+	public static NeighbourGraph create(File path, List<String> segments, int documents, int k) throws IOException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(segments);
+		Preconditions.checkArgument(documents >= 0);
+		Preconditions.checkArgument(k > 0, "k must be positive: %s", k);
+
+		StringBuilder sb = new StringBuilder();
+		for (String segment : segments) {
+			sb.append(segment).append('\n');
+		}
+		byte[] names = sb.toString().getBytes(UTF8);
+		long rowsOffset = VectorIndexFormat.align(HEADER_SIZE + names.length);
+		MappedFile file = MappedFile.create(path, rowsOffset + (long) ENTRY_SIZE * k * documents);
+
+		file.putInt(0, MAGIC);
+		file.putInt(4, VERSION);
+		file.putInt(8, documents);
+		file.putInt(12, k);
+		file.putInt(16, names.length);
+		file.putLong(24, rowsOffset);
+		file.putBytes(HEADER_SIZE, names, 0, names.length);
+		for (long entry = 0; entry < (long) k * documents; entry++) {
+			file.putInt(rowsOffset + ENTRY_SIZE * entry, -1);
+		}
+		return new NeighbourGraph(file, documents, k, Lists.newArrayList(segments), rowsOffset);
+	}
+
+	public static NeighbourGraph open(File path) throws IOException {
+		Preconditions.checkNotNull(path);
+
+		MappedFile file = MappedFile.map(path);
+		try {
+			if (file.size() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+				throw new IOException("Not a neighbour graph file");
+			}
+			int version = file.getInt(4);
+			if (version > VERSION) {
+				throw new IOException("Unsupported neighbour graph version: " + version);
+			}
+
+			byte[] names = new byte[file.getInt(16)];
+			file.getBytes(HEADER_SIZE, names, 0, names.length);
+			List<String> segments = Lists.newArrayList();
+			for (String segment : new String(names, UTF8).split("\n")) {
+				if (!segment.isEmpty()) {
+					segments.add(segment);
+				}
+			}
+			return new NeighbourGraph(file, file.getInt(8), file.getInt(12), segments, file.getLong(24));
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Segmenty (z segments.txt), dla ktorych policzono graf.
+	 */
+	public List<String> getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Zapisuje length pierwszych sasiadow (od najlepszego), reszta miejsc zostaje wolna.
+	 */
+	public void setNeighbours(int doc, int[] docs, float[] similarities, int length) {
+		Preconditions.checkElementIndex(doc, documents);
+		Preconditions.checkArgument(length <= k, "More than %s neighbours: %s", k, length);
+
+		long position = getRowOffset(doc);
+		for (int i = 0; i < length; i++) {
+			file.putInt(position, docs[i]);
+			file.putFloat(position + 4, similarities[i]);
+			position += ENTRY_SIZE;
+		}
+	}
+
+	/**
+	 * Sasiedzi dokumentu od najlepszego.
+	 * @return liczba sasiadow (co najwyzej k)
+	 */
+	public int getNeighbours(int doc, int[] docs, float[] similarities) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		long position = getRowOffset(doc);
+		int length = 0;
+		while (length < k) {
+			int neighbour = file.getInt(position);
+			if (neighbour < 0) {
+				break;
+			}
+			docs[length] = neighbour;
+			similarities[length++] = file.getFloat(position + 4);
+			position += ENTRY_SIZE;
+		}
+		return length;
+	}
+
+	public void force() {
+		file.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private long getRowOffset(int doc) {
+		return rowsOffset + (long) ENTRY_SIZE * k * doc;
+	}
+
+}
@@ -0,0 +1,136 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Dokumenty segmentu posortowane rosnaco po normie L2 (nazwa.nord), otwarte przez FileChannel.map. Pozwala
+ * przegladac dokumenty od normy najblizszej normie zapytania i konczyc przeglad, gdy roznica norm przekroczy prog
+ * odleglosci euklidesowej.
+ *
+ * <pre>
+ * naglowek (16 bajtow, big-endian): int magic, int version, int documents, int 0
+ * dokumenty: int[documents], rosnaco po normie, przy remisie po numerze
+ * normy: double[documents] w tej samej kolejnosci, wyrownane do 8 bajtow
+ * </pre>
+ */
+public class NormOrder implements Closeable {
+
+	public static final String EXTENSION = ".nord";
+
+	private static final int MAGIC = 0x57564E4F; // "WVNO"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	private final MappedFile file;
+	private final int documents;
+	private final long normsOffset;
+
+	private NormOrder(MappedFile file, int documents) {
+		this.file = file;
+		this.documents = documents;
+		this.normsOffset = getNormsOffset(documents);
+	}
+
+	public static void write(final VectorIndex index, File file) throws IOException {
+		Preconditions.checkNotNull(index);
+		Preconditions.checkNotNull(file);
+
+		int documents = index.getDocuments();
+		Integer[] docs = new Integer[documents];
+		for (int doc = 0; doc < documents; doc++) {
+			docs[doc] = doc;
+		}
+		Arrays.sort(docs, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				int result = Double.compare(index.getNorm(o1), index.getNorm(o2));
+				return result != 0 ? result : Integer.compare(o1, o2);
+			}
+
+		});
+
+		long normsOffset = getNormsOffset(documents);
+		try (MappedFile out = MappedFile.create(file, normsOffset + 8L * documents)) {
+			out.putInt(0, MAGIC);
+			out.putInt(4, VERSION);
+			out.putInt(8, documents);
+			for (int i = 0; i < documents; i++) {
+				out.putInt(HEADER_SIZE + 4L * i, docs[i]);
+				out.putDouble(normsOffset + 8L * i, index.getNorm(docs[i]));
+			}
+			out.force();
+		}
+	}
+
+	public static NormOrder open(File path, VectorIndex vectors) throws IOException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(vectors);
+
+		MappedFile file = MappedFile.map(path);
+		try {
+			if (file.size() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+				throw new IOException("Not a norm order file");
+			}
+			int version = file.getInt(4);
+			if (version > VERSION) {
+				throw new IOException("Unsupported norm order version: " + version);
+			}
+			if (file.getInt(8) != vectors.getDocuments()) {
+				throw new IOException("Norm order has " + file.getInt(8) + " documents, vector index has " + vectors.getDocuments());
+			}
+			return new NormOrder(file, vectors.getDocuments());
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Numer dokumentu na pozycji position.
+	 */
+	public int getDoc(int position) {
+		return file.getInt(HEADER_SIZE + 4L * position);
+	}
+
+	public double getNorm(int position) {
+		return file.getDouble(normsOffset + 8L * position);
+	}
+
+	/**
+	 * Pierwsza pozycja z norma nie mniejsza od podanej (documents, gdy takiej nie ma).
+	 */
+	public int search(double norm) {
+		int low = 0;
+		int high = documents;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getNorm(middle) < norm) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private static long getNormsOffset(int documents) {
+		return VectorIndexFormat.align(HEADER_SIZE + 4L * documents);
+	}
+
+}
@@ -0,0 +1,195 @@
+package pl.wwiizt.vector.index;
+
+/**
+ * Przejscie po liscie jednego termu rosnaco po dokumentach. Wpisy czytane sa blokami po
+ * {@link PostingsFormat#BLOCK_SIZE}, a ostatnie dokumenty blokow (wczytane od razu, to ulamek listy) pozwalaja
+ * przeskoczyc blok bez czytania go.
+ * Obok biezacej pozycji kursor ma plytka pozycje ({@link #shallowAdvance(int)}) - blok, ktorego maksimum ogranicza
+ * wagi dokumentow od podanego numeru do konca bloku.
+ */
+public class PostingsCursor {
+
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	private final PostingsIndex postings;
+	private final long start;
+	private final int length;
+	private final long firstBlock;
+	private final int blocks;
+	private final int[] lastDocs;
+	private final float[] maxima;
+	private final float[] codebook;
+	private final byte[] buffer = new byte[PostingsFormat.MAX_BLOCK_BYTES];
+
+	private final int[] docs = new int[PostingsFormat.BLOCK_SIZE];
+	private final float[] weights = new float[PostingsFormat.BLOCK_SIZE];
+	private int block = -1;
+	private int blockLength;
+	private int position;
+	private int doc = -1;
+	private int shallowBlock;
+
+	PostingsCursor(PostingsIndex postings, long start, int length, long firstBlock, float[] codebook) {
+		this.postings = postings;
+		this.start = start;
+		this.length = length;
+		this.blocks = (length + PostingsFormat.BLOCK_SIZE - 1) / PostingsFormat.BLOCK_SIZE;
+		this.lastDocs = new int[blocks];
+		this.maxima = new float[blocks];
+		this.codebook = codebook;
+		this.firstBlock = firstBlock;
+		postings.readBlocks(firstBlock, lastDocs, maxima, blocks);
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Biezacy dokument, -1 przed pierwszym {@link #next()}, {@link #NO_MORE_DOCS} za koncem listy.
+	 */
+	public int doc() {
+		return doc;
+	}
+
+	public float weight() {
+		return weights[position];
+	}
+
+	public int next() {
+		if (doc == NO_MORE_DOCS) {
+			return doc;
+		}
+		if (++position < blockLength) {
+			return doc = docs[position];
+		}
+		return loadBlock(block + 1);
+	}
+
+	/**
+	 * Przesuwa na pierwszy dokument >= target.
+	 */
+	public int advance(int target) {
+		if (target <= doc) {
+			return doc;
+		}
+		if (block < 0 || lastDocs[block] < target) {
+			int next = block + 1;
+			while (next < blocks && lastDocs[next] < target) {
+				next++;
+			}
+			if (loadBlock(next) == NO_MORE_DOCS) {
+				return doc;
+			}
+		}
+		while (docs[position] < target) {
+			position++;
+		}
+		return doc = docs[position];
+	}
+
+	/**
+	 * Kopiuje wpisy od biezacego do ostatniego z dokumentem <= to i przesuwa kursor za nie. Bloki w calosci ponizej to
+	 * sa rozkodowywane wprost do tablic docelowych. Tablice musza miec miejsce na wszystkie (najwyzej to - doc() + 1).
+	 * @return liczba skopiowanych wpisow
+	 */
+	public int copyTo(int to, int[] targetDocs, float[] targetWeights, int offset) {
+		if (block < 0) {
+			loadBlock(0);
+		}
+		if (doc > to) {
+			return 0;
+		}
+
+		int end = lastDocs[block] <= to ? blockLength : find(to);
+		int count = end - position;
+		System.arraycopy(docs, position, targetDocs, offset, count);
+		System.arraycopy(weights, position, targetWeights, offset, count);
+		if (end < blockLength) {
+			position = end;
+			doc = docs[end];
+			return count;
+		}
+
+		int next = block + 1;
+		while (next < blocks && lastDocs[next] <= to) {
+			int length = getBlockLength(next);
+			postings.readBlock(start + (long) next * PostingsFormat.BLOCK_SIZE, firstBlock + next, lastDocs[next - 1], codebook, targetDocs,
+					targetWeights, offset + count, length, buffer);
+			count += length;
+			next++;
+		}
+
+		// ostatni blok tylko czesciowo
+		if (loadBlock(next) <= to) {
+			end = find(to);
+			System.arraycopy(docs, 0, targetDocs, offset + count, end);
+			System.arraycopy(weights, 0, targetWeights, offset + count, end);
+			count += end;
+			position = end;
+			doc = docs[end];
+		}
+		return count;
+	}
+
+	/**
+	 * Ustawia plytka pozycje na blok z pierwszym dokumentem >= target, nie czytajac wpisow.
+	 */
+	public void shallowAdvance(int target) {
+		int next = Math.max(shallowBlock, Math.max(block, 0));
+		while (next < blocks && lastDocs[next] < target) {
+			next++;
+		}
+		shallowBlock = next;
+	}
+
+	/**
+	 * Maksimum waga / norma w bloku plytkiej pozycji, 0 za koncem listy.
+	 */
+	public float getBlockMaxWeight() {
+		return shallowBlock < blocks ? maxima[shallowBlock] : 0;
+	}
+
+	/**
+	 * Maksimum waga / norma w blokach, ktore moga miec dokumenty z przedzialu [from, to]. Ustawia plytka pozycje na
+	 * from.
+	 */
+	public float getMaxWeight(int from, int to) {
+		shallowAdvance(from);
+		float max = 0;
+		for (int next = shallowBlock; next < blocks; next++) {
+			max = Math.max(max, maxima[next]);
+			if (lastDocs[next] >= to) {
+				break;
+			}
+		}
+		return max;
+	}
+
+	private int loadBlock(int next) {
+		block = next;
+		position = 0;
+		if (next >= blocks) {
+			blockLength = 0;
+			return doc = NO_MORE_DOCS;
+		}
+		blockLength = getBlockLength(next);
+		postings.readBlock(start + (long) next * PostingsFormat.BLOCK_SIZE, firstBlock + next, next == 0 ? -1 : lastDocs[next - 1], codebook, docs,
+				weights, 0, blockLength, buffer);
+		return doc = docs[0];
+	}
+
+	private int getBlockLength(int block) {
+		return Math.min(PostingsFormat.BLOCK_SIZE, length - block * PostingsFormat.BLOCK_SIZE);
+	}
+
+	// pierwsza pozycja w biezacym bloku z dokumentem > to, blok musi miec taki dokument
+	private int find(int to) {
+		int end = position;
+		while (docs[end] <= to) {
+			end++;
+		}
+		return end;
+	}
+
+}
@@ -0,0 +1,60 @@
+package pl.wwiizt.vector.index;
+
+/**
+ * Listy odwrocone dla indeksu wektorowego (index.post).
+ *
+ * <pre>
+ * naglowek (128 bajtow, w wersji 1 - 64, big-endian):
+ *   int magic, int version, int terms, int documents,
+ *   long termIndexOffset, long docsOffset, long weightsOffset, long normsOffset,
+ *   long blockIndexOffset, long blockDocsOffset, long blockMaximaOffset, long termMaximaOffset,
+ *   long blockDataOffset, long dataOffset, long codebookIndexOffset, long codebookOffset, long documentIdsOffset,
+ *   reszta zera
+ * indeks termow: long[terms + 1] - numer pierwszego wpisu listy termu
+ * dokumenty: int[wpisy], rosnaco w obrebie termu (do wersji 2)
+ * wagi: float[wpisy] (do wersji 2)
+ * normy L2 dokumentow: double[documents]
+ * od wersji 2 ograniczenia dla przycinania top-K (waga / norma dokumentu, zaokraglona w gore):
+ * indeks blokow: long[terms + 1] - numer pierwszego bloku listy termu, blok to BLOCK_SIZE kolejnych wpisow
+ * ostatnie dokumenty blokow: int[bloki]
+ * maksima blokow: float[bloki]
+ * maksima termow: float[terms]
+ * od wersji 3 listy sa skompresowane blokami:
+ * poczatki blokow: long[bloki + 1] - polozenie bloku wzgledem dataOffset
+ * indeks slownikow wag: long[terms + 1] - pierwsza waga slownika termu, pusty slownik - wagi zapisane wprost
+ * slowniki wag: float[], rosnaco w obrebie termu
+ * numery dokumentow: int[documents] - numer w index.bin dla numeru na listach, tylko po zmianie kolejnosci
+ *   (documentIdsOffset 0 - numery jak w index.bin)
+ * dane blokow: roznice kolejnych numerow dokumentow minus 1 (dla pierwszego wpisu - od ostatniego dokumentu
+ *   poprzedniego bloku, na poczatku listy od -1) jako varint, potem wagi: bajt z numerem w slowniku termu albo
+ *   float, gdy term ma wiecej niz CODEBOOK_SIZE roznych wag
+ * </pre>
+ */
+public final class PostingsFormat {
+
+	public static final String EXTENSION = ".post";
+	public static final String FILE_NAME = Segments.DEFAULT_SEGMENT + EXTENSION;
+
+	public static final int MAGIC = 0x5756504C; // "WVPL"
+	public static final int VERSION = 3;
+
+	public static final int BLOCK_SIZE = 64;
+	public static final int CODEBOOK_SIZE = 256;
+
+	static final int HEADER_SIZE = 128;
+	static final int HEADER_SIZE_V1 = 64;
+	// varint numeru dokumentu to najwyzej 5 bajtow
+	static final int MAX_BLOCK_BYTES = BLOCK_SIZE * (5 + 4);
+
+	private PostingsFormat() {
+	}
+
+	/**
+	 * Najmniejszy float nie mniejszy od value - ograniczenie zapisane w pliku nie moze byc nizsze od dokladnego.
+	 */
+	static float roundUp(double value) {
+		float rounded = (float) value;
+		return rounded < value ? Math.nextUp(rounded) : rounded;
+	}
+
+}
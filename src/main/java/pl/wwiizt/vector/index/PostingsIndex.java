@@ -0,0 +1,353 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Listy odwrocone (dokument + waga) dla kazdego termu, otwarte przez FileChannel.map. Pliki od wersji 2 maja
+ * ograniczenia wag dla przycinania top-K ({@link #hasBounds()}, {@link #cursor(int)}), od wersji 3 listy sa
+ * skompresowane blokami i moga miec wlasna kolejnosc dokumentow - numery na listach i w {@link #getNorm(int)} to
+ * numery list, a {@link #getDocumentId(int)} zamienia je na numery index.bin.
+ */
+public class PostingsIndex implements Closeable {
+
+	private final MappedFile file;
+	private final int terms;
+	private final int documents;
+	private final long termIndexOffset;
+	private final long docsOffset;
+	private final long weightsOffset;
+	private final long normsOffset;
+	private final boolean bounds;
+	private final long blockIndexOffset;
+	private final long blockDocsOffset;
+	private final long blockMaximaOffset;
+	private final long termMaximaOffset;
+	private final boolean compressed;
+	private final long blockDataOffset;
+	private final long dataOffset;
+	private final long codebookIndexOffset;
+	private final long codebookOffset;
+	private final long documentIdsOffset;
+
+	private PostingsIndex(MappedFile file) throws IOException {
+		this.file = file;
+
+		if (file.size() < PostingsFormat.HEADER_SIZE_V1 || file.getInt(0) != PostingsFormat.MAGIC) {
+			throw new IOException("Not a postings file");
+		}
+		int version = file.getInt(4);
+		if (version > PostingsFormat.VERSION) {
+			throw new IOException("Unsupported postings version: " + version);
+		}
+
+		terms = file.getInt(8);
+		documents = file.getInt(12);
+		termIndexOffset = file.getLong(16);
+		docsOffset = file.getLong(24);
+		weightsOffset = file.getLong(32);
+		normsOffset = file.getLong(40);
+
+		bounds = version >= 2;
+		if (bounds) {
+			blockIndexOffset = file.getLong(48);
+			blockDocsOffset = file.getLong(56);
+			blockMaximaOffset = file.getLong(64);
+			termMaximaOffset = file.getLong(72);
+		} else {
+			blockIndexOffset = blockDocsOffset = blockMaximaOffset = termMaximaOffset = 0;
+		}
+
+		compressed = version >= 3;
+		if (compressed) {
+			blockDataOffset = file.getLong(80);
+			dataOffset = file.getLong(88);
+			codebookIndexOffset = file.getLong(96);
+			codebookOffset = file.getLong(104);
+			documentIdsOffset = file.getLong(112);
+		} else {
+			blockDataOffset = dataOffset = codebookIndexOffset = codebookOffset = documentIdsOffset = 0;
+		}
+	}
+
+	public static PostingsIndex open(File path) throws IOException {
+		Preconditions.checkNotNull(path);
+
+		MappedFile file = MappedFile.map(path);
+		try {
+			return new PostingsIndex(file);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getTerms() {
+		return terms;
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public int getDocumentFrequency(int term) {
+		if (term < 0 || term >= terms) {
+			return 0;
+		}
+		return (int) (file.getLong(termIndexOffset + 8L * (term + 1)) - file.getLong(termIndexOffset + 8L * term));
+	}
+
+	/**
+	 * Numer w index.bin dokumentu o numerze doc na listach.
+	 */
+	public int getDocumentId(int doc) {
+		if (documentIdsOffset == 0) {
+			return doc;
+		}
+		return file.getInt(documentIdsOffset + 4L * doc);
+	}
+
+	/**
+	 * Wczytuje liste termu do podanych tablic (musza miec co najmniej getDocumentFrequency(term) miejsc). Zwraca dlugosc listy.
+	 */
+	public int readPostings(int term, int[] docs, float[] weights) {
+		if (term < 0 || term >= terms) {
+			return 0;
+		}
+
+		long start = file.getLong(termIndexOffset + 8L * term);
+		int length = (int) (file.getLong(termIndexOffset + 8L * (term + 1)) - start);
+		if (!compressed) {
+			readEntries(start, docs, weights, 0, length);
+			return length;
+		}
+
+		// bloki termu leza w pliku jeden za drugim - jedno kopiowanie na cala liste
+		long firstBlock = file.getLong(blockIndexOffset + 8L * term);
+		long dataStart = file.getLong(blockDataOffset + 8L * firstBlock);
+		byte[] buffer = new byte[(int) (file.getLong(blockDataOffset + 8L * file.getLong(blockIndexOffset + 8L * (term + 1))) - dataStart)];
+		file.getBytes(dataOffset + dataStart, buffer, 0, buffer.length);
+
+		float[] codebook = readCodebook(term);
+		int position = 0;
+		for (int from = 0; from < length; from += PostingsFormat.BLOCK_SIZE) {
+			int previous = from == 0 ? -1 : docs[from - 1];
+			position = decodeBlock(buffer, position, previous, codebook, docs, weights, from, Math.min(PostingsFormat.BLOCK_SIZE, length - from));
+		}
+		return length;
+	}
+
+	/**
+	 * Waga dokumentu na liscie termu (wyszukiwanie binarne), 0 gdy go tam nie ma.
+	 */
+	public float getWeight(int term, int doc) {
+		if (term < 0 || term >= terms) {
+			return 0;
+		}
+
+		long start = file.getLong(termIndexOffset + 8L * term);
+		long end = file.getLong(termIndexOffset + 8L * (term + 1));
+		if (!compressed) {
+			long low = start;
+			long high = end - 1;
+			while (low <= high) {
+				long middle = (low + high) >>> 1;
+				int value = file.getInt(docsOffset + 4L * middle);
+				if (value < doc) {
+					low = middle + 1;
+				} else if (value > doc) {
+					high = middle - 1;
+				} else {
+					return file.getFloat(weightsOffset + 4L * middle);
+				}
+			}
+			return 0;
+		}
+
+		// pierwszy blok, ktorego ostatni dokument >= doc
+		long firstBlock = file.getLong(blockIndexOffset + 8L * term);
+		long low = firstBlock;
+		long high = file.getLong(blockIndexOffset + 8L * (term + 1));
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (file.getInt(blockDocsOffset + 4L * middle) < doc) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		if (low == file.getLong(blockIndexOffset + 8L * (term + 1))) {
+			return 0;
+		}
+
+		int length = (int) Math.min(PostingsFormat.BLOCK_SIZE, end - start - (low - firstBlock) * PostingsFormat.BLOCK_SIZE);
+		byte[] buffer = new byte[PostingsFormat.MAX_BLOCK_BYTES];
+		readBlockData(low, buffer);
+
+		int position = 0;
+		int current = low == firstBlock ? -1 : file.getInt(blockDocsOffset + 4L * (low - 1));
+		int found = -1;
+		for (int i = 0; i < length; i++) {
+			int shift = 0;
+			int delta = 0;
+			byte b;
+			do {
+				b = buffer[position++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			current += delta + 1;
+			if (current >= doc) {
+				if (current > doc) {
+					return 0;
+				}
+				found = i;
+				// pozostale numery tylko do przeskoczenia
+				for (int j = i + 1; j < length; j++) {
+					while (buffer[position++] < 0) {
+					}
+				}
+				break;
+			}
+		}
+		if (found < 0) {
+			return 0;
+		}
+
+		float[] codebook = readCodebook(term);
+		if (codebook != null) {
+			return codebook[buffer[position + found] & 0xFF];
+		}
+		return getRawWeight(buffer, position + 4 * found);
+	}
+
+	/**
+	 * Czy plik ma maksima blokow i termow (wersja 2).
+	 */
+	public boolean hasBounds() {
+		return bounds;
+	}
+
+	/**
+	 * Gorne ograniczenie waga / norma dokumentu na liscie termu.
+	 */
+	public float getMaxWeight(int term) {
+		Preconditions.checkState(bounds, "Postings without bounds");
+		if (term < 0 || term >= terms) {
+			return 0;
+		}
+		return file.getFloat(termMaximaOffset + 4L * term);
+	}
+
+	/**
+	 * Kursor po liscie termu czytajacy ja blokami.
+	 */
+	public PostingsCursor cursor(int term) {
+		Preconditions.checkState(bounds, "Postings without bounds");
+		if (term < 0 || term >= terms) {
+			return new PostingsCursor(this, 0, 0, 0, null);
+		}
+		long start = file.getLong(termIndexOffset + 8L * term);
+		int length = (int) (file.getLong(termIndexOffset + 8L * (term + 1)) - start);
+		return new PostingsCursor(this, start, length, file.getLong(blockIndexOffset + 8L * term), readCodebook(term));
+	}
+
+	/**
+	 * Wpisy bloku listy - z pliku wprost albo po rozkodowaniu.
+	 * @param entry numer pierwszego wpisu bloku
+	 * @param previous ostatni dokument poprzedniego bloku listy, -1 dla pierwszego
+	 * @param offset pozycja pierwszego wpisu w docs i weights
+	 */
+	void readBlock(long entry, long block, int previous, float[] codebook, int[] docs, float[] weights, int offset, int length, byte[] buffer) {
+		if (compressed) {
+			readBlockData(block, buffer);
+			decodeBlock(buffer, 0, previous, codebook, docs, weights, offset, length);
+		} else {
+			readEntries(entry, docs, weights, offset, length);
+		}
+	}
+
+	void readBlocks(long firstBlock, int[] lastDocs, float[] maxima, int length) {
+		file.getInts(blockDocsOffset + 4L * firstBlock, lastDocs, 0, length);
+		file.getFloats(blockMaximaOffset + 4L * firstBlock, maxima, 0, length);
+	}
+
+	public double getNorm(int doc) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		return file.getDouble(normsOffset + 8L * doc);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private void readEntries(long start, int[] docs, float[] weights, int offset, int length) {
+		file.getInts(docsOffset + 4L * start, docs, offset, length);
+		file.getFloats(weightsOffset + 4L * start, weights, offset, length);
+	}
+
+	// null - wagi zapisane wprost (albo plik bez kompresji)
+	private float[] readCodebook(int term) {
+		if (!compressed) {
+			return null;
+		}
+		long start = file.getLong(codebookIndexOffset + 8L * term);
+		int size = (int) (file.getLong(codebookIndexOffset + 8L * (term + 1)) - start);
+		if (size == 0) {
+			return null;
+		}
+		float[] codebook = new float[size];
+		file.getFloats(codebookOffset + 4L * start, codebook, 0, size);
+		return codebook;
+	}
+
+	private void readBlockData(long block, byte[] buffer) {
+		long start = file.getLong(blockDataOffset + 8L * block);
+		file.getBytes(dataOffset + start, buffer, 0, (int) (file.getLong(blockDataOffset + 8L * (block + 1)) - start));
+	}
+
+	/**
+	 * Rozkodowuje blok zaczynajacy sie w buffer na pozycji position, zwraca pozycje za blokiem.
+	 */
+	private static int decodeBlock(byte[] buffer, int position, int previous, float[] codebook, int[] docs, float[] weights, int offset, int length) {
+		int doc = previous;
+		for (int i = offset; i < offset + length; i++) {
+			int delta = buffer[position++];
+			if (delta < 0) {
+				delta &= 0x7F;
+				int shift = 7;
+				byte b;
+				do {
+					b = buffer[position++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+			}
+			doc += delta + 1;
+			docs[i] = doc;
+		}
+
+		if (codebook != null) {
+			for (int i = offset; i < offset + length; i++) {
+				weights[i] = codebook[buffer[position++] & 0xFF];
+			}
+		} else {
+			for (int i = offset; i < offset + length; i++) {
+				weights[i] = getRawWeight(buffer, position);
+				position += 4;
+			}
+		}
+		return position;
+	}
+
+	private static float getRawWeight(byte[] buffer, int position) {
+		return Float.intBitsToFloat((buffer[position] & 0xFF) << 24 | (buffer[position + 1] & 0xFF) << 16 | (buffer[position + 2] & 0xFF) << 8
+				| buffer[position + 3] & 0xFF);
+	}
+
+}
@@ -0,0 +1,232 @@
+package pl.wwiizt.vector.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import pl.wwiizt.vector.model.SparseVector;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Buduje skompresowane listy odwrocone z gotowego index.bin. Najpierw zliczenie dlugosci list i wpisanie dokumentow
+ * do tymczasowego pliku zmapowanego (nazwa.post.tmp) - na stercie trzymamy tylko wskazniki dla termow. Potem dwa
+ * przebiegi po listach: slowniki wag i rozmiary blokow, a na koniec zapis blokow z maksimami.
+ */
+public final class PostingsWriter {
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private PostingsWriter() {
+	}
+
+	public static void write(VectorIndex index, File file) throws IOException {
+		write(index, file, null);
+	}
+
+	/**
+	 * @param order numery dokumentow index.bin w kolejnosci na listach (np. z {@link DocumentOrder}), null - kolejnosc
+	 *            index.bin
+	 */
+	public static void write(VectorIndex index, File file, int[] order) throws IOException {
+		Preconditions.checkNotNull(index);
+		Preconditions.checkNotNull(file);
+		Preconditions.checkArgument(order == null || order.length == index.getDocuments());
+
+		int terms = index.getDimensions();
+		int documents = index.getDocuments();
+
+		long[] starts = new long[terms + 1];
+		for (int doc = 0; doc < documents; doc++) {
+			SparseVector vector = index.getVector(doc);
+			for (int i = 0; i < vector.size(); i++) {
+				starts[vector.getId(i) + 1]++;
+			}
+		}
+		int maxLength = 0;
+		long[] blockStarts = new long[terms + 1];
+		for (int t = 0; t < terms; t++) {
+			long length = starts[t + 1];
+			maxLength = (int) Math.max(maxLength, length);
+			starts[t + 1] += starts[t];
+			blockStarts[t + 1] = blockStarts[t] + (length + PostingsFormat.BLOCK_SIZE - 1) / PostingsFormat.BLOCK_SIZE;
+		}
+		long entries = starts[terms];
+		int blocks = (int) blockStarts[terms];
+
+		File rawFile = new File(file.getPath() + TEMP_SUFFIX);
+		try (MappedFile raw = MappedFile.create(rawFile, 8L * Math.max(1, entries))) {
+			// dokumenty pod 0, wagi pod 4 * entries
+			long[] cursors = starts.clone();
+			for (int doc = 0; doc < documents; doc++) {
+				SparseVector vector = index.getVector(order == null ? doc : order[doc]);
+				for (int i = 0; i < vector.size(); i++) {
+					long entry = cursors[vector.getId(i)]++;
+					raw.putInt(4L * entry, doc);
+					raw.putFloat(4L * (entries + entry), vector.getValue(i));
+				}
+			}
+
+			int[] docs = new int[maxLength];
+			float[] weights = new float[maxLength];
+			byte[] buffer = new byte[PostingsFormat.MAX_BLOCK_BYTES];
+
+			long[] codebookStarts = new long[terms + 1];
+			float[] codebook = new float[1024];
+			long[] blockData = new long[blocks + 1];
+			for (int t = 0; t < terms; t++) {
+				int length = readList(raw, entries, starts[t], (int) (starts[t + 1] - starts[t]), docs, weights);
+
+				float[] distinct = getCodebook(weights, length);
+				int codebookStart = (int) codebookStarts[t];
+				if (distinct != null) {
+					if (codebookStart + distinct.length > codebook.length) {
+						codebook = Arrays.copyOf(codebook, Math.max(codebook.length * 2, codebookStart + distinct.length));
+					}
+					System.arraycopy(distinct, 0, codebook, codebookStart, distinct.length);
+				}
+				int codebookSize = distinct == null ? 0 : distinct.length;
+				codebookStarts[t + 1] = codebookStart + codebookSize;
+
+				int block = (int) blockStarts[t];
+				for (int from = 0; from < length; from += PostingsFormat.BLOCK_SIZE, block++) {
+					int count = Math.min(PostingsFormat.BLOCK_SIZE, length - from);
+					int previous = from == 0 ? -1 : docs[from - 1];
+					blockData[block + 1] = blockData[block]
+							+ encodeBlock(docs, weights, from, count, previous, codebook, codebookStart, codebookSize, buffer);
+				}
+			}
+			int codebookLength = (int) codebookStarts[terms];
+
+			long termIndexOffset = PostingsFormat.HEADER_SIZE;
+			long normsOffset = termIndexOffset + 8L * (terms + 1);
+			long blockIndexOffset = normsOffset + 8L * documents;
+			long blockDocsOffset = blockIndexOffset + 8L * (terms + 1);
+			long blockMaximaOffset = VectorIndexFormat.align(blockDocsOffset + 4L * blocks);
+			long termMaximaOffset = VectorIndexFormat.align(blockMaximaOffset + 4L * blocks);
+			long blockDataOffset = VectorIndexFormat.align(termMaximaOffset + 4L * terms);
+			long codebookIndexOffset = blockDataOffset + 8L * (blocks + 1);
+			long codebookOffset = codebookIndexOffset + 8L * (terms + 1);
+			long documentIdsOffset = order == null ? 0 : VectorIndexFormat.align(codebookOffset + 4L * codebookLength);
+			long dataOffset = order == null ? codebookOffset + 4L * codebookLength : documentIdsOffset + 4L * documents;
+			long size = dataOffset + blockData[blocks];
+
+			try (MappedFile out = MappedFile.create(file, size)) {
+				out.putInt(0, PostingsFormat.MAGIC);
+				out.putInt(4, PostingsFormat.VERSION);
+				out.putInt(8, terms);
+				out.putInt(12, documents);
+				out.putLong(16, termIndexOffset);
+				out.putLong(40, normsOffset);
+				out.putLong(48, blockIndexOffset);
+				out.putLong(56, blockDocsOffset);
+				out.putLong(64, blockMaximaOffset);
+				out.putLong(72, termMaximaOffset);
+				out.putLong(80, blockDataOffset);
+				out.putLong(88, dataOffset);
+				out.putLong(96, codebookIndexOffset);
+				out.putLong(104, codebookOffset);
+				out.putLong(112, documentIdsOffset);
+
+				for (int t = 0; t <= terms; t++) {
+					out.putLong(termIndexOffset + 8L * t, starts[t]);
+					out.putLong(blockIndexOffset + 8L * t, blockStarts[t]);
+					out.putLong(codebookIndexOffset + 8L * t, codebookStarts[t]);
+				}
+				for (int doc = 0; doc < documents; doc++) {
+					out.putDouble(normsOffset + 8L * doc, index.getNorm(order == null ? doc : order[doc]));
+					if (order != null) {
+						out.putInt(documentIdsOffset + 4L * doc, order[doc]);
+					}
+				}
+				for (int i = 0; i < codebookLength; i++) {
+					out.putFloat(codebookOffset + 4L * i, codebook[i]);
+				}
+				for (int block = 0; block <= blocks; block++) {
+					out.putLong(blockDataOffset + 8L * block, blockData[block]);
+				}
+
+				for (int t = 0; t < terms; t++) {
+					int length = readList(raw, entries, starts[t], (int) (starts[t + 1] - starts[t]), docs, weights);
+					int codebookStart = (int) codebookStarts[t];
+					int codebookSize = (int) (codebookStarts[t + 1] - codebookStart);
+
+					float termMaximum = 0;
+					int block = (int) blockStarts[t];
+					for (int from = 0; from < length; from += PostingsFormat.BLOCK_SIZE, block++) {
+						int count = Math.min(PostingsFormat.BLOCK_SIZE, length - from);
+						int previous = from == 0 ? -1 : docs[from - 1];
+						int bytes = encodeBlock(docs, weights, from, count, previous, codebook, codebookStart, codebookSize, buffer);
+						out.putBytes(dataOffset + blockData[block], buffer, 0, bytes);
+
+						float blockMaximum = 0;
+						for (int i = from; i < from + count; i++) {
+							double norm = out.getDouble(normsOffset + 8L * docs[i]);
+							if (norm > 0) {
+								blockMaximum = Math.max(blockMaximum, PostingsFormat.roundUp(weights[i] / norm));
+							}
+						}
+						out.putInt(blockDocsOffset + 4L * block, docs[from + count - 1]);
+						out.putFloat(blockMaximaOffset + 4L * block, blockMaximum);
+						termMaximum = Math.max(termMaximum, blockMaximum);
+					}
+					out.putFloat(termMaximaOffset + 4L * t, termMaximum);
+				}
+
+				out.force();
+			}
+		} finally {
+			rawFile.delete();
+		}
+	}
+
+	private static int readList(MappedFile raw, long entries, long start, int length, int[] docs, float[] weights) {
+		raw.getInts(4L * start, docs, 0, length);
+		raw.getFloats(4L * (entries + start), weights, 0, length);
+		return length;
+	}
+
+	// rosnaco, null gdy wag jest wiecej niz CODEBOOK_SIZE
+	private static float[] getCodebook(float[] weights, int length) {
+		float[] sorted = Arrays.copyOf(weights, length);
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int i = 0; i < length; i++) {
+			if (distinct == 0 || Float.compare(sorted[distinct - 1], sorted[i]) != 0) {
+				if (distinct == PostingsFormat.CODEBOOK_SIZE) {
+					return null;
+				}
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, distinct);
+	}
+
+	private static int encodeBlock(int[] docs, float[] weights, int from, int count, int previous, float[] codebook, int codebookStart,
+			int codebookSize, byte[] buffer) {
+		int position = 0;
+		for (int i = from; i < from + count; i++) {
+			int delta = docs[i] - previous - 1;
+			while ((delta & ~0x7F) != 0) {
+				buffer[position++] = (byte) (delta | 0x80);
+				delta >>>= 7;
+			}
+			buffer[position++] = (byte) delta;
+			previous = docs[i];
+		}
+
+		for (int i = from; i < from + count; i++) {
+			if (codebookSize > 0) {
+				buffer[position++] = (byte) (Arrays.binarySearch(codebook, codebookStart, codebookStart + codebookSize, weights[i]) - codebookStart);
+			} else {
+				int bits = Float.floatToRawIntBits(weights[i]);
+				buffer[position++] = (byte) (bits >>> 24);
+				buffer[position++] = (byte) (bits >>> 16);
+				buffer[position++] = (byte) (bits >>> 8);
+				buffer[position++] = (byte) bits;
+			}
+		}
+		return position;
+	}
+
+}
@@ -0,0 +1,260 @@
+package pl.wwiizt.vector.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Kwantyzuje wektory segmentu do formatu {@link QuantizedFormat}: skalarnie do int8 ze skala dla kazdego wektora albo
+ * kwantyzacja produktowa (PQ) - wektor dzielony na podprzestrzenie, w kazdej k-means (256 centroidow, stale ziarno) na
+ * probce dokumentow, a dokument zapisywany jako numery najblizszych centroidow.
+ */
+public class QuantizedBuilder {
+
+	private static final long SEED = 42;
+	private static final int ITERATIONS = 15;
+	private static final int TRAINING_DOCUMENTS_PER_CENTROID = 64;
+
+	private final VectorIndex index;
+	private final LsaIndex latent;
+	private final int documents;
+	private final int dimensions;
+
+	private QuantizedBuilder(VectorIndex index, LsaIndex latent) {
+		this.index = index;
+		this.latent = latent;
+		this.documents = index.getDocuments();
+		this.dimensions = latent != null ? latent.getRank() : index.getDimensions();
+	}
+
+	/**
+	 * @param latent wektory LSA segmentu; jesli null, kwantyzowane sa wiersze index.bin, ktory musi miec uklad gesty
+	 * @param subspaces liczba podprzestrzeni PQ, 0 - {@link QuantizedFormat#defaultSubspaces(int)}
+	 */
+	public static void build(VectorIndex index, LsaIndex latent, int method, int subspaces, File file) throws IOException {
+		Preconditions.checkNotNull(index);
+		Preconditions.checkNotNull(file);
+		Preconditions.checkArgument(method == QuantizedFormat.SCALAR_INT8 || method == QuantizedFormat.PRODUCT, "Unknown method: %s", method);
+		Preconditions.checkArgument(latent != null || index.getLayout() == VectorIndexFormat.DENSE,
+				"Sparse vector index can be quantised only through its LSA vectors");
+		Preconditions.checkArgument(subspaces >= 0, "Number of subspaces must not be negative: %s", subspaces);
+
+		QuantizedBuilder builder = new QuantizedBuilder(index, latent);
+		if (method == QuantizedFormat.SCALAR_INT8) {
+			builder.writeScalar(file);
+		} else {
+			if (subspaces == 0) {
+				subspaces = QuantizedFormat.defaultSubspaces(builder.dimensions);
+			}
+			builder.writeProduct(Math.max(1, Math.min(subspaces, builder.dimensions)), file);
+		}
+	}
+
+	private float[] getVector(int doc, float[] target) {
+		return latent != null ? latent.getVector(doc, target) : index.getFloatVector(doc, target);
+	}
+
+	private void writeHeader(DataOutputStream out, int method, int subspaces, int centroids, long codebooksOffset, long codesOffset,
+			long scalesOffset, long normsOffset) throws IOException {
+		out.writeInt(QuantizedFormat.MAGIC);
+		out.writeInt(QuantizedFormat.VERSION);
+		out.writeInt(method);
+		out.writeInt(latent != null ? QuantizedFormat.SOURCE_LSA : QuantizedFormat.SOURCE_INDEX);
+		out.writeInt(documents);
+		out.writeInt(dimensions);
+		out.writeInt(subspaces);
+		out.writeInt(centroids);
+		out.writeLong(codebooksOffset);
+		out.writeLong(codesOffset);
+		out.writeLong(scalesOffset);
+		out.writeLong(normsOffset);
+	}
+
+	private void writeScalar(File file) throws IOException {
+		long codesOffset = QuantizedFormat.HEADER_SIZE;
+		long scalesOffset = VectorIndexFormat.align(codesOffset + (long) documents * dimensions);
+		long normsOffset = VectorIndexFormat.align(scalesOffset + 4L * documents);
+
+		float[] scales = new float[documents];
+		double[] norms = new double[documents];
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			writeHeader(out, QuantizedFormat.SCALAR_INT8, 0, 0, 0, codesOffset, scalesOffset, normsOffset);
+
+			float[] vector = null;
+			byte[] codes = new byte[dimensions];
+			for (int doc = 0; doc < documents; doc++) {
+				vector = getVector(doc, vector);
+
+				float max = 0;
+				for (float value : vector) {
+					max = Math.max(max, Math.abs(value));
+				}
+				float scale = max / 127;
+
+				double norm = 0;
+				for (int i = 0; i < dimensions; i++) {
+					int code = scale == 0 ? 0 : Math.round(vector[i] / scale);
+					codes[i] = (byte) Math.max(-127, Math.min(127, code));
+					double value = codes[i] * (double) scale;
+					norm += value * value;
+				}
+				out.write(codes);
+				scales[doc] = scale;
+				norms[doc] = Math.sqrt(norm);
+			}
+			out.write(new byte[(int) (scalesOffset - codesOffset - (long) documents * dimensions)]);
+
+			for (float scale : scales) {
+				out.writeFloat(scale);
+			}
+			out.write(new byte[(int) (normsOffset - scalesOffset - 4L * documents)]);
+
+			for (double norm : norms) {
+				out.writeDouble(norm);
+			}
+		}
+	}
+
+	private void writeProduct(int subspaces, File file) throws IOException {
+		int training = (int) Math.min(documents, (long) QuantizedFormat.MAX_CENTROIDS * TRAINING_DOCUMENTS_PER_CENTROID);
+		int centroids = Math.max(1, Math.min(QuantizedFormat.MAX_CENTROIDS, training));
+
+		// rowno rozlozona probka dokumentow
+		float[][] sample = new float[training][];
+		for (int i = 0; i < training; i++) {
+			sample[i] = getVector((int) ((long) documents * i / training), null);
+		}
+
+		// codebooks[s][c] - podwektor centroidu c w podprzestrzeni s
+		float[][][] codebooks = new float[subspaces][][];
+		for (int s = 0; s < subspaces; s++) {
+			codebooks[s] = train(sample, QuantizedFormat.subspaceStart(dimensions, subspaces, s),
+					QuantizedFormat.subspaceStart(dimensions, subspaces, s + 1), centroids);
+		}
+
+		long codebooksOffset = QuantizedFormat.HEADER_SIZE;
+		long codesOffset = codebooksOffset + 4L * centroids * dimensions;
+		long normsOffset = VectorIndexFormat.align(codesOffset + (long) documents * subspaces);
+
+		double[] norms = new double[documents];
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			writeHeader(out, QuantizedFormat.PRODUCT, subspaces, centroids, codebooksOffset, codesOffset, 0, normsOffset);
+
+			for (float[][] codebook : codebooks) {
+				for (float[] centroid : codebook) {
+					for (float value : centroid) {
+						out.writeFloat(value);
+					}
+				}
+			}
+
+			float[] vector = null;
+			byte[] codes = new byte[subspaces];
+			for (int doc = 0; doc < documents; doc++) {
+				vector = getVector(doc, vector);
+
+				double norm = 0;
+				for (int s = 0; s < subspaces; s++) {
+					int start = QuantizedFormat.subspaceStart(dimensions, subspaces, s);
+					int code = nearest(codebooks[s], vector, start);
+					codes[s] = (byte) code;
+					for (float value : codebooks[s][code]) {
+						norm += (double) value * value;
+					}
+				}
+				out.write(codes);
+				norms[doc] = Math.sqrt(norm);
+			}
+			out.write(new byte[(int) (normsOffset - codesOffset - (long) documents * subspaces)]);
+
+			for (double norm : norms) {
+				out.writeDouble(norm);
+			}
+		}
+	}
+
+	// k-means (Lloyd) na wymiarach [from, to) probki; poczatkowe centroidy to rozne losowe dokumenty probki
+	private static float[][] train(float[][] sample, int from, int to, int k) {
+		int width = to - from;
+		Random random = new Random(SEED + from);
+
+		int[] order = new int[sample.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		float[][] centroids = new float[k][width];
+		for (int c = 0; c < k; c++) {
+			int j = c + random.nextInt(order.length - c);
+			int swap = order[c];
+			order[c] = order[j];
+			order[j] = swap;
+			System.arraycopy(sample[order[c]], from, centroids[c], 0, width);
+		}
+
+		int[] assignment = new int[sample.length];
+		double[][] sums = new double[k][width];
+		int[] counts = new int[k];
+
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			boolean changed = false;
+			for (int i = 0; i < sample.length; i++) {
+				int code = nearest(centroids, sample[i], from);
+				if (iteration == 0 || code != assignment[i]) {
+					assignment[i] = code;
+					changed = true;
+				}
+			}
+			if (!changed) {
+				break;
+			}
+
+			for (int c = 0; c < k; c++) {
+				Arrays.fill(sums[c], 0);
+				counts[c] = 0;
+			}
+			for (int i = 0; i < sample.length; i++) {
+				double[] sum = sums[assignment[i]];
+				for (int d = 0; d < width; d++) {
+					sum[d] += sample[i][from + d];
+				}
+				counts[assignment[i]]++;
+			}
+			// puste skupienie zostaje przy starym centroidzie
+			for (int c = 0; c < k; c++) {
+				if (counts[c] > 0) {
+					for (int d = 0; d < width; d++) {
+						centroids[c][d] = (float) (sums[c][d] / counts[c]);
+					}
+				}
+			}
+		}
+		return centroids;
+	}
+
+	private static int nearest(float[][] centroids, float[] vector, int from) {
+		int best = 0;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for (int c = 0; c < centroids.length; c++) {
+			float[] centroid = centroids[c];
+			double distance = 0;
+			for (int d = 0; d < centroid.length && distance < bestDistance; d++) {
+				double diff = vector[from + d] - centroid[d];
+				distance += diff * diff;
+			}
+			if (distance < bestDistance) {
+				best = c;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+}
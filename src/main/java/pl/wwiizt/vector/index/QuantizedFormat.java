@@ -0,0 +1,52 @@
+package pl.wwiizt.vector.index;
+
+/**
+ * Skwantyzowane wektory dokumentow segmentu (nazwa.qnt). Zrodlem sa wektory LSA segmentu (jesli jest nazwa.lsa) albo
+ * geste wiersze index.bin.
+ *
+ * <pre>
+ * naglowek (64 bajty, big-endian):
+ *   int magic, int version, int method, int source, int documents, int dimensions, int subspaces, int centroids,
+ *   long codebooksOffset, long codesOffset, long scalesOffset, long normsOffset
+ * SCALAR_INT8: kody byte[documents * dimensions], skale float[documents] (wartosc = kod * skala)
+ * PRODUCT: slowniki float[centroids * dimensions] (dla kazdej podprzestrzeni centroids podwektorow),
+ *          kody byte[documents * subspaces] - numer centroidu w kazdej podprzestrzeni
+ * normy L2 odtworzonych wektorow: double[documents]
+ * </pre>
+ */
+public final class QuantizedFormat {
+
+	public static final String EXTENSION = ".qnt";
+
+	public static final int MAGIC = 0x5756514E; // "WVQN"
+	public static final int VERSION = 1;
+
+	public static final int SCALAR_INT8 = 1;
+	public static final int PRODUCT = 2;
+
+	public static final int SOURCE_INDEX = 1;
+	public static final int SOURCE_LSA = 2;
+
+	public static final int MAX_CENTROIDS = 256;
+	public static final int DEFAULT_SUBSPACE_DIMENSIONS = 8;
+
+	static final int HEADER_SIZE = 64;
+
+	private QuantizedFormat() {
+	}
+
+	/**
+	 * Pierwszy wymiar podprzestrzeni - podprzestrzenie roznia sie dlugoscia co najwyzej o 1.
+	 */
+	static int subspaceStart(int dimensions, int subspaces, int subspace) {
+		return (int) ((long) dimensions * subspace / subspaces);
+	}
+
+	/**
+	 * Domyslna liczba podprzestrzeni PQ - po {@link #DEFAULT_SUBSPACE_DIMENSIONS} wymiarow.
+	 */
+	public static int defaultSubspaces(int dimensions) {
+		return Math.max(1, dimensions / DEFAULT_SUBSPACE_DIMENSIONS);
+	}
+
+}
@@ -0,0 +1,185 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Skwantyzowane wektory segmentu otwarte przez FileChannel.map. Slowniki PQ sa przy otwarciu wczytywane do pamieci.
+ * Iloczyn skalarny z zapytaniem liczy {@link Scorer}: zapytanie zostaje w pelnej precyzji (odleglosc asymetryczna),
+ * dla PQ przez tablice iloczynow zapytania z centroidami kazdej podprzestrzeni.
+ */
+public class QuantizedIndex implements Closeable {
+
+	private final MappedFile file;
+	private final int method;
+	private final int source;
+	private final int documents;
+	private final int dimensions;
+	private final int subspaces;
+	private final int centroids;
+	private final float[][][] codebooks;
+	private final long codesOffset;
+	private final long scalesOffset;
+	private final long normsOffset;
+
+	private QuantizedIndex(MappedFile file) {
+		this.file = file;
+
+		method = file.getInt(8);
+		source = file.getInt(12);
+		documents = file.getInt(16);
+		dimensions = file.getInt(20);
+		subspaces = file.getInt(24);
+		centroids = file.getInt(28);
+		long codebooksOffset = file.getLong(32);
+		codesOffset = file.getLong(40);
+		scalesOffset = file.getLong(48);
+		normsOffset = file.getLong(56);
+
+		codebooks = new float[subspaces][centroids][];
+		long position = codebooksOffset;
+		for (int s = 0; s < subspaces; s++) {
+			int width = QuantizedFormat.subspaceStart(dimensions, subspaces, s + 1) - QuantizedFormat.subspaceStart(dimensions, subspaces, s);
+			for (int c = 0; c < centroids; c++) {
+				codebooks[s][c] = new float[width];
+				file.getFloats(position, codebooks[s][c], 0, width);
+				position += 4L * width;
+			}
+		}
+	}
+
+	/**
+	 * @param latent indeks LSA segmentu albo null - musi byc, jesli wektory kwantyzowano z LSA
+	 */
+	public static QuantizedIndex open(File path, VectorIndex vectors, LsaIndex latent) throws IOException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(vectors);
+
+		MappedFile file = MappedFile.map(path);
+		try {
+			if (file.size() < QuantizedFormat.HEADER_SIZE || file.getInt(0) != QuantizedFormat.MAGIC) {
+				throw new IOException("Not a quantised vectors file");
+			}
+			int version = file.getInt(4);
+			if (version > QuantizedFormat.VERSION) {
+				throw new IOException("Unsupported quantised vectors version: " + version);
+			}
+			if (file.getInt(16) != vectors.getDocuments()) {
+				throw new IOException("Quantised vectors have " + file.getInt(16) + " documents, vector index has " + vectors.getDocuments());
+			}
+
+			int sourceDimensions;
+			if (file.getInt(12) == QuantizedFormat.SOURCE_LSA) {
+				if (latent == null) {
+					throw new IOException("Quantised vectors need the LSA index of the segment");
+				}
+				sourceDimensions = latent.getRank();
+			} else {
+				sourceDimensions = vectors.getDimensions();
+			}
+			if (file.getInt(20) != sourceDimensions) {
+				throw new IOException("Quantised vectors have " + file.getInt(20) + " dimensions, source has " + sourceDimensions);
+			}
+			return new QuantizedIndex(file);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getMethod() {
+		return method;
+	}
+
+	public int getSource() {
+		return source;
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * Norma L2 odtworzonego (skwantyzowanego) wektora dokumentu.
+	 */
+	public double getNorm(int doc) {
+		Preconditions.checkElementIndex(doc, documents);
+		return file.getDouble(normsOffset + 8L * doc);
+	}
+
+	/**
+	 * Scorer dla jednego zapytania; trzyma bufor, wiec nie jest bezpieczny watkowo.
+	 */
+	public Scorer getScorer(float[] query) {
+		Preconditions.checkNotNull(query);
+		Preconditions.checkArgument(query.length == dimensions, "Query has %s dimensions, expected %s", query.length, dimensions);
+
+		return new Scorer(query);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	public class Scorer {
+
+		private final float[] query;
+		private final double[] table;
+		private final byte[] codes;
+
+		private Scorer(float[] query) {
+			this.query = query;
+
+			if (method == QuantizedFormat.PRODUCT) {
+				table = new double[subspaces * centroids];
+				for (int s = 0; s < subspaces; s++) {
+					int start = QuantizedFormat.subspaceStart(dimensions, subspaces, s);
+					for (int c = 0; c < centroids; c++) {
+						float[] centroid = codebooks[s][c];
+						double dot = 0;
+						for (int d = 0; d < centroid.length; d++) {
+							dot += (double) query[start + d] * centroid[d];
+						}
+						table[s * centroids + c] = dot;
+					}
+				}
+				codes = new byte[subspaces];
+			} else {
+				table = null;
+				codes = new byte[dimensions];
+			}
+		}
+
+		/**
+		 * Iloczyn skalarny zapytania z odtworzonym wektorem dokumentu.
+		 */
+		public double dot(int doc) {
+			Preconditions.checkElementIndex(doc, documents);
+
+			file.getBytes(codesOffset + (long) doc * codes.length, codes, 0, codes.length);
+
+			double dot = 0;
+			if (table != null) {
+				for (int s = 0; s < subspaces; s++) {
+					dot += table[s * centroids + (codes[s] & 0xFF)];
+				}
+				return dot;
+			}
+
+			for (int i = 0; i < dimensions; i++) {
+				dot += codes[i] * query[i];
+			}
+			return dot * file.getFloat(scalesOffset + 4L * doc);
+		}
+
+	}
+
+}
@@ -0,0 +1,199 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Otwarty segment indeksu: wektory, listy odwrocone i pliki pochodne (jesli sa). Numer dokumentu w calym indeksie
+ * to base + numer w segmencie.
+ */
+public class Segment implements Closeable {
+
+	private final String name;
+	private final int base;
+	private final VectorIndex index;
+	private final PostingsIndex postings;
+	private final NormOrder normOrder;
+	private final HnswIndex graph;
+	private final IvfIndex clusters;
+	private final LsaIndex latent;
+	private final QuantizedIndex quantized;
+	private final DeletedDocuments deleted;
+
+	private Segment(String name, int base, VectorIndex index, PostingsIndex postings, NormOrder normOrder, HnswIndex graph, IvfIndex clusters,
+			LsaIndex latent, QuantizedIndex quantized, DeletedDocuments deleted) {
+		this.name = name;
+		this.base = base;
+		this.index = index;
+		this.postings = postings;
+		this.normOrder = normOrder;
+		this.graph = graph;
+		this.clusters = clusters;
+		this.latent = latent;
+		this.quantized = quantized;
+		this.deleted = deleted;
+	}
+
+	public static Segment open(File indexDir, String name, int base) throws IOException {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(name);
+
+		VectorIndex index = VectorIndex.open(Segments.getFile(indexDir, name, VectorIndexFormat.EXTENSION));
+		PostingsIndex postings = null;
+		NormOrder normOrder = null;
+		HnswIndex graph = null;
+		IvfIndex clusters = null;
+		LsaIndex latent = null;
+		QuantizedIndex quantized = null;
+		try {
+			// listy odwrocone maja wagi float32 - dla float64 tylko pelny przeglad daje wyniki na wartosciach double
+			File postingsFile = Segments.getFile(indexDir, name, PostingsFormat.EXTENSION);
+			if (postingsFile.exists() && index.getValueType() != VectorIndexFormat.FLOAT64) {
+				postings = PostingsIndex.open(postingsFile);
+			}
+			File normOrderFile = Segments.getFile(indexDir, name, NormOrder.EXTENSION);
+			if (normOrderFile.exists()) {
+				normOrder = NormOrder.open(normOrderFile, index);
+			}
+			File graphFile = Segments.getFile(indexDir, name, HnswFormat.EXTENSION);
+			if (graphFile.exists()) {
+				graph = HnswIndex.open(graphFile, index);
+			}
+			File clustersFile = Segments.getFile(indexDir, name, IvfFormat.EXTENSION);
+			if (clustersFile.exists()) {
+				clusters = IvfIndex.open(clustersFile, index);
+			}
+			File latentFile = Segments.getFile(indexDir, name, LsaFormat.EXTENSION);
+			if (latentFile.exists()) {
+				latent = LsaIndex.open(latentFile, index);
+			}
+			File quantizedFile = Segments.getFile(indexDir, name, QuantizedFormat.EXTENSION);
+			if (quantizedFile.exists()) {
+				quantized = QuantizedIndex.open(quantizedFile, index, latent);
+			}
+			DeletedDocuments deleted = DeletedDocuments.load(Segments.getFile(indexDir, name, DeletedDocuments.EXTENSION),
+					index.getDocuments());
+			return new Segment(name, base, index, postings, normOrder, graph, clusters, latent, quantized, deleted);
+		} catch (IOException e) {
+			index.close();
+			if (postings != null) {
+				postings.close();
+			}
+			if (normOrder != null) {
+				normOrder.close();
+			}
+			if (graph != null) {
+				graph.close();
+			}
+			if (clusters != null) {
+				clusters.close();
+			}
+			if (latent != null) {
+				latent.close();
+			}
+			if (quantized != null) {
+				quantized.close();
+			}
+			throw e;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getBase() {
+		return base;
+	}
+
+	public int getDocuments() {
+		return index.getDocuments();
+	}
+
+	public VectorIndex getIndex() {
+		return index;
+	}
+
+	public boolean hasPostings() {
+		return postings != null;
+	}
+
+	public PostingsIndex getPostings() {
+		return postings;
+	}
+
+	public boolean hasNormOrder() {
+		return normOrder != null;
+	}
+
+	public NormOrder getNormOrder() {
+		return normOrder;
+	}
+
+	public boolean hasGraph() {
+		return graph != null;
+	}
+
+	public HnswIndex getGraph() {
+		return graph;
+	}
+
+	public boolean hasClusters() {
+		return clusters != null;
+	}
+
+	public IvfIndex getClusters() {
+		return clusters;
+	}
+
+	public boolean hasLatent() {
+		return latent != null;
+	}
+
+	public LsaIndex getLatent() {
+		return latent;
+	}
+
+	public boolean hasQuantized() {
+		return quantized != null;
+	}
+
+	public QuantizedIndex getQuantized() {
+		return quantized;
+	}
+
+	public boolean isDeleted(int doc) {
+		return deleted.isDeleted(doc);
+	}
+
+	public DeletedDocuments getDeletedDocuments() {
+		return deleted;
+	}
+
+	@Override
+	public void close() throws IOException {
+		index.close();
+		if (postings != null) {
+			postings.close();
+		}
+		if (normOrder != null) {
+			normOrder.close();
+		}
+		if (graph != null) {
+			graph.close();
+		}
+		if (clusters != null) {
+			clusters.close();
+		}
+		if (latent != null) {
+			latent.close();
+		}
+		if (quantized != null) {
+			quantized.close();
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Wszystkie segmenty z segments.txt otwarte naraz. Numery dokumentow ida kolejno przez segmenty, od najstarszego.
+ */
+public class SegmentedIndex implements Closeable {
+
+	private final List<Segment> segments;
+	private final int[] bases;
+	private final int documents;
+
+	private SegmentedIndex(List<Segment> segments) {
+		this.segments = Collections.unmodifiableList(segments);
+		this.bases = new int[segments.size()];
+
+		int base = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			bases[i] = base;
+			base += segments.get(i).getDocuments();
+		}
+		this.documents = base;
+	}
+
+	/**
+	 * Otwiera segmenty indeksu. Jesli katalog nie ma ani segments.txt, ani index.bin - zwraca pusty indeks.
+	 */
+	public static SegmentedIndex open(File indexDir) throws IOException {
+		Preconditions.checkNotNull(indexDir);
+
+		return open(indexDir, Segments.read(indexDir));
+	}
+
+	public static SegmentedIndex open(File indexDir, List<String> names) throws IOException {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(names);
+
+		List<Segment> segments = Lists.newArrayList();
+		try {
+			int base = 0;
+			for (String name : names) {
+				Segment segment = Segment.open(indexDir, name, base);
+				segments.add(segment);
+				base += segment.getDocuments();
+			}
+		} catch (IOException e) {
+			for (Segment segment : segments) {
+				segment.close();
+			}
+			throw e;
+		}
+		return new SegmentedIndex(segments);
+	}
+
+	public List<Segment> getSegments() {
+		return segments;
+	}
+
+	public boolean isEmpty() {
+		return segments.isEmpty();
+	}
+
+	/**
+	 * Liczba dokumentow razem z usunietymi.
+	 */
+	public int getDocuments() {
+		return documents;
+	}
+
+	public Segment getSegment(int doc) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		int i = Arrays.binarySearch(bases, doc);
+		if (i < 0) {
+			i = -i - 2;
+		}
+		// puste segmenty maja ten sam base co nastepny
+		while (i + 1 < bases.length && bases[i + 1] == doc) {
+			i++;
+		}
+		return segments.get(i);
+	}
+
+	public String getPath(int doc) {
+		Segment segment = getSegment(doc);
+		return segment.getIndex().getPath(doc - segment.getBase());
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (Segment segment : segments) {
+			try {
+				segment.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+}
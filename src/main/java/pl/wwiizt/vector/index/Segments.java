@@ -0,0 +1,146 @@
+package pl.wwiizt.vector.index;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Lista segmentow indeksu wektorowego (segments.txt) - jedna nazwa segmentu w linii, od najstarszego. Segment to
+ * niezmienne pliki nazwa.bin, nazwa.post i opcjonalne pliki pochodne (DERIVED_EXTENSIONS).
+ * Indeks bez segments.txt to jeden segment "index" (index.bin), tak jak zapisuje go pelne indeksowanie.
+ */
+public final class Segments {
+
+	public static final String FILE_NAME = "segments.txt";
+	public static final String DEFAULT_SEGMENT = "index";
+
+	private static final String SEGMENT_PREFIX = "seg";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// pliki zalezne od numerow dokumentow segmentu, format kazdego opisuje jego klasa
+	private static final String[] DERIVED_EXTENSIONS = { DeletedDocuments.EXTENSION, NormOrder.EXTENSION, HnswFormat.EXTENSION, IvfFormat.EXTENSION,
+			LsaFormat.EXTENSION, QuantizedFormat.EXTENSION };
+
+	private Segments() {
+	}
+
+	public static List<String> read(File indexDir) throws IOException {
+		Preconditions.checkNotNull(indexDir);
+
+		File manifest = new File(indexDir, FILE_NAME);
+		List<String> segments = Lists.newArrayList();
+
+		if (!manifest.exists()) {
+			if (getFile(indexDir, DEFAULT_SEGMENT, VectorIndexFormat.EXTENSION).exists()) {
+				segments.add(DEFAULT_SEGMENT);
+			}
+			return segments;
+		}
+
+		for (String line : Files.readAllLines(manifest.toPath(), UTF8)) {
+			if (!line.trim().isEmpty()) {
+				segments.add(line.trim());
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Zapis przez plik tymczasowy i zmiane nazwy - czytelnik widzi stara albo nowa liste, nigdy polowe.
+	 */
+	public static void write(File indexDir, List<String> segments) throws IOException {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(segments);
+
+		File tmp = new File(indexDir, FILE_NAME + ".tmp");
+		try (FileWriter fw = new FileWriter(tmp)) {
+			for (String segment : segments) {
+				fw.write(segment);
+				fw.write("\n");
+			}
+		}
+		Files.move(tmp.toPath(), new File(indexDir, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Nazwa dla nowego segmentu: kolejny numer, ktorego nie ma ani na liscie, ani na dysku.
+	 */
+	public static String newSegmentName(File indexDir, List<String> segments) {
+		int number = 0;
+		for (String segment : segments) {
+			if (segment.startsWith(SEGMENT_PREFIX)) {
+				try {
+					number = Math.max(number, Integer.parseInt(segment.substring(SEGMENT_PREFIX.length())));
+				} catch (NumberFormatException e) {
+					// nazwa spoza schematu - pomijamy
+				}
+			}
+		}
+
+		String name;
+		do {
+			name = SEGMENT_PREFIX + (++number);
+		} while (getFile(indexDir, name, VectorIndexFormat.EXTENSION).exists());
+		return name;
+	}
+
+	public static File getFile(File indexDir, String segment, String extension) {
+		return new File(indexDir, segment + extension);
+	}
+
+	/**
+	 * Usuwa pliki segmentu. Na Linuksie otwarte przez wyszukiwanie mapowania zostaja wazne do zamkniecia.
+	 */
+	public static void deleteFiles(File indexDir, String segment) {
+		getFile(indexDir, segment, VectorIndexFormat.EXTENSION).delete();
+		getFile(indexDir, segment, PostingsFormat.EXTENSION).delete();
+		deleteDerivedFiles(indexDir, segment);
+	}
+
+	/**
+	 * Usuwa pliki pochodne segmentu (DERIVED_EXTENSIONS) - przed nadpisaniem nazwa.bin.
+	 */
+	public static void deleteDerivedFiles(File indexDir, String segment) {
+		for (String extension : DERIVED_EXTENSIONS) {
+			getFile(indexDir, segment, extension).delete();
+		}
+	}
+
+	/**
+	 * Skrot czasow modyfikacji i dlugosci segments.txt oraz wszystkich plikow podanych segmentow. Zmienia sie po
+	 * dodaniu, usunieciu i laczeniu segmentow oraz po zbudowaniu albo usunieciu pliku pochodnego - otwarty indeks
+	 * z innym skrotem jest nieaktualny.
+	 */
+	public static long getVersion(File indexDir, List<String> segments) {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(segments);
+
+		long version = getVersion(new File(indexDir, FILE_NAME));
+		for (String segment : segments) {
+			version = 31 * version + segment.hashCode();
+			version = 31 * version + getVersion(getFile(indexDir, segment, VectorIndexFormat.EXTENSION));
+			version = 31 * version + getVersion(getFile(indexDir, segment, PostingsFormat.EXTENSION));
+			for (String extension : DERIVED_EXTENSIONS) {
+				version = 31 * version + getVersion(getFile(indexDir, segment, extension));
+			}
+		}
+		return version;
+	}
+
+	/**
+	 * Skrot czasu modyfikacji i dlugosci jednego pliku.
+	 */
+	public static long getVersion(File file) {
+		// brak pliku daje 0 i 0
+		return 31 * file.lastModified() + file.length();
+	}
+
+}
@@ -0,0 +1,120 @@
+package pl.wwiizt.vector.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Plik tymczasowy z liczbami wystapien termow w kolejnych dokumentach (sciezka, n, int[n] termy, int[n] liczby).
+ * Pozwala zbudowac indeks jednym przebiegiem po XML-ach - wagi liczymy dopiero gdy znany jest caly slownik.
+ */
+public final class TermCountsSpill {
+
+	private TermCountsSpill() {
+	}
+
+	public static class Writer implements Closeable {
+
+		private final DataOutputStream out;
+		private int documents;
+
+		public Writer(File file) throws IOException {
+			Preconditions.checkNotNull(file);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		}
+
+		public void write(String path, int[] ids, int[] counts, int length) throws IOException {
+			Preconditions.checkNotNull(path);
+
+			out.writeUTF(path);
+			out.writeInt(length);
+			for (int i = 0; i < length; i++) {
+				out.writeInt(ids[i]);
+			}
+			for (int i = 0; i < length; i++) {
+				out.writeInt(counts[i]);
+			}
+			documents++;
+		}
+
+		public int getDocuments() {
+			return documents;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+	}
+
+	public static class Reader implements Closeable {
+
+		private final DataInputStream in;
+		private String path;
+		private int length;
+		private int[] ids = new int[64];
+		private int[] counts = new int[64];
+
+		public Reader(File file) throws IOException {
+			Preconditions.checkNotNull(file);
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		public boolean next() throws IOException {
+			try {
+				path = in.readUTF();
+			} catch (EOFException e) {
+				return false;
+			}
+
+			length = in.readInt();
+			if (length > ids.length) {
+				ids = new int[Math.max(length, ids.length * 2)];
+				counts = new int[ids.length];
+			}
+			for (int i = 0; i < length; i++) {
+				ids[i] = in.readInt();
+			}
+			for (int i = 0; i < length; i++) {
+				counts[i] = in.readInt();
+			}
+			return true;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Tablica wspoldzielona miedzy kolejnymi wywolaniami next(), wazne pierwsze getLength() pozycji.
+		 */
+		public int[] getIds() {
+			return ids;
+		}
+
+		public int[] getCounts() {
+			return counts;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,179 @@
+package pl.wwiizt.vector.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import pl.wwiizt.vector.model.SparseVector;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Indeks wektorowy otwarty przez FileChannel.map - wektory czytane sa prosto z page cache.
+ */
+public class VectorIndex implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MappedFile file;
+	private final int valueType;
+	private final int dimensions;
+	private final int documents;
+	private final int layout;
+	private final long rowsOffset;
+	private final long rowWidth;
+	private final long rowIndexOffset;
+	private final long normsOffset;
+	private final long pathOffsetsOffset;
+	private final long pathBytesOffset;
+
+	private VectorIndex(MappedFile file) throws IOException {
+		this.file = file;
+
+		if (file.size() < VectorIndexFormat.HEADER_SIZE || file.getInt(0) != VectorIndexFormat.MAGIC) {
+			throw new IOException("Not a vector index file");
+		}
+		int version = file.getInt(4);
+		if (version > VectorIndexFormat.VERSION) {
+			throw new IOException("Unsupported vector index version: " + version);
+		}
+
+		valueType = file.getInt(8);
+		dimensions = file.getInt(12);
+		documents = file.getInt(16);
+		layout = file.getInt(20);
+		rowsOffset = file.getLong(24);
+		rowWidth = (long) dimensions * VectorIndexFormat.valueWidth(valueType);
+		pathOffsetsOffset = file.getLong(32);
+		pathBytesOffset = pathOffsetsOffset + 8L * (documents + 1);
+		rowIndexOffset = file.getLong(40);
+		normsOffset = version >= 3 ? file.getLong(48) : 0;
+	}
+
+	public static VectorIndex open(File path) throws IOException {
+		Preconditions.checkNotNull(path);
+
+		MappedFile file = MappedFile.map(path);
+		try {
+			return new VectorIndex(file);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getValueType() {
+		return valueType;
+	}
+
+	public int getLayout() {
+		return layout;
+	}
+
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public String getPath(int doc) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		long start = file.getLong(pathOffsetsOffset + 8L * doc);
+		long end = file.getLong(pathOffsetsOffset + 8L * (doc + 1));
+		byte[] bytes = new byte[(int) (end - start)];
+		file.getBytes(pathBytesOffset + start, bytes, 0, bytes.length);
+		return new String(bytes, UTF8);
+	}
+
+	public boolean hasNorms() {
+		return normsOffset != 0;
+	}
+
+	/**
+	 * Norma L2 wektora dokumentu - zapisana w indeksie, dla starszych plikow liczona z wektora.
+	 */
+	public double getNorm(int doc) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		if (normsOffset != 0) {
+			return file.getDouble(normsOffset + 8L * doc);
+		}
+		return Math.sqrt(getVector(doc).squaredLength());
+	}
+
+	/**
+	 * Wektor dokumentu w postaci rzadkiej - dla obu ukladow pliku.
+	 */
+	public SparseVector getVector(int doc) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		if (layout == VectorIndexFormat.DENSE) {
+			return SparseVector.fromDense(getVector(doc, (double[]) null));
+		}
+
+		long start = file.getLong(rowIndexOffset + 8L * doc);
+		int size = (int) ((file.getLong(rowIndexOffset + 8L * (doc + 1)) - start) / 8);
+		int[] ids = new int[size];
+		float[] values = new float[size];
+		file.getInts(start, ids, 0, size);
+		file.getFloats(start + 4L * size, values, 0, size);
+		return new SparseVector(ids, values);
+	}
+
+	/**
+	 * Wczytuje wektor dokumentu do podanej tablicy (albo nowej, jesli target == null).
+	 */
+	public double[] getVector(int doc, double[] target) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		if (target == null || target.length != dimensions) {
+			target = new double[dimensions];
+		}
+
+		if (layout == VectorIndexFormat.SPARSE) {
+			return getVector(doc).toDense(dimensions, target);
+		}
+
+		long pos = rowsOffset + doc * rowWidth;
+		if (valueType == VectorIndexFormat.FLOAT64) {
+			file.getDoubles(pos, target, 0, dimensions);
+		} else {
+			for (int i = 0; i < dimensions; i++) {
+				target[i] = file.getFloat(pos + 4L * i);
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * Wektor dokumentu jako float[] - dla ukladu gestego float32 bez konwersji na double.
+	 */
+	public float[] getFloatVector(int doc, float[] target) {
+		Preconditions.checkElementIndex(doc, documents);
+
+		if (target == null || target.length != dimensions) {
+			target = new float[dimensions];
+		}
+
+		if (layout == VectorIndexFormat.DENSE && valueType == VectorIndexFormat.FLOAT32) {
+			file.getFloats(rowsOffset + doc * rowWidth, target, 0, dimensions);
+			return target;
+		}
+
+		double[] vector = getVector(doc, (double[]) null);
+		for (int i = 0; i < dimensions; i++) {
+			target[i] = (float) vector[i];
+		}
+		return target;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
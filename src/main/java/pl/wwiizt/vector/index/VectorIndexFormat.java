@@ -0,0 +1,51 @@
+package pl.wwiizt.vector.index;
+
+/**
+ * Binarny format indeksu wektorowego (index.bin).
+ *
+ * <pre>
+ * naglowek (64 bajty, big-endian):
+ *   int  magic, int version, int valueType, int dimensions, int documents, int layout,
+ *   long rowsOffset, long pathsOffset, long rowIndexOffset, long normsOffset, reszta zera
+ * wiersze DENSE: documents * dimensions wartosci float32 albo float64
+ * wiersze SPARSE (od wersji 2, tylko float32): dla kazdego dokumentu int[n] numery termow, potem float[n] wagi
+ * indeks wierszy SPARSE: long[documents + 1] pozycji wierszy w pliku
+ * normy L2 wektorow (od wersji 3): double[documents]
+ * tablica sciezek: long[documents + 1] przesuniec, potem bajty UTF-8 sciezek
+ * </pre>
+ */
+public final class VectorIndexFormat {
+
+	public static final String EXTENSION = ".bin";
+	public static final String FILE_NAME = Segments.DEFAULT_SEGMENT + EXTENSION;
+
+	public static final int MAGIC = 0x57564958; // "WVIX"
+	public static final int VERSION = 3;
+
+	public static final int FLOAT32 = 1;
+	public static final int FLOAT64 = 2;
+
+	public static final int DENSE = 0;
+	public static final int SPARSE = 1;
+
+	static final int HEADER_SIZE = 64;
+
+	private VectorIndexFormat() {
+	}
+
+	static int valueWidth(int valueType) {
+		switch (valueType) {
+		case FLOAT32:
+			return 4;
+		case FLOAT64:
+			return 8;
+		default:
+			throw new IllegalArgumentException("Unknown value type: " + valueType);
+		}
+	}
+
+	static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+}
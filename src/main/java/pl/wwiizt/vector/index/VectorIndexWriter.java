@@ -0,0 +1,188 @@
+package pl.wwiizt.vector.index;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import pl.wwiizt.vector.model.SparseVector;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Zapisuje indeks w formacie {@link VectorIndexFormat}. Wiersze ida strumieniowo, tablice pomocnicze i naglowek na koncu.
+ */
+public class VectorIndexWriter implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final int dimensions;
+	private final int layout;
+	private final int valueType;
+	private final DataOutputStream out;
+	private final List<String> paths = Lists.newArrayList();
+	private long[] rowIndex = new long[1024];
+	private double[] norms = new double[1024];
+	private long position;
+
+	/**
+	 * Indeks rzadki (float32).
+	 */
+	public VectorIndexWriter(File file, int dimensions) throws IOException {
+		this(file, dimensions, VectorIndexFormat.SPARSE, VectorIndexFormat.FLOAT32);
+	}
+
+	public VectorIndexWriter(File file, int dimensions, int layout, int valueType) throws IOException {
+		Preconditions.checkNotNull(file);
+		Preconditions.checkArgument(dimensions >= 0);
+		Preconditions.checkArgument(layout == VectorIndexFormat.DENSE || layout == VectorIndexFormat.SPARSE, "Unknown layout: %s", layout);
+		Preconditions.checkArgument(layout == VectorIndexFormat.DENSE || valueType == VectorIndexFormat.FLOAT32, "Sparse layout stores float32 only");
+		VectorIndexFormat.valueWidth(valueType);
+
+		this.file = file;
+		this.dimensions = dimensions;
+		this.layout = layout;
+		this.valueType = valueType;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+		out.write(new byte[VectorIndexFormat.HEADER_SIZE]);
+		position = VectorIndexFormat.HEADER_SIZE;
+	}
+
+	public void add(String path, double[] vector) throws IOException {
+		Preconditions.checkArgument(vector.length == dimensions, "Vector has %s dimensions, index has %s", vector.length, dimensions);
+
+		if (layout == VectorIndexFormat.SPARSE) {
+			add(path, SparseVector.fromDense(vector));
+			return;
+		}
+
+		Preconditions.checkNotNull(path);
+		ensureCapacity();
+
+		// norma z wartosci po zapisie, tak jak policzylby ja czytelnik
+		double measure = 0;
+		if (valueType == VectorIndexFormat.FLOAT32) {
+			for (double d : vector) {
+				float f = (float) d;
+				out.writeFloat(f);
+				measure += (double) f * f;
+			}
+		} else {
+			for (double d : vector) {
+				out.writeDouble(d);
+				measure += d * d;
+			}
+		}
+		norms[paths.size()] = Math.sqrt(measure);
+
+		position += (long) dimensions * VectorIndexFormat.valueWidth(valueType);
+		paths.add(path);
+	}
+
+	public void add(String path, SparseVector vector) throws IOException {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(vector);
+
+		if (layout == VectorIndexFormat.DENSE) {
+			add(path, vector.toDense(dimensions, null));
+			return;
+		}
+
+		int size = vector.size();
+		Preconditions.checkArgument(size == 0 || vector.getId(size - 1) < dimensions, "Term id out of range");
+
+		ensureCapacity();
+		rowIndex[paths.size()] = position;
+		norms[paths.size()] = Math.sqrt(vector.squaredLength());
+
+		for (int i = 0; i < size; i++) {
+			out.writeInt(vector.getId(i));
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeFloat(vector.getValue(i));
+		}
+
+		position += 8L * size;
+		paths.add(path);
+	}
+
+	public int getDocuments() {
+		return paths.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		long rowIndexOffset = 0;
+		long normsOffset;
+		long pathsOffset;
+
+		try {
+			if (layout == VectorIndexFormat.SPARSE) {
+				rowIndex[paths.size()] = position;
+				rowIndexOffset = pad();
+				for (int i = 0; i <= paths.size(); i++) {
+					out.writeLong(rowIndex[i]);
+				}
+				position += 8L * (paths.size() + 1);
+			}
+
+			normsOffset = pad();
+			for (int i = 0; i < paths.size(); i++) {
+				out.writeDouble(norms[i]);
+			}
+			position += 8L * paths.size();
+
+			pathsOffset = pad();
+			long offset = 0;
+			out.writeLong(offset);
+			for (String path : paths) {
+				offset += path.getBytes(UTF8).length;
+				out.writeLong(offset);
+			}
+			for (String path : paths) {
+				out.write(path.getBytes(UTF8));
+			}
+		} finally {
+			out.close();
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.writeInt(VectorIndexFormat.MAGIC);
+			raf.writeInt(VectorIndexFormat.VERSION);
+			raf.writeInt(valueType);
+			raf.writeInt(dimensions);
+			raf.writeInt(paths.size());
+			raf.writeInt(layout);
+			raf.writeLong(VectorIndexFormat.HEADER_SIZE);
+			raf.writeLong(pathsOffset);
+			raf.writeLong(rowIndexOffset);
+			raf.writeLong(normsOffset);
+		}
+	}
+
+	private void ensureCapacity() {
+		if (paths.size() + 1 >= rowIndex.length) {
+			rowIndex = Arrays.copyOf(rowIndex, rowIndex.length * 2);
+			norms = Arrays.copyOf(norms, norms.length * 2);
+		}
+	}
+
+	private long pad() throws IOException {
+		long aligned = VectorIndexFormat.align(position);
+		while (position < aligned) {
+			out.writeByte(0);
+			position++;
+		}
+		return position;
+	}
+
+}
@@ -0,0 +1,35 @@
+package pl.wwiizt.vector.index;
+
+import java.util.Arrays;
+
+/**
+ * Zbior odwiedzonych wierzcholkow grafu czyszczony w O(1): znacznik to numer biezacego przebiegu.
+ */
+class VisitedSet {
+
+	private final int[] marks;
+	private int epoch = 1;
+
+	VisitedSet(int size) {
+		marks = new int[size];
+	}
+
+	void clear() {
+		if (++epoch == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			epoch = 1;
+		}
+	}
+
+	/**
+	 * Zwraca true, jesli wierzcholek nie byl jeszcze odwiedzony w tym przebiegu.
+	 */
+	boolean visit(int node) {
+		if (marks[node] == epoch) {
+			return false;
+		}
+		marks[node] = epoch;
+		return true;
+	}
+
+}
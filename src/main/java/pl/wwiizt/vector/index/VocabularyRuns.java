@@ -0,0 +1,244 @@
+package pl.wwiizt.vector.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import pl.wwiizt.vector.model.TermDictionary;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Slownik budowany w pamieci o stalym rozmiarze: co najwyzej runTerms termow na raz. Pelny slownik przebiegu jest
+ * zapisywany na dysk jako posortowany plik (term, lokalny numer, czy w naglowku) i czyszczony, a na koniec pliki sa
+ * laczone k-drogowo. Laczenie wypisuje termy naglowka alfabetycznie (to sa linie header.csv) i dla kazdego przebiegu
+ * zapisuje przejscie lokalny numer -> numer w naglowku (-1 dla termow spoza naglowka). Pliki tymczasowe
+ * (vocabulary.N.run, vocabulary.N.remap) leza w katalogu indeksu i sa usuwane przy zamknieciu.
+ */
+public class VocabularyRuns implements Closeable {
+
+	// przyblizony koszt termu w pamieci: String z tablica znakow i wpisy w tablicach TermDictionary
+	public static final int BYTES_PER_TERM = 128;
+	public static final int MIN_RUN_TERMS = 1024;
+
+	private static final String PREFIX = "vocabulary.";
+	private static final int BUFFER_SIZE = 1 << 13;
+
+	private final File dir;
+	private final int runTerms;
+	private final List<Integer> runSizes = Lists.newArrayList();
+	private final List<Integer> runDocuments = Lists.newArrayList();
+
+	public VocabularyRuns(File dir, int runTerms) {
+		Preconditions.checkNotNull(dir);
+		Preconditions.checkArgument(runTerms > 0);
+
+		this.dir = dir;
+		this.runTerms = runTerms;
+	}
+
+	/**
+	 * Liczba termow na przebieg dla podanej pamieci (w bajtach).
+	 */
+	public static int getRunTerms(long memory) {
+		return (int) Math.max(MIN_RUN_TERMS, Math.min(Integer.MAX_VALUE / 2, memory / BYTES_PER_TERM));
+	}
+
+	public int getRunTerms() {
+		return runTerms;
+	}
+
+	public int getRuns() {
+		return runSizes.size();
+	}
+
+	/**
+	 * Liczba kolejnych dokumentow pliku tymczasowego, ktorych numery termow pochodza z przebiegu run.
+	 */
+	public int getDocuments(int run) {
+		return runDocuments.get(run);
+	}
+
+	/**
+	 * Zapisuje slownik przebiegu posortowany alfabetycznie. Slownik i headerTerms mozna potem wyczyscic.
+	 * @param documents liczba dokumentow zapisanych z numerami z tego slownika
+	 */
+	public void writeRun(TermDictionary dictionary, BitSet headerTerms, int documents) throws IOException {
+		Preconditions.checkNotNull(dictionary);
+		Preconditions.checkNotNull(headerTerms);
+
+		String[] terms = dictionary.toArray();
+		Arrays.sort(terms);
+
+		int run = runSizes.size();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getRunFile(run)), 1 << 16))) {
+			out.writeInt(terms.length);
+			for (String term : terms) {
+				int id = dictionary.getId(term);
+				out.writeUTF(term);
+				out.writeInt(id);
+				out.writeBoolean(headerTerms.get(id));
+			}
+		}
+		runSizes.add(terms.length);
+		runDocuments.add(documents);
+	}
+
+	/**
+	 * Laczy przebiegi: termy naglowka trafiaja do header po jednym w linii, w kolejnosci alfabetycznej. Term jest w
+	 * naglowku, jesli byl w nim w ktorymkolwiek przebiegu.
+	 * @return liczba termow naglowka
+	 */
+	public int merge(Writer header) throws IOException {
+		Preconditions.checkNotNull(header);
+
+		int runs = runSizes.size();
+		PriorityQueue<RunCursor> queue = new PriorityQueue<RunCursor>(Math.max(1, runs), new Comparator<RunCursor>() {
+
+			@Override
+			public int compare(RunCursor o1, RunCursor o2) {
+				return o1.term.compareTo(o2.term);
+			}
+
+		});
+		List<RunCursor> cursors = Lists.newArrayList();
+		List<RunCursor> equal = Lists.newArrayList();
+
+		try {
+			for (int run = 0; run < runs; run++) {
+				RunCursor cursor = new RunCursor(run);
+				cursors.add(cursor);
+				if (cursor.next()) {
+					queue.add(cursor);
+				}
+			}
+
+			int next = 0;
+			while (!queue.isEmpty()) {
+				String term = queue.peek().term;
+				boolean inHeader = false;
+				equal.clear();
+				while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+					RunCursor cursor = queue.poll();
+					inHeader |= cursor.header;
+					equal.add(cursor);
+				}
+
+				int id = -1;
+				if (inHeader) {
+					id = next++;
+					header.write(term);
+					header.write("\n");
+				}
+
+				for (RunCursor cursor : equal) {
+					cursor.remap.writeInt(cursor.id);
+					cursor.remap.writeInt(id);
+					if (cursor.next()) {
+						queue.add(cursor);
+					}
+				}
+			}
+			return next;
+		} finally {
+			IOException failure = null;
+			for (RunCursor cursor : cursors) {
+				try {
+					cursor.close();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Przejscie lokalny numer -> numer w naglowku dla przebiegu run, po {@link #merge(Writer)}.
+	 */
+	public int[] readRemap(int run) throws IOException {
+		int[] remap = new int[runSizes.get(run)];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getRemapFile(run)), 1 << 16))) {
+			for (int i = 0; i < remap.length; i++) {
+				int id = in.readInt();
+				remap[id] = in.readInt();
+			}
+		}
+		return remap;
+	}
+
+	@Override
+	public void close() {
+		for (int run = 0; run < runSizes.size(); run++) {
+			getRunFile(run).delete();
+			getRemapFile(run).delete();
+		}
+	}
+
+	private File getRunFile(int run) {
+		return new File(dir, PREFIX + run + ".run");
+	}
+
+	private File getRemapFile(int run) {
+		return new File(dir, PREFIX + run + ".remap");
+	}
+
+	private class RunCursor implements Closeable {
+
+		private final DataInputStream in;
+		private final DataOutputStream remap;
+		private int remaining;
+
+		private String term;
+		private int id;
+		private boolean header;
+
+		RunCursor(int run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(getRunFile(run)), BUFFER_SIZE));
+			try {
+				remap = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getRemapFile(run)), BUFFER_SIZE));
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			remaining = in.readInt();
+		}
+
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			term = in.readUTF();
+			id = in.readInt();
+			header = in.readBoolean();
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				in.close();
+			} finally {
+				remap.close();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,21 @@
+package pl.wwiizt.vector.model;
+
+/**
+ * Odbiera pary (dokument, ranga) od scorerow. Pelny kolektor odrzuca dokumenty o randze gorszej od progu, wiec scorer
+ * moze pominac dokument, ktorego ograniczenie rangi jest gorsze od progu, bez liczenia rangi.
+ */
+public interface DocumentCollector {
+
+	public boolean isFull();
+
+	/**
+	 * Ranga, ktora musi pobic nowy dokument - tylko gdy {@link #isFull()}.
+	 */
+	public double getThreshold();
+
+	/**
+	 * @return czy dokument zostal przyjety
+	 */
+	public boolean collect(int doc, double rank);
+
+}
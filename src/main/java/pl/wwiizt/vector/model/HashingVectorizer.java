@@ -0,0 +1,61 @@
+package pl.wwiizt.vector.model;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Wektoryzacja bez wspolnego slownika (hashing trick): term trafia do kubelka hash(term) mod buckets. Wektor liczony
+ * jest jednym przebiegiem po tekscie, bez podzialu na Stringi i bez naglowka - kosztem rzadkich kolizji termow.
+ * Wagi jak w {@link IndexRecord}, z liczba kubelkow w miejscu rozmiaru slownika. Puste tokeny sa pomijane.
+ * Obiekt trzyma bufor roboczy, wiec nie jest bezpieczny watkowo.
+ */
+public class HashingVectorizer {
+
+	private final int buckets;
+	private int[] numbers = new int[1024];
+
+	public HashingVectorizer(int buckets) {
+		Preconditions.checkArgument(buckets > 0, "Number of buckets must be positive: %s", buckets);
+
+		this.buckets = buckets;
+	}
+
+	public int getBuckets() {
+		return buckets;
+	}
+
+	public SparseVector vectorize(String content, boolean tfidf) {
+		Preconditions.checkNotNull(content);
+
+		int length = 0;
+		int hash = 0;
+		boolean inToken = false;
+
+		for (int i = 0; i <= content.length(); i++) {
+			char c = i < content.length() ? content.charAt(i) : ' ';
+			if (c != ' ') {
+				// to samo co String.hashCode() tokenu
+				hash = 31 * hash + c;
+				inToken = true;
+			} else if (inToken) {
+				if (length == numbers.length) {
+					numbers = Arrays.copyOf(numbers, length * 2);
+				}
+				numbers[length++] = bucket(hash);
+				hash = 0;
+				inToken = false;
+			}
+		}
+
+		IndexRecord ir = new IndexRecord();
+		ir.setDimensions(buckets);
+		ir.setCounts(numbers, length, tfidf);
+		return ir.getVector();
+	}
+
+	private int bucket(int h) {
+		return (TermDictionary.mix(h) & Integer.MAX_VALUE) % buckets;
+	}
+
+}
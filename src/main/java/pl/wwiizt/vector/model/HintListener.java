@@ -0,0 +1,10 @@
+package pl.wwiizt.vector.model;
+
+/**
+ * Odbiera wyniki wyszukiwania zakresowego, gdy tylko zostana znalezione.
+ */
+public interface HintListener {
+
+	public void found(Hint hint);
+
+}
@@ -1,11 +1,8 @@
 package pl.wwiizt.vector.model;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Set;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 public class IndexHeader {
@@ -13,16 +10,23 @@ public class IndexHeader {
 	private static final String CRLF = "\n";
 
 	private Set<String> headers = Sets.newTreeSet();
-	private List<String> headersList = Lists.newArrayList();
-	private boolean convertedToList = false;
+	private TermDictionary dictionary = new TermDictionary();
+	private boolean dictionaryBuilt = true;
 
 	public Set<String> getHeaders() {
+		if (headers.size() < dictionary.size()) {
+			seedHeaders();
+		}
 		return headers;
 	}
 
 	public void addHeader(String header) {
-		headers.add(header);
-		convertedToList = false;
+		if (headers.size() < dictionary.size()) {
+			seedHeaders();
+		}
+		if (headers.add(header)) {
+			dictionaryBuilt = false;
+		}
 	}
 
 	public void parse(String content) {
@@ -31,14 +35,14 @@ public class IndexHeader {
 		headers = Sets.newTreeSet();
 		String[] array = content.split(CRLF);
 
+		// kolejnosc linii w header.csv wyznacza numery kolumn w indeksie
+		dictionary = new TermDictionary(array.length);
 		for (String s : array) {
-			headers.add(s);
+			dictionary.add(s);
 		}
-
-		headersList = getList();
-		convertedToList = true;
+		dictionaryBuilt = true;
 	}
-	
+
 	public void parse(String content1, String content2) {
 		Preconditions.checkNotNull(content1);
 		Preconditions.checkNotNull(content2);
@@ -49,51 +53,65 @@ public class IndexHeader {
 		for (String s : array) {
 			headers.add(s);
 		}
-		
+
 		array = content2.split(" ");
 
 		for (String s : array) {
 			headers.add(s);
 		}
 
-		headersList = getList();
-		convertedToList = true;
+		buildDictionary();
 	}
 
-	public String getHeaderString(int number) {
-		if (!convertedToList) {
-			headersList = getList();
-			convertedToList = true;
+	public int size() {
+		if (!dictionaryBuilt) {
+			buildDictionary();
 		}
+		return dictionary.size();
+	}
 
-		if (number < headersList.size()) {
-			return headersList.get(number);
+	public String getHeaderString(int number) {
+		if (!dictionaryBuilt) {
+			buildDictionary();
 		}
 
-		return null;
+		return dictionary.getTerm(number);
 	}
 
 	public int getHeaderNumber(String header) {
-		if (!convertedToList) {
-			headersList = getList();
-			convertedToList = true;
+		if (!dictionaryBuilt) {
+			buildDictionary();
 		}
 
-		return headersList.indexOf(header);
+		return dictionary.getId(header);
 	}
 
 	@Override
 	public String toString() {
+		if (!dictionaryBuilt) {
+			buildDictionary();
+		}
+
 		StringBuilder sb = new StringBuilder();
-		for (String h : headers) {
-			sb.append(h);
+		for (int i = 0; i < dictionary.size(); i++) {
+			sb.append(dictionary.getTerm(i));
 			sb.append(CRLF);
 		}
 		return sb.toString();
 	}
 
-	private List<String> getList() {
-		return new ArrayList<>(headers);
+	private void buildDictionary() {
+		dictionary = new TermDictionary(headers.size());
+		for (String h : headers) {
+			dictionary.add(h);
+		}
+		dictionaryBuilt = true;
+	}
+
+	private void seedHeaders() {
+		for (int i = 0; i < dictionary.size(); i++) {
+			headers.add(dictionary.getTerm(i));
+		}
 	}
 
 }
@@ -1,19 +1,19 @@
 package pl.wwiizt.vector.model;
 
-import java.util.List;
+import java.util.Arrays;
 
 import pl.wwizt.vector.distances.Distance;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 
 public class IndexRecord {
-	
+
 	private static final String CSV_SEPARATOR = ";";
 	private static final String SPACE = " ";
 
 	private String filePath;
-	private List<Double> fields;
+	private SparseVector vector = SparseVector.EMPTY;
+	private int dimensions;
 
 	public String getFilePath() {
 		return filePath;
@@ -23,91 +23,137 @@ public class IndexRecord {
 		this.filePath = filePath;
 	}
 
-	public List<Double> getFields() {
-		return fields;
+	public SparseVector getVector() {
+		return vector;
+	}
+
+	public void setVector(SparseVector vector) {
+		this.vector = vector;
+	}
+
+	public int getDimensions() {
+		return dimensions;
 	}
 
-	public void setFields(List<Double> fields) {
-		this.fields = fields;
+	public void setDimensions(int dimensions) {
+		this.dimensions = dimensions;
 	}
-	
+
 	public void parseFromCSV(String line) {
 		Preconditions.checkNotNull(line);
-		
-		fields = Lists.newArrayList();
+
 		String[] array = line.split(CSV_SEPARATOR);
 		filePath = array[0];
+		dimensions = array.length - 1;
+
+		double[] fields = new double[dimensions];
 		for (int i = 1; i < array.length; i++) {
-			fields.add(Double.parseDouble(array[i]));
+			fields[i - 1] = Double.parseDouble(array[i]);
 		}
+		vector = SparseVector.fromDense(fields);
 	}
-	
+
 	//TODO opcja z tfidf
 	public void parseFromFile(String path, String content, IndexHeader header, boolean tfidf) {
+		parseFromFile(path, content, header, header.size(), tfidf);
+	}
+
+	/**
+	 * Wagi liczone dla podanego rozmiaru slownika - segment zapisany przy krotszym header.csv ma mniej wymiarow.
+	 */
+	public void parseFromFile(String path, String content, IndexHeader header, int dimensions, boolean tfidf) {
 		Preconditions.checkNotNull(path);
 		Preconditions.checkNotNull(content);
 		Preconditions.checkNotNull(header);
-		
-		initFields(header.getHeaders().size());
+
+		this.dimensions = dimensions;
 		filePath = path;
 		String[] tokens = content.split(SPACE);
+
+		int[] numbers = new int[tokens.length];
+		int found = 0;
 		for (int i = 0; i < tokens.length; i++) {
 			int number = header.getHeaderNumber(tokens[i]);
 			if (number != -1) {
-				Double count = fields.get(number);
-				count++;
-				fields.set(number, count);
+				numbers[found++] = number;
+			}
+		}
+
+		setCounts(numbers, found, tfidf);
+	}
+
+	/**
+	 * Buduje wektor z numerow termow (moga sie powtarzac, kolejnosc dowolna). Tablica jest sortowana w miejscu.
+	 */
+	public void setCounts(int[] numbers, int length, boolean tfidf) {
+		Arrays.sort(numbers, 0, length);
+
+		int distinct = 0;
+		for (int i = 0; i < length; i++) {
+			if (i == 0 || numbers[i] != numbers[i - 1]) {
+				distinct++;
+			}
+		}
+
+		int[] ids = new int[distinct];
+		int[] counts = new int[distinct];
+		int j = -1;
+		for (int i = 0; i < length; i++) {
+			if (i == 0 || numbers[i] != numbers[i - 1]) {
+				ids[++j] = numbers[i];
 			}
+			counts[j]++;
+		}
+
+		setTermCounts(ids, counts, distinct, tfidf);
+	}
+
+	/**
+	 * Buduje wektor z posortowanych rosnaco numerow termow i liczby ich wystapien. Wymaga ustawionego dimensions.
+	 */
+	public void setTermCounts(int[] ids, int[] counts, int length, boolean tfidf) {
+		float[] values = new float[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = counts[i];
 		}
-		
+
 		if (tfidf)
-			countLogarithms();
+			countLogarithms(values);
 		else
-			normalize();
-		
+			normalize(values);
+
+		vector = new SparseVector(Arrays.copyOf(ids, length), values);
 	}
-	
+
 	public double compare(IndexRecord that, Distance distance) {
-		return distance.measureDistance(this.fields, that.fields);
+		return distance.measureDistance(this.vector, that.vector);
 	}
-	
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append(filePath);
-		for (Double d : fields) {
-			if (d == null) {
-				d = 0.0;
+		int next = 0;
+		for (int i = 0; i < dimensions; i++) {
+			double d = 0.0;
+			if (next < vector.size() && vector.getId(next) == i) {
+				d = vector.getValue(next++);
 			}
 			sb.append(CSV_SEPARATOR);
 			sb.append(d);
 		}
 		return sb.toString();
 	}
-	
-	private void normalize() {
-		int size = fields.size();
-	
-		for (int i = 0; i < size; i++) {
-			double d = fields.get(i);
-			fields.set(i, d / size);
-		}
-	}
-	
-	private void countLogarithms() {
-		int size = fields.size();
-		
-		for (int i = 0; i < size; i++) {
-			double d = Math.log10(1.0 + fields.get(i));
-			fields.set(i, d);
+
+	private void normalize(float[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (float) (values[i] / (double) dimensions);
 		}
 	}
-	
-	
-	private void initFields(int size) {
-		fields = Lists.newArrayList();
-		for (int i = 0; i < size; i++) {
-			fields.add(0.0);
+
+	private void countLogarithms(float[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (float) Math.log10(1.0 + values[i]);
 		}
 	}
 
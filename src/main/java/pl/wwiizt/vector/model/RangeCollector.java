@@ -0,0 +1,63 @@
+package pl.wwiizt.vector.model;
+
+import pl.wwizt.vector.distances.Distance;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Kolektor zapytania zakresowego: kazdy dokument o randze nie gorszej od limitu (odleglosc <= limit, podobienstwo >=
+ * limit) jest od razu przekazywany do {@link #found(int, double)}, a nic nie jest przechowywane. Jest zawsze pelny z
+ * progiem rownym limitowi, wiec scorery przycinajace wzgledem progu (normy, ograniczenia termow) odrzucaja dokumenty
+ * spoza zakresu bez zmian w kodzie.
+ */
+public abstract class RangeCollector implements DocumentCollector {
+
+	private final Distance distance;
+	private final double limit;
+	private int found;
+
+	public RangeCollector(double limit, Distance distance) {
+		Preconditions.checkArgument(!Double.isNaN(limit));
+		Preconditions.checkNotNull(distance);
+
+		this.distance = distance;
+		this.limit = limit;
+	}
+
+	/**
+	 * Dokument w zakresie, w kolejnosci przegladania.
+	 */
+	protected abstract void found(int doc, double rank);
+
+	public double getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Liczba dokumentow przekazanych do {@link #found(int, double)}.
+	 */
+	public int getFound() {
+		return found;
+	}
+
+	@Override
+	public boolean isFull() {
+		return true;
+	}
+
+	@Override
+	public double getThreshold() {
+		return limit;
+	}
+
+	@Override
+	public boolean collect(int doc, double rank) {
+		if (distance.compareRanks(rank, limit) > 0) {
+			return false;
+		}
+		found++;
+		found(doc, rank);
+		return true;
+	}
+
+}
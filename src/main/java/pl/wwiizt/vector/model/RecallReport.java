@@ -0,0 +1,97 @@
+package pl.wwiizt.vector.model;
+
+/**
+ * Porownanie wyszukiwania przyblizonego z dokladnym: sredni recall@k i laczne czasy obu wyszukiwan.
+ */
+public class RecallReport {
+
+	private int queries;
+	private int k;
+	private int efSearch;
+	private int nprobe;
+	private double recallSum;
+	private long exactTime;
+	private long approximateTime;
+
+	public RecallReport(int k, int efSearch) {
+		this(k, efSearch, 0);
+	}
+
+	public RecallReport(int k, int efSearch, int nprobe) {
+		this.k = k;
+		this.efSearch = efSearch;
+		this.nprobe = nprobe;
+	}
+
+	/**
+	 * @param found ile dokumentow z dokladnych wynikow znalazlo wyszukiwanie przyblizone
+	 * @param expected liczba dokladnych wynikow
+	 */
+	public void addQuery(int found, int expected, long exactTime, long approximateTime) {
+		queries++;
+		recallSum += expected == 0 ? 1.0 : found / (double) expected;
+		this.exactTime += exactTime;
+		this.approximateTime += approximateTime;
+	}
+
+	public int getQueries() {
+		return queries;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int getEfSearch() {
+		return efSearch;
+	}
+
+	public int getNprobe() {
+		return nprobe;
+	}
+
+	public double getRecall() {
+		return queries == 0 ? 0 : recallSum / queries;
+	}
+
+	public long getExactTime() {
+		return exactTime;
+	}
+
+	public long getApproximateTime() {
+		return approximateTime;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Queries: ");
+		sb.append(queries);
+		sb.append("\n");
+		sb.append("Recall@");
+		sb.append(k);
+		sb.append(" (");
+		if (efSearch > 0) {
+			sb.append("efSearch = ");
+			sb.append(efSearch);
+		}
+		if (efSearch > 0 && nprobe > 0) {
+			sb.append(", ");
+		}
+		if (nprobe > 0) {
+			sb.append("nprobe = ");
+			sb.append(nprobe);
+		}
+		sb.append("): ");
+		sb.append(getRecall());
+		sb.append("\n");
+		sb.append("Exact search time: ");
+		sb.append(exactTime);
+		sb.append("ms\n");
+		sb.append("Approximate search time: ");
+		sb.append(approximateTime);
+		sb.append("ms");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,171 @@
+package pl.wwiizt.vector.model;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Wektor rzadki: posortowane rosnaco numery termow i ich wagi.
+ */
+public class SparseVector {
+
+	public static final SparseVector EMPTY = new SparseVector(new int[0], new float[0]);
+
+	private final int[] ids;
+	private final float[] values;
+
+	public SparseVector(int[] ids, float[] values) {
+		Preconditions.checkNotNull(ids);
+		Preconditions.checkNotNull(values);
+		Preconditions.checkArgument(ids.length == values.length);
+
+		this.ids = ids;
+		this.values = values;
+	}
+
+	public static SparseVector fromDense(double[] dense) {
+		int size = 0;
+		for (double d : dense) {
+			if (d != 0) {
+				size++;
+			}
+		}
+
+		int[] ids = new int[size];
+		float[] values = new float[size];
+		int j = 0;
+		for (int i = 0; i < dense.length; i++) {
+			if (dense[i] != 0) {
+				ids[j] = i;
+				values[j] = (float) dense[i];
+				j++;
+			}
+		}
+
+		return new SparseVector(ids, values);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	public float getValue(int i) {
+		return values[i];
+	}
+
+	public int[] getIds() {
+		return ids;
+	}
+
+	public float[] getValues() {
+		return values;
+	}
+
+	public double[] toDense(int dimensions, double[] target) {
+		if (target == null || target.length != dimensions) {
+			target = new double[dimensions];
+		} else {
+			Arrays.fill(target, 0);
+		}
+
+		for (int i = 0; i < ids.length; i++) {
+			target[ids[i]] = values[i];
+		}
+		return target;
+	}
+
+	public float[] toDenseFloats(int dimensions, float[] target) {
+		if (target == null || target.length != dimensions) {
+			target = new float[dimensions];
+		} else {
+			Arrays.fill(target, 0);
+		}
+
+		for (int i = 0; i < ids.length; i++) {
+			target[ids[i]] = values[i];
+		}
+		return target;
+	}
+
+	public double squaredLength() {
+		double measure = 0;
+		for (float v : values) {
+			measure += (double) v * v;
+		}
+		return measure;
+	}
+
+	public double dot(SparseVector that) {
+		int[] thatIds = that.ids;
+		float[] thatValues = that.values;
+		double result = 0;
+		int i = 0;
+		int j = 0;
+
+		while (i < ids.length && j < thatIds.length) {
+			int a = ids[i];
+			int b = thatIds[j];
+			if (a == b) {
+				result += (double) values[i++] * thatValues[j++];
+			} else if (a < b) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return result;
+	}
+
+	public double squaredDistance(SparseVector that) {
+		int[] thatIds = that.ids;
+		float[] thatValues = that.values;
+		double measure = 0;
+		int i = 0;
+		int j = 0;
+
+		while (i < ids.length || j < thatIds.length) {
+			double diff;
+			if (j == thatIds.length || (i < ids.length && ids[i] < thatIds[j])) {
+				diff = values[i++];
+			} else if (i == ids.length || thatIds[j] < ids[i]) {
+				diff = -thatValues[j++];
+			} else {
+				diff = (double) values[i++] - thatValues[j++];
+			}
+			measure += diff * diff;
+		}
+		return measure;
+	}
+
+	/**
+	 * Jak {@link #squaredDistance(SparseVector)}, ale konczy, gdy suma przekroczy limit (wynik wiekszy od limitu).
+	 */
+	public double squaredDistance(SparseVector that, double limit) {
+		int[] thatIds = that.ids;
+		float[] thatValues = that.values;
+		double measure = 0;
+		int i = 0;
+		int j = 0;
+
+		while (i < ids.length || j < thatIds.length) {
+			double diff;
+			if (j == thatIds.length || (i < ids.length && ids[i] < thatIds[j])) {
+				diff = values[i++];
+			} else if (i == ids.length || thatIds[j] < ids[i]) {
+				diff = -thatValues[j++];
+			} else {
+				diff = (double) values[i++] - thatValues[j++];
+			}
+			measure += diff * diff;
+			if (measure > limit) {
+				return measure;
+			}
+		}
+		return measure;
+	}
+
+}
@@ -0,0 +1,147 @@
+package pl.wwiizt.vector.model;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Slownik termow: term -> gesty numer (0..size-1) oraz numer -> term.
+ * Tablica haszujaca z adresowaniem otwartym (linear probing), w slotach trzymamy tylko numery termow.
+ */
+public class TermDictionary {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final int EMPTY = -1;
+
+	private String[] terms;
+	private int[] hashes;
+	private int[] slots;
+	private int mask;
+	private int size;
+
+	public TermDictionary() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public TermDictionary(int expectedSize) {
+		Preconditions.checkArgument(expectedSize >= 0);
+
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 16) * 2 - 1) << 1;
+		terms = new String[Math.max(expectedSize, 16)];
+		hashes = new int[terms.length];
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		mask = capacity - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Zwraca numer termu, dodajac go na koncu slownika jesli jeszcze go nie ma.
+	 */
+	public int add(String term) {
+		Preconditions.checkNotNull(term);
+
+		int hash = hash(term);
+		int slot = hash & mask;
+
+		while (slots[slot] != EMPTY) {
+			int id = slots[slot];
+			if (hashes[id] == hash && terms[id].equals(term)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == terms.length) {
+			terms = Arrays.copyOf(terms, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+
+		int id = size++;
+		terms[id] = term;
+		hashes[id] = hash;
+		slots[slot] = id;
+
+		if (size * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Numer termu albo -1 jesli termu nie ma w slowniku.
+	 */
+	public int getId(String term) {
+		if (term == null) {
+			return EMPTY;
+		}
+
+		int hash = hash(term);
+		int slot = hash & mask;
+
+		while (slots[slot] != EMPTY) {
+			int id = slots[slot];
+			if (hashes[id] == hash && terms[id].equals(term)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return EMPTY;
+	}
+
+	public String getTerm(int id) {
+		if (id < 0 || id >= size) {
+			return null;
+		}
+		return terms[id];
+	}
+
+	public String[] toArray() {
+		return Arrays.copyOf(terms, size);
+	}
+
+	/**
+	 * Usuwa wszystkie termy, tablice zachowuja pojemnosc.
+	 */
+	public void clear() {
+		Arrays.fill(terms, 0, size, null);
+		Arrays.fill(slots, EMPTY);
+		size = 0;
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		mask = capacity - 1;
+
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (slots[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id;
+		}
+	}
+
+	private static int hash(String term) {
+		return mix(term.hashCode());
+	}
+
+	/**
+	 * String.hashCode ma slabe mlodsze bity, mieszamy jak w MurmurHash3 (fmix32).
+	 */
+	static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+}
@@ -0,0 +1,173 @@
+package pl.wwiizt.vector.model;
+
+import pl.wwizt.vector.distances.Distance;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * K najlepszych par (dokument, ranga) w kopcu na tablicach prymitywow - pamiec O(K) zamiast O(N).
+ * Kolejnosc wyznacza {@link Distance#compareRanks(double, double)} (NaN na koncu), przy remisie wygrywa nizszy numer
+ * dokumentu - tak samo jak stabilne sortowanie calej listy w kolejnosci dokumentow.
+ */
+public class TopKCollector implements DocumentCollector {
+
+	private final Distance distance;
+	private final int k;
+	private final int[] docs;
+	private final double[] ranks;
+	private int size;
+	private boolean sorted;
+
+	public TopKCollector(int k, Distance distance) {
+		Preconditions.checkArgument(k >= 0);
+		Preconditions.checkNotNull(distance);
+
+		this.k = k;
+		this.distance = distance;
+		this.docs = new int[k];
+		this.ranks = new double[k];
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isFull() {
+		return size == k;
+	}
+
+	/**
+	 * Najgorsza ranga w kolektorze - prog, ktory musi pobic nowy dokument (gdy kolektor jest pelny).
+	 */
+	@Override
+	public double getThreshold() {
+		Preconditions.checkState(size > 0);
+		return ranks[0];
+	}
+
+	/**
+	 * Czy dokument o tej randze i numerze trafilby do kolektora.
+	 */
+	public boolean accepts(int doc, double rank) {
+		if (size < k) {
+			return true;
+		}
+		return k > 0 && worse(ranks[0], docs[0], rank, doc);
+	}
+
+	@Override
+	public boolean collect(int doc, double rank) {
+		Preconditions.checkState(!sorted, "Collector already sorted");
+
+		if (size < k) {
+			docs[size] = doc;
+			ranks[size] = rank;
+			siftUp(size++);
+			return true;
+		}
+
+		if (!accepts(doc, rank)) {
+			return false;
+		}
+
+		docs[0] = doc;
+		ranks[0] = rank;
+		siftDown(0);
+		return true;
+	}
+
+	public void merge(TopKCollector other) {
+		for (int i = 0; i < other.size; i++) {
+			collect(other.docs[i], other.ranks[i]);
+		}
+	}
+
+	/**
+	 * Ustawia wyniki od najlepszego. Po tym kolektor nie przyjmuje juz nowych dokumentow.
+	 */
+	public void sort() {
+		if (sorted) {
+			return;
+		}
+
+		// heapsort: najgorszy z korzenia na koniec
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			int n = size;
+			size = end;
+			siftDown(0);
+			size = n;
+		}
+		sorted = true;
+	}
+
+	public int getDoc(int i) {
+		Preconditions.checkState(sorted, "Call sort() first");
+		Preconditions.checkElementIndex(i, size);
+		return docs[i];
+	}
+
+	public double getRank(int i) {
+		Preconditions.checkState(sorted, "Call sort() first");
+		Preconditions.checkElementIndex(i, size);
+		return ranks[i];
+	}
+
+	// a gorsze od b
+	private boolean worse(double rankA, int docA, double rankB, int docB) {
+		int result = distance.compareRanks(rankA, rankB);
+		if (result != 0) {
+			return result > 0;
+		}
+		return docA > docB;
+	}
+
+	private boolean worse(int i, int j) {
+		return worse(ranks[i], docs[i], ranks[j], docs[j]);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(i, parent)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size) {
+				break;
+			}
+			int worst = left;
+			int right = left + 1;
+			if (right < size && worse(right, left)) {
+				worst = right;
+			}
+			if (!worse(worst, i)) {
+				break;
+			}
+			swap(i, worst);
+			i = worst;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int doc = docs[i];
+		docs[i] = docs[j];
+		docs[j] = doc;
+		double rank = ranks[i];
+		ranks[i] = ranks[j];
+		ranks[j] = rank;
+	}
+
+}
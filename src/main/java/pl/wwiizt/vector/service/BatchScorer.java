@@ -0,0 +1,136 @@
+package pl.wwiizt.vector.service;
+
+import java.util.Arrays;
+
+import pl.wwiizt.vector.index.Segment;
+import pl.wwiizt.vector.index.VectorIndex;
+import pl.wwiizt.vector.model.SparseVector;
+import pl.wwiizt.vector.model.TopKCollector;
+import pl.wwizt.vector.distances.Distance;
+import pl.wwizt.vector.distances.EuclidesDistance;
+
+/**
+ * Wiele zapytan liczonych jednym przejsciem po segmencie. Zapytania sa transponowane do macierzy term -> (zapytanie,
+ * waga), a blok wierszy index.bin jest mnozony przez cala macierz naraz (rzadkie A * Q^T) - wiersz dokumentu i listy
+ * zapytan jego termow sa czytane raz na blok, a nie raz na zapytanie. Iloczyny sumowane sa w kolejnosci termow, jak w
+ * {@link SparseVector#dot(SparseVector)}, a ranga liczona przez {@link Distance#fromDotProduct(double, double, double)}.
+ * Dla odleglosci euklidesowej kwadraty dlugosci sumowane sa wprost z wierszy - przy licznosciach calkowitych wynik
+ * jest dokladny i remisy wychodza tak samo jak w skanie.
+ */
+class BatchScorer {
+
+	private static final int BLOCK_SIZE = 64;
+
+	private final int queries;
+	private final double[] queryNorms;
+	private final double[] querySquares;
+	private final int[] termStarts;
+	private final int[] queryIds;
+	private final float[] weights;
+
+	BatchScorer(SparseVector[] vectors) {
+		queries = vectors.length;
+		queryNorms = new double[queries];
+		querySquares = new double[queries];
+
+		int dimensions = 0;
+		int entries = 0;
+		for (int q = 0; q < queries; q++) {
+			SparseVector vector = vectors[q];
+			querySquares[q] = vector.squaredLength();
+			queryNorms[q] = Math.sqrt(querySquares[q]);
+			if (vector.size() > 0) {
+				dimensions = Math.max(dimensions, vector.getId(vector.size() - 1) + 1);
+			}
+			entries += vector.size();
+		}
+
+		termStarts = new int[dimensions + 1];
+		for (SparseVector vector : vectors) {
+			for (int i = 0; i < vector.size(); i++) {
+				termStarts[vector.getId(i) + 1]++;
+			}
+		}
+		for (int t = 0; t < dimensions; t++) {
+			termStarts[t + 1] += termStarts[t];
+		}
+
+		queryIds = new int[entries];
+		weights = new float[entries];
+		int[] next = Arrays.copyOf(termStarts, dimensions);
+		for (int q = 0; q < queries; q++) {
+			SparseVector vector = vectors[q];
+			for (int i = 0; i < vector.size(); i++) {
+				int position = next[vector.getId(i)]++;
+				queryIds[position] = q;
+				weights[position] = vector.getValue(i);
+			}
+		}
+	}
+
+	/**
+	 * @param matchedOnly dokumenty bez wspolnego termu z zapytaniem sa pomijane (jak przy listach odwroconych)
+	 * @param collectors kolektor dla kazdego zapytania
+	 */
+	void score(Segment segment, Distance distance, boolean matchedOnly, TopKCollector[] collectors) {
+		VectorIndex index = segment.getIndex();
+		int documents = index.getDocuments();
+		int base = segment.getBase();
+		int dimensions = termStarts.length - 1;
+		boolean euclides = distance instanceof EuclidesDistance;
+
+		double[] dots = new double[BLOCK_SIZE * queries];
+		double[] squares = new double[BLOCK_SIZE];
+		boolean[] matched = new boolean[BLOCK_SIZE * queries];
+
+		for (int from = 0; from < documents; from += BLOCK_SIZE) {
+			int to = Math.min(documents, from + BLOCK_SIZE);
+			Arrays.fill(dots, 0);
+			Arrays.fill(matched, false);
+
+			for (int doc = from; doc < to; doc++) {
+				if (segment.isDeleted(doc)) {
+					continue;
+				}
+				SparseVector row = index.getVector(doc);
+				if (euclides) {
+					squares[doc - from] = row.squaredLength();
+				}
+
+				int offset = (doc - from) * queries;
+				for (int i = 0; i < row.size(); i++) {
+					int term = row.getId(i);
+					if (term >= dimensions) {
+						break;
+					}
+					double value = row.getValue(i);
+					for (int p = termStarts[term]; p < termStarts[term + 1]; p++) {
+						dots[offset + queryIds[p]] += value * weights[p];
+						matched[offset + queryIds[p]] = true;
+					}
+				}
+			}
+
+			for (int doc = from; doc < to; doc++) {
+				if (segment.isDeleted(doc)) {
+					continue;
+				}
+				double norm = index.getNorm(doc);
+				int offset = (doc - from) * queries;
+				for (int q = 0; q < queries; q++) {
+					if (matchedOnly && !matched[offset + q]) {
+						continue;
+					}
+					double rank;
+					if (euclides) {
+						rank = Math.sqrt(Math.max(0, squares[doc - from] + querySquares[q] - 2 * dots[offset + q]));
+					} else {
+						rank = distance.fromDotProduct(dots[offset + q], norm, queryNorms[q]);
+					}
+					collectors[q].collect(base + doc, rank);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package pl.wwiizt.vector.service;
+
+import java.util.BitSet;
+
+import pl.wwiizt.vector.index.NormOrder;
+import pl.wwiizt.vector.index.Segment;
+import pl.wwiizt.vector.index.VectorIndex;
+import pl.wwiizt.vector.index.VectorIndexFormat;
+import pl.wwiizt.vector.model.DocumentCollector;
+import pl.wwiizt.vector.model.SparseVector;
+import pl.wwizt.vector.distances.VectorKernels;
+
+/**
+ * Odleglosc euklidesowa z odcinaniem wzgledem progu pelnego kolektora. Roznica norm ogranicza odleglosc z dolu
+ * (|q| - |d| <= dist(q, d)), wiec dokument o normie dalszej od normy zapytania niz prog jest pomijany bez czytania
+ * wektora, a suma kwadratow jest przerywana, gdy przekroczy kwadrat progu. Z kolejnoscia norm segmentu (nazwa.nord)
+ * kolektor wypelniaja najpierw dokumenty o normie najblizszej normie zapytania, a gdy okno norm wokol zapytania jest
+ * waskie, przeglad idzie dalej od srodka w obie strony i konczy sie na pierwszym dokumencie poza progiem. Odrzucane
+ * sa tylko dokumenty o odleglosci scisle wiekszej od progu, a przyjete maja odleglosc liczona tak jak przy pelnym
+ * przegladzie, wiec top-K jest identyczne.
+ */
+class EuclideanScorer {
+
+	// zapas na zaokraglenia - roznica norm i prog liczone inna droga niz odleglosc
+	private static final double EPSILON = 1e-9;
+	// przeglad w kolejnosci norm, gdy okno norm obejmuje mniej niz 1 / WINDOW_FRACTION dokumentow
+	private static final int WINDOW_FRACTION = 8;
+
+	private final Segment segment;
+	private final VectorIndex index;
+	private final NormOrder normOrder;
+	private final SparseVector query;
+	private final double queryNorm;
+	private final double[] denseQuery;
+	private final float[] floatQuery;
+
+	private double[] row;
+	private float[] floatRow;
+
+	EuclideanScorer(Segment segment, SparseVector query) {
+		this.segment = segment;
+		this.index = segment.getIndex();
+		this.normOrder = segment.getNormOrder();
+		this.query = query;
+		this.queryNorm = Math.sqrt(query.squaredLength());
+
+		// jak przy pelnym przegladzie: zapytanie moze miec termy spoza starszego segmentu - wtedy tylko postac rzadka
+		int dimensions = index.getDimensions();
+		boolean fits = query.size() == 0 || query.getId(query.size() - 1) < dimensions;
+		boolean dense = index.getLayout() == VectorIndexFormat.DENSE && fits;
+		boolean doubles = index.getValueType() == VectorIndexFormat.FLOAT64;
+		this.denseQuery = dense && doubles ? query.toDense(dimensions, null) : null;
+		this.floatQuery = dense && !doubles ? query.toDenseFloats(dimensions, null) : null;
+	}
+
+	/**
+	 * Przeglada dokumenty from..to - 1 segmentu.
+	 */
+	void score(DocumentCollector collector, int from, int to) {
+		if (from >= to) {
+			return;
+		}
+		if (normOrder == null) {
+			scan(collector, from, to, null);
+			return;
+		}
+
+		// kolektor wypelniaja dokumenty o normie najblizszej normie zapytania
+		int up = normOrder.search(queryNorm);
+		int down = up - 1;
+		BitSet seen = new BitSet();
+		while (!collector.isFull() && (down >= 0 || up < normOrder.getDocuments())) {
+			int position = next(down, up) ? up++ : down--;
+			int doc = normOrder.getDoc(position);
+			if (doc >= from && doc < to) {
+				seen.set(doc - from);
+				collect(doc, getThreshold(collector), collector);
+			}
+		}
+
+		// dalej w kolejnosci norm tylko, gdy okno norm wokol zapytania jest male - odczyt wektorow nie po kolei
+		// kosztuje wiecej niz sprawdzenie normy przy przegladzie po numerach
+		double threshold = getThreshold(collector);
+		long window = normOrder.search(queryNorm + threshold) - normOrder.search(queryNorm - threshold);
+		if (window * WINDOW_FRACTION > normOrder.getDocuments()) {
+			scan(collector, from, to, seen);
+			return;
+		}
+
+		while (down >= 0 || up < normOrder.getDocuments()) {
+			threshold = getThreshold(collector);
+			boolean upward = next(down, up);
+			int position = upward ? up : down;
+			double norm = normOrder.getNorm(position);
+			if (exceeds(Math.abs(norm - queryNorm), threshold, norm)) {
+				// dalsze dokumenty w tym kierunku maja jeszcze wieksza roznice norm
+				if (upward) {
+					up = normOrder.getDocuments();
+				} else {
+					down = -1;
+				}
+				continue;
+			}
+			if (upward) {
+				up++;
+			} else {
+				down--;
+			}
+			int doc = normOrder.getDoc(position);
+			if (doc >= from && doc < to) {
+				collect(doc, threshold, collector);
+			}
+		}
+	}
+
+	// przeglad po numerach dokumentow z pominieciem dokumentow o zbyt odleglej normie i juz ocenionych
+	private void scan(DocumentCollector collector, int from, int to, BitSet seen) {
+		for (int doc = from; doc < to; doc++) {
+			if (seen != null && seen.get(doc - from)) {
+				continue;
+			}
+			double threshold = getThreshold(collector);
+			double norm = index.getNorm(doc);
+			if (!exceeds(Math.abs(queryNorm - norm), threshold, norm)) {
+				collect(doc, threshold, collector);
+			}
+		}
+	}
+
+	// czy nastepna jest pozycja up (norma blizsza normie zapytania)
+	private boolean next(int down, int up) {
+		if (up >= normOrder.getDocuments()) {
+			return false;
+		}
+		return down < 0 || normOrder.getNorm(up) - queryNorm <= queryNorm - normOrder.getNorm(down);
+	}
+
+	private void collect(int doc, double threshold, DocumentCollector collector) {
+		if (segment.isDeleted(doc)) {
+			return;
+		}
+
+		// suma wieksza od limitu daje odleglosc wieksza od progu
+		double limit = threshold * threshold * (1 + EPSILON);
+		double squared;
+		if (denseQuery != null) {
+			row = index.getVector(doc, row);
+			squared = VectorKernels.squaredDistance(row, denseQuery, limit);
+		} else if (floatQuery != null) {
+			floatRow = index.getFloatVector(doc, floatRow);
+			squared = VectorKernels.squaredDistance(floatRow, floatQuery, limit);
+		} else {
+			squared = index.getVector(doc).squaredDistance(query, limit);
+		}
+
+		// NaN trafia do kolektora jak przy pelnym przegladzie
+		if (!(squared > limit)) {
+			collector.collect(segment.getBase() + doc, Math.sqrt(squared));
+		}
+	}
+
+	private boolean exceeds(double bound, double threshold, double norm) {
+		return bound - threshold > EPSILON * (queryNorm + norm);
+	}
+
+	private static double getThreshold(DocumentCollector collector) {
+		if (!collector.isFull() || Double.isNaN(collector.getThreshold())) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return collector.getThreshold();
+	}
+
+}
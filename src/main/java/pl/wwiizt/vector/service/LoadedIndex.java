@@ -0,0 +1,70 @@
+package pl.wwiizt.vector.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import pl.wwiizt.vector.index.SegmentedIndex;
+import pl.wwiizt.vector.model.IndexHeader;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Naglowek (czytany dopiero przy pierwszym zapytaniu tekstowym) i otwarte segmenty jednego katalogu indeksu. Obiekt
+ * trzymany w pamieci przez serwis jest dzielony przez rownolegle wyszukiwania - kazde bierze wlasna referencje, a
+ * segmenty zamyka dopiero zwolnienie ostatniej, wiec podmiana na nowsza wersje nie przerywa trwajacych zapytan.
+ */
+class LoadedIndex implements Closeable {
+
+	private final File headerFile;
+	private final SegmentedIndex index;
+	private IndexHeader header;
+	private final long version;
+	private int references = 1;
+
+	LoadedIndex(File headerFile, SegmentedIndex index, long version) {
+		Preconditions.checkNotNull(headerFile);
+		Preconditions.checkNotNull(index);
+
+		this.headerFile = headerFile;
+		this.index = index;
+		this.version = version;
+	}
+
+	// wyszukiwanie po numerze dokumentu naglowka nie potrzebuje
+	synchronized IndexHeader getHeader() {
+		if (header == null) {
+			header = VectorSearchService.readHeader(headerFile);
+		}
+		return header;
+	}
+
+	SegmentedIndex getIndex() {
+		return index;
+	}
+
+	long getVersion() {
+		return version;
+	}
+
+	synchronized LoadedIndex retain() {
+		Preconditions.checkState(references > 0, "Index already closed");
+
+		references++;
+		return this;
+	}
+
+	/**
+	 * Zwalnia referencje, ostatnia zamyka segmenty.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (--references > 0) {
+				return;
+			}
+		}
+		index.close();
+	}
+
+}
@@ -0,0 +1,329 @@
+package pl.wwiizt.vector.service;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import pl.wwiizt.vector.index.PostingsCursor;
+import pl.wwiizt.vector.index.PostingsIndex;
+import pl.wwiizt.vector.index.Segment;
+import pl.wwiizt.vector.model.DocumentCollector;
+import pl.wwiizt.vector.model.SparseVector;
+
+/**
+ * Podobienstwo kosinusowe z przycinaniem MaxScore, liczone oknami po WINDOW dokumentow. W oknie kazdy term zapytania
+ * ma gorne ograniczenie wkladu: waga w zapytaniu * maksimum waga / norma z blokow index.post, ktore zachodza na okno.
+ * Termy sa sortowane wedlug ograniczen, a te o najmniejszych, ktorych suma nie pobija progu kolektora, nie podaja
+ * kandydatow - czytane sa tylko pozostale listy. Termy pomijane sa dodawane od najwiekszego ograniczenia, kursor
+ * przeskakuje wprost na kandydatow, a kandydaci, ktorzy z ograniczeniem reszty nie pobija progu, odpadaja. Odrzucone
+ * dokumenty i tak nie weszlyby do wyniku, a przyjete maja sume w kolejnosci termow zapytania, wiec top-K jest identyczne
+ * z pelnym przegladem.
+ */
+class MaxScoreScorer {
+
+	private static final int WINDOW = 1 << 12;
+	// minimalna czesc wpisow termow pomijanych (1/MIN_SKIPPED), od ktorej oplaca sie przycinanie w oknie
+	private static final int MIN_SKIPPED = 4;
+
+	// zapas na zaokraglenia - ograniczenia liczone inna droga niz dokladny wynik
+	private static final double EPSILON = 1e-9;
+
+	private static final Comparator<Term> BY_BOUND = new Comparator<Term>() {
+
+		@Override
+		public int compare(Term o1, Term o2) {
+			return Double.compare(o1.bound, o2.bound);
+		}
+
+	};
+
+	private final Segment segment;
+	private final PostingsIndex postings;
+
+	private int[] docs;
+	private float[] weights;
+
+	MaxScoreScorer(Segment segment) {
+		this.segment = segment;
+		this.postings = segment.getPostings();
+	}
+
+	/**
+	 * Czy przycinanie jest mozliwe. Ograniczenia sa poprawne tylko dla nieujemnych wag zapytania, a segment mniejszy od
+	 * okna i tak przeglada sie szybko. Dlugosc zapytania nie ma znaczenia - okna, w ktorych przycinanie sie nie oplaca,
+	 * sa liczone jak term po termie.
+	 */
+	static boolean canScore(PostingsIndex postings, SparseVector query) {
+		if (!postings.hasBounds() || postings.getDocuments() < WINDOW) {
+			return false;
+		}
+		for (int i = 0; i < query.size(); i++) {
+			if (query.getValue(i) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void score(SparseVector query, DocumentCollector collector) {
+		double queryNorm = Math.sqrt(query.squaredLength());
+		// termy w kolejnosci zapytania i osobno wedlug ograniczen w oknie
+		Term[] terms = new Term[query.size()];
+		int size = 0;
+		for (int i = 0; i < query.size(); i++) {
+			PostingsCursor cursor = postings.cursor(query.getId(i));
+			if (cursor.getLength() > 0) {
+				cursor.next();
+				terms[size++] = new Term(query.getId(i), query.getValue(i), cursor);
+			}
+		}
+		terms = Arrays.copyOf(terms, size);
+
+		// prog z poprzednich segmentow moze wykluczyc caly segment
+		double bound = 0;
+		for (Term term : terms) {
+			bound += term.weight * postings.getMaxWeight(term.id) / queryNorm;
+		}
+		if (bound + EPSILON < getThreshold(collector)) {
+			return;
+		}
+
+		Term[] sorted = terms.clone();
+		double[] bounds = new double[size + 1];
+
+		int documents = postings.getDocuments();
+		int window = Math.min(WINDOW, documents);
+		double[] dots = new double[window];
+		long[] matched = new long[(window + 63) / 64];
+		int[] candidates = new int[window];
+		double[] scores = new double[window];
+		double[] norms = new double[window];
+		// suma termow niepomijanych, dokladna dopoki kandydat nie ma zadnego termu pomijanego
+		double[] partial = new double[window];
+		boolean[] found = new boolean[window];
+		// numer kandydata dokumentu okna, -1 gdy nim nie jest
+		int[] slots = new int[window];
+		Arrays.fill(slots, -1);
+		// wpisy termow w oknie, kolejno term po termie
+		docs = new int[window];
+		weights = new float[window];
+
+		for (int from = 0; from < documents; from += window) {
+			int to = Math.min(from + window, documents) - 1;
+			double threshold = getThreshold(collector);
+
+			for (Term term : terms) {
+				term.bound = term.cursor.doc() > to ? 0 : term.weight * term.cursor.getMaxWeight(from, to) / queryNorm;
+				term.start = 0;
+				term.end = 0;
+			}
+			Arrays.sort(sorted, BY_BOUND);
+			// bounds[i] - suma ograniczen termow sorted[0..i-1]
+			for (int i = 0; i < size; i++) {
+				bounds[i + 1] = bounds[i] + sorted[i].bound;
+			}
+			if (bounds[size] + EPSILON < threshold) {
+				continue;
+			}
+			int essential = 0;
+			while (essential < size && bounds[essential + 1] + EPSILON < threshold) {
+				essential++;
+			}
+			// gdy termy pomijane maja malo wpisow, kandydaci kosztuja wiecej niz pominiete listy - okno jak term po termie
+			long skipped = 0;
+			long all = 0;
+			for (int i = 0; i < size; i++) {
+				all += sorted[i].cursor.getLength();
+				if (i < essential) {
+					skipped += sorted[i].cursor.getLength();
+				}
+			}
+			if (skipped * MIN_SKIPPED < all) {
+				essential = 0;
+			}
+			for (int i = 0; i < size; i++) {
+				sorted[i].essential = i >= essential;
+			}
+
+			// w kolejnosci zapytania - bez termow pomijanych suma jest dokladna
+			int length = 0;
+			for (Term term : terms) {
+				if (!term.essential) {
+					continue;
+				}
+				length = read(term, from, to, length);
+				for (int j = term.start; j < term.end; j++) {
+					int i = docs[j] - from;
+					dots[i] += term.weight * weights[j];
+					matched[i >>> 6] |= 1L << i;
+				}
+			}
+
+			// kandydaci, ktorzy z ograniczeniami termow pomijanych moga pobic prog
+			int count = 0;
+			for (int word = 0; word < matched.length; word++) {
+				while (matched[word] != 0) {
+					int i = word * 64 + Long.numberOfTrailingZeros(matched[word]);
+					matched[word] &= matched[word] - 1;
+					double dot = dots[i];
+					dots[i] = 0;
+
+					int doc = from + i;
+					double norm = postings.getNorm(doc) * queryNorm;
+					if (essential > 0 && dot / norm + bounds[essential] + EPSILON < threshold
+							|| segment.isDeleted(postings.getDocumentId(doc))) {
+						continue;
+					}
+					if (essential == 0) {
+						collector.collect(segment.getBase() + postings.getDocumentId(doc), dot / norm);
+					} else {
+						slots[i] = count;
+						candidates[count] = doc;
+						scores[count] = dot / norm;
+						norms[count] = norm;
+						partial[count] = dot;
+						found[count] = false;
+						count++;
+					}
+				}
+			}
+
+			// termy pomijane od najwiekszego ograniczenia, dopoki zostaja kandydaci; przejscie po kandydatach kosztuje, wiec
+			// odsiew dopiero gdy ograniczenie reszty termow spadnie o polowe
+			double filtered = bounds[essential];
+			for (int t = essential - 1; t >= 0 && count > 0; t--) {
+				Term term = sorted[t];
+				if (count < (long) term.cursor.getLength() * (to - from + 1) / documents) {
+					length = seek(term, candidates, count, from, to, length);
+				} else {
+					length = read(term, from, to, length);
+				}
+				for (int j = term.start; j < term.end; j++) {
+					int c = slots[docs[j] - from];
+					if (c >= 0) {
+						scores[c] += term.weight * weights[j] / norms[c];
+						found[c] = true;
+					}
+				}
+
+				if (t == 0 || bounds[t] <= filtered / 2) {
+					filtered = bounds[t];
+					int kept = 0;
+					for (int c = 0; c < count; c++) {
+						int doc = candidates[c];
+						if (scores[c] + bounds[t] + EPSILON >= threshold) {
+							candidates[kept] = doc;
+							scores[kept] = scores[c];
+							norms[kept] = norms[c];
+							partial[kept] = partial[c];
+							found[kept] = found[c];
+							slots[doc - from] = kept++;
+						} else {
+							slots[doc - from] = -1;
+						}
+					}
+					count = kept;
+				}
+			}
+
+			for (int c = 0; c < count; c++) {
+				int doc = candidates[c];
+				slots[doc - from] = -1;
+				double dot = found[c] ? getDot(terms, doc) : partial[c];
+				collector.collect(segment.getBase() + postings.getDocumentId(doc), dot / norms[c]);
+			}
+		}
+	}
+
+	/**
+	 * Czyta wpisy termu z okna [from, to] do docs i weights od pozycji length.
+	 * @return pozycja za wczytanymi wpisami
+	 */
+	private int read(Term term, int from, int to, int length) {
+		term.start = length;
+		term.end = length;
+		term.pointer = length;
+		if (term.cursor.advance(from) > to) {
+			return length;
+		}
+		ensureCapacity(length + to - from + 1);
+		term.end = length + term.cursor.copyTo(to, docs, weights, length);
+		return term.end;
+	}
+
+	/**
+	 * Jak {@link #read(Term, int, int, int)}, ale tylko wpisy kandydatow - kursor przeskakuje do kolejnych kandydatow i
+	 * nie czyta blokow miedzy nimi.
+	 */
+	private int seek(Term term, int[] candidates, int count, int from, int to, int length) {
+		term.start = length;
+		term.end = length;
+		term.pointer = length;
+		if (term.cursor.advance(from) > to) {
+			return length;
+		}
+		ensureCapacity(length + count);
+		for (int c = 0; c < count; c++) {
+			int doc = candidates[c];
+			if (term.cursor.advance(doc) == doc) {
+				docs[term.end] = doc;
+				weights[term.end] = term.cursor.weight();
+				term.end++;
+			}
+		}
+		return term.end;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (docs.length < capacity) {
+			docs = Arrays.copyOf(docs, Math.max(docs.length * 2, capacity));
+			weights = Arrays.copyOf(weights, docs.length);
+		}
+	}
+
+	// suma po termach w kolejnosci zapytania, jak w TermAtATimeScorer; dokumenty ida rosnaco, wiec pozycje we wpisach
+	// termow tylko rosna
+	private double getDot(Term[] terms, int doc) {
+		double dot = 0;
+		for (Term term : terms) {
+			if (term.pointer >= term.end) {
+				continue;
+			}
+			int j = Arrays.binarySearch(docs, term.pointer, term.end, doc);
+			if (j >= 0) {
+				dot += term.weight * weights[j];
+				term.pointer = j + 1;
+			} else {
+				term.pointer = -j - 1;
+			}
+		}
+		return dot;
+	}
+
+	private double getThreshold(DocumentCollector collector) {
+		if (!collector.isFull() || Double.isNaN(collector.getThreshold())) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return collector.getThreshold();
+	}
+
+	private static class Term {
+
+		private final int id;
+		private final double weight;
+		private final PostingsCursor cursor;
+		private double bound;
+		private boolean essential;
+		// wpisy w oknie: docs[start..end-1], pointer - pierwszy nieprzejrzany
+		private int start;
+		private int end;
+		private int pointer;
+
+		Term(int id, double weight, PostingsCursor cursor) {
+			this.id = id;
+			this.weight = weight;
+			this.cursor = cursor;
+		}
+
+	}
+
+}
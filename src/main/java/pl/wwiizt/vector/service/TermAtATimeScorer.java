@@ -0,0 +1,112 @@
+package pl.wwiizt.vector.service;
+
+import java.util.Arrays;
+
+import pl.wwiizt.vector.index.PostingsIndex;
+import pl.wwiizt.vector.model.SparseVector;
+
+/**
+ * Podobienstwo kosinusowe liczone term po termie z list odwroconych. Dotyka tylko dokumentow, ktore maja choc jeden
+ * wspolny term z zapytaniem. Termy zapytania ida rosnaco, wiec sumy sa liczone w tej samej kolejnosci co
+ * {@link SparseVector#dot(SparseVector)} i wynik jest identyczny z pelnym przegladem.
+ */
+class TermAtATimeScorer {
+
+	// akumulatory watku, rosna do najwiekszego segmentu - zapytanie zeruje po sobie tylko dotkniete dokumenty
+	private static final ThreadLocal<Accumulators> ACCUMULATORS = new ThreadLocal<Accumulators>() {
+		@Override
+		protected Accumulators initialValue() {
+			return new Accumulators();
+		}
+	};
+
+	private final PostingsIndex postings;
+
+	private int[] touched;
+	private double[] scores;
+	private int size;
+
+	TermAtATimeScorer(PostingsIndex postings) {
+		this.postings = postings;
+	}
+
+	void score(SparseVector query) {
+		Accumulators accumulators = ACCUMULATORS.get();
+		accumulators.ensureCapacity(postings.getDocuments());
+		touched = new int[16];
+		size = 0;
+
+		try {
+			accumulate(query, accumulators.values, accumulators.seen);
+
+			double queryNorm = Math.sqrt(query.squaredLength());
+			scores = new double[size];
+			for (int i = 0; i < size; i++) {
+				int doc = touched[i];
+				scores[i] = accumulators.values[doc] / (postings.getNorm(doc) * queryNorm);
+			}
+		} finally {
+			accumulators.reset(touched, size);
+		}
+	}
+
+	private void accumulate(SparseVector query, double[] accumulators, boolean[] seen) {
+		int maxLength = 0;
+		for (int i = 0; i < query.size(); i++) {
+			maxLength = Math.max(maxLength, postings.getDocumentFrequency(query.getId(i)));
+		}
+		int[] docs = new int[maxLength];
+		float[] weights = new float[maxLength];
+
+		for (int i = 0; i < query.size(); i++) {
+			double weight = query.getValue(i);
+			int length = postings.readPostings(query.getId(i), docs, weights);
+
+			for (int j = 0; j < length; j++) {
+				int doc = docs[j];
+				accumulators[doc] += weight * weights[j];
+				if (!seen[doc]) {
+					seen[doc] = true;
+					if (size == touched.length) {
+						touched = Arrays.copyOf(touched, size * 2);
+					}
+					touched[size++] = doc;
+				}
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getDoc(int i) {
+		return touched[i];
+	}
+
+	double getScore(int i) {
+		return scores[i];
+	}
+
+	private static class Accumulators {
+
+		private double[] values = new double[0];
+		private boolean[] seen = new boolean[0];
+
+		void ensureCapacity(int documents) {
+			if (values.length < documents) {
+				values = new double[documents];
+				seen = new boolean[documents];
+			}
+		}
+
+		void reset(int[] docs, int size) {
+			for (int i = 0; i < size; i++) {
+				values[docs[i]] = 0;
+				seen[docs[i]] = false;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package pl.wwiizt.vector.service;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import pl.wwiizt.vector.model.TermDictionary;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Termy jednego dokumentu z lokalnymi numerami - wynik pracy watku indeksujacego. Numery w globalnym slowniku nadaje
+ * dopiero watek glowny, w kolejnosci plikow, wiec wynik nie zalezy od tego ktory watek skonczyl pierwszy.
+ */
+class TokenizedDocument {
+
+	private final String path;
+	private final String[] terms;
+	private final int[] counts;
+	private final BitSet headerTerms;
+
+	private TokenizedDocument(String path, String[] terms, int[] counts, BitSet headerTerms) {
+		this.path = path;
+		this.terms = terms;
+		this.counts = counts;
+		this.headerTerms = headerTerms;
+	}
+
+	/**
+	 * @param plainText pelny tekst - z niego liczone sa wystapienia
+	 * @param filteredText tekst po stop liscie - jego termy trafiaja do naglowka
+	 */
+	static TokenizedDocument tokenize(String path, String plainText, String filteredText) {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(plainText);
+		Preconditions.checkNotNull(filteredText);
+
+		TermDictionary dictionary = new TermDictionary(64);
+		BitSet headerTerms = new BitSet();
+		for (String token : filteredText.split(" ")) {
+			headerTerms.set(dictionary.add(token));
+		}
+
+		int[] counts = new int[64];
+		for (String token : plainText.split(" ")) {
+			int id = dictionary.add(token);
+			if (id >= counts.length) {
+				counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+			}
+			counts[id]++;
+		}
+
+		int size = dictionary.size();
+		return new TokenizedDocument(path, dictionary.toArray(), Arrays.copyOf(counts, size), headerTerms);
+	}
+
+	String getPath() {
+		return path;
+	}
+
+	int size() {
+		return terms.length;
+	}
+
+	String getTerm(int i) {
+		return terms[i];
+	}
+
+	/**
+	 * Liczba wystapien w pelnym tekscie, moze byc 0 dla termu, ktory jest tylko w tekscie po stop liscie.
+	 */
+	int getCount(int i) {
+		return counts[i];
+	}
+
+	boolean isHeaderTerm(int i) {
+		return headerTerms.get(i);
+	}
+
+}
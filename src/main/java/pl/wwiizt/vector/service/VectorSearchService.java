@@ -5,110 +5,518 @@ import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import pl.wwiizt.ccl.model.ChunkList;
 import pl.wwiizt.ccl.service.CclService;
 import pl.wwiizt.main.Main;
+import pl.wwiizt.vector.model.DocumentCollector;
+import pl.wwiizt.vector.model.HashingVectorizer;
 import pl.wwiizt.vector.model.Hint;
+import pl.wwiizt.vector.model.HintListener;
 import pl.wwiizt.vector.model.IndexHeader;
 import pl.wwiizt.vector.model.IndexRecord;
+import pl.wwiizt.vector.model.RangeCollector;
+import pl.wwiizt.vector.model.RecallReport;
+import pl.wwiizt.vector.model.SparseVector;
+import pl.wwiizt.vector.model.TermDictionary;
+import pl.wwiizt.vector.model.TopKCollector;
+import pl.wwiizt.vector.index.DeletedDocuments;
+import pl.wwiizt.vector.index.DocumentOrder;
+import pl.wwiizt.vector.index.HnswBuilder;
+import pl.wwiizt.vector.index.HnswFormat;
+import pl.wwiizt.vector.index.IvfBuilder;
+import pl.wwiizt.vector.index.IvfFormat;
+import pl.wwiizt.vector.index.IvfIndex;
+import pl.wwiizt.vector.index.LsaBuilder;
+import pl.wwiizt.vector.index.LsaFormat;
+import pl.wwiizt.vector.index.LsaIndex;
+import pl.wwiizt.vector.index.NeighbourGraph;
+import pl.wwiizt.vector.index.NormOrder;
+import pl.wwiizt.vector.index.PostingsFormat;
+import pl.wwiizt.vector.index.PostingsIndex;
+import pl.wwiizt.vector.index.PostingsWriter;
+import pl.wwiizt.vector.index.QuantizedBuilder;
+import pl.wwiizt.vector.index.QuantizedFormat;
+import pl.wwiizt.vector.index.QuantizedIndex;
+import pl.wwiizt.vector.index.Segment;
+import pl.wwiizt.vector.index.SegmentedIndex;
+import pl.wwiizt.vector.index.Segments;
+import pl.wwiizt.vector.index.TermCountsSpill;
+import pl.wwiizt.vector.index.VectorIndex;
+import pl.wwiizt.vector.index.VectorIndexFormat;
+import pl.wwiizt.vector.index.VectorIndexWriter;
+import pl.wwiizt.vector.index.VocabularyRuns;
 import pl.wwiizt.wordnet.WordnetJDBC;
+import pl.wwizt.vector.distances.CosineDistance;
 import pl.wwizt.vector.distances.Distance;
+import pl.wwizt.vector.distances.EuclidesDistance;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 @Service
 public class VectorSearchService {
 
 	private static final Logger LOGGER = Logger.getLogger(VectorSearchService.class);
 
+	private static final String SPILL_FILE_NAME = "index.spill";
+	private static final String HEADER_FILE_NAME = "header.csv";
+
+	// po przekroczeniu tej liczby segmentow dodanie dokumentow uruchamia laczenie w tle
+	private static final int MAX_SEGMENTS = 10;
+	// tyle kolejnych dokumentow liczy naraz watek szukajacy sasiadow
+	private static final int NEIGHBOURS_BATCH = 256;
+
 	@Autowired
 	private CclService cclService;
 
+	// zmiany listy segmentow i plikow .del (dodanie, usuniecie, koniec laczenia) oraz podmiany plikow pochodnych ida po
+	// kolei - same budowy plikow pochodnych ida bez blokady
+	private final Object segmentsLock = new Object();
+
+	private final ThreadPoolExecutor mergeExecutor = createExecutor(1);
+
+	// wspolne watki rownoleglego przegladu, indeksowania i liczenia sasiadow - parametr threads metod to liczba czesci
+	// pracy, a naraz liczy sie ich tyle, ile watkow ma pula
+	private final ThreadPoolExecutor workers = createExecutor(Runtime.getRuntime().availableProcessors());
+
+	// indeksy trzymane w pamieci miedzy wyszukiwaniami (tryb serwera), klucz to katalog bezwzgledny
+	private final Map<File, LoadedIndex> loadedIndexes = Maps.newHashMap();
+
+	/**
+	 * Rozmiar wspolnej puli watkow (vector.threads w conf/ctx.properties), 0 - liczba procesorow.
+	 */
+	@Value("${vector.threads:0}")
+	public void setWorkerThreads(int threads) {
+		Preconditions.checkArgument(threads >= 0);
+
+		int size = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+		if (size > workers.getMaximumPoolSize()) {
+			workers.setMaximumPoolSize(size);
+			workers.setCorePoolSize(size);
+		} else {
+			workers.setCorePoolSize(size);
+			workers.setMaximumPoolSize(size);
+		}
+	}
+
+	/**
+	 * Zatrzymuje watki serwisu przy zamykaniu kontekstu. Rozpoczete laczenie segmentow konczy sie normalnie.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		workers.shutdownNow();
+		mergeExecutor.shutdown();
+	}
+
 	public void index(File dir, String indexName, Set<String> stopList, boolean tfidf) {
+		index(dir, indexName, stopList, tfidf, VectorIndexFormat.FLOAT32);
+	}
+
+	public void index(File dir, String indexName, Set<String> stopList, boolean tfidf, int valueType) {
+		index(dir, indexName, stopList, tfidf, valueType, Runtime.getRuntime().availableProcessors());
+	}
+
+	public void index(File dir, String indexName, Set<String> stopList, boolean tfidf, int valueType, int threads) {
+		index(dir, indexName, stopList, tfidf, valueType, threads, Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Jeden przebieg po XML-ach: tokeny dostaja numery w locie, liczby wystapien ida do pliku tymczasowego. Potem
+	 * numery sa przestawiane na kolejnosc alfabetyczna (jak w header.csv) i zapisywane sa wektory.
+	 * Parsowanie XML-i i tokenizacja ida rownolegle na threads watkach, slownik i plik tymczasowy sa uzupelniane w
+	 * kolejnosci plikow, wiec indeks jest taki sam niezaleznie od liczby watkow.
+	 * Slownik w pamieci ma ograniczony rozmiar ({@link VocabularyRuns}) - po zapelnieniu idzie na dysk jako
+	 * posortowany przebieg, a header.csv powstaje z laczenia przebiegow, wiec korpus moze miec slownik wiekszy niz
+	 * sterta. Wynik nie zalezy od vocabularyMemory.
+	 * Pelne indeksowanie zastepuje wszystkie segmenty jednym segmentem "index".
+	 * @param vocabularyMemory pamiec (w bajtach) na slownik jednego przebiegu
+	 */
+	public void index(File dir, String indexName, Set<String> stopList, boolean tfidf, int valueType, int threads, long vocabularyMemory) {
 		Preconditions.checkNotNull(dir);
+		Preconditions.checkArgument(threads > 0);
+
+		if (!dir.isDirectory()) {
+			return;
+		}
+		File[] files = dir.listFiles(new XmlFileFilter());
+		if (files == null) {
+			return;
+		}
 
-		String pathToIndexDir = dir.getAbsolutePath() + File.separator + indexName + File.separator;
+		File indexDir = new File(dir.getAbsolutePath() + File.separator + indexName);
+		File spillFile = new File(indexDir, SPILL_FILE_NAME);
 
 		long time = System.currentTimeMillis();
 
-		LOGGER.info("Building header");
+		LOGGER.info("Reading documents");
 
-		IndexHeader header = new IndexHeader();
+		int runTerms = VocabularyRuns.getRunTerms(vocabularyMemory);
+		try (VocabularyRuns runs = new VocabularyRuns(indexDir, runTerms)) {
+			if (!readDocuments(files, stopList, threads, new TermDictionary(Math.min(runTerms, 1 << 16)), new BitSet(), spillFile, null, runs)) {
+				return;
+			}
 
-		if (dir.isDirectory()) {
-			File[] files = dir.listFiles(new XmlFileFilter());
+			if (LOGGER.isInfoEnabled())
+				LOGGER.info("Documents read, " + runs.getRuns() + " vocabulary runs. Time = " + (System.currentTimeMillis() - time) + "ms");
 
-			if (files != null) {
+			time = System.currentTimeMillis();
 
-				for (File file : files) {
-					ChunkList cl = cclService.loadFile(file);
+			int dimensions;
+			try (FileWriter fw = new FileWriter(new File(indexDir, HEADER_FILE_NAME))) {
+				dimensions = runs.merge(fw);
+			} catch (IOException e) {
+				LOGGER.error("[index]", e);
+				spillFile.delete();
+				return;
+			}
 
-					if (cl != null) {
-						String plainText = cl.getBasePlainText();
-						plainText = filterStopList(plainText, stopList);
-						
-						String[] tokens = plainText.split(" ");
-						
-						for (String token : tokens) {
-							header.addHeader(token);
-						}
-					}
+			resetSegments(indexDir);
+
+			File indexFile = new File(indexDir, VectorIndexFormat.FILE_NAME);
+			writeVectors(spillFile, null, runs, dimensions, tfidf, valueType, indexFile);
+
+			if (LOGGER.isInfoEnabled())
+				LOGGER.info("Files indexed. Time = " + (System.currentTimeMillis() - time) + "ms");
+
+			writePostings(indexFile, new File(indexDir, PostingsFormat.FILE_NAME), Segments.getFile(indexDir, Segments.DEFAULT_SEGMENT, NormOrder.EXTENSION));
+		}
+	}
+
+	/**
+	 * Dopisuje dokumenty do istniejacego indeksu jako nowy, niezmienny segment - koszt zalezy od liczby nowych
+	 * dokumentow, nie od wielkosci indeksu. Nowe termy sa dopisywane na koncu header.csv, wiec numery termow w starszych
+	 * segmentach sie nie zmieniaja. Dokument o tej samej sciezce w starszym segmencie jest oznaczany jako usuniety.
+	 */
+	public void add(File indexDir, File[] files, Set<String> stopList, boolean tfidf, int valueType, int threads) {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(files);
+		Preconditions.checkArgument(threads > 0);
+
+		long time = System.currentTimeMillis();
+
+		File headerFile = new File(indexDir, HEADER_FILE_NAME);
+		File spillFile = new File(indexDir, SPILL_FILE_NAME);
+		int segmentCount;
+
+		synchronized (segmentsLock) {
+			IndexHeader header = headerFile.exists() ? readHeader(headerFile) : new IndexHeader();
+			int existing = header.size();
+
+			TermDictionary dictionary = new TermDictionary(existing + 1024);
+			for (int i = 0; i < existing; i++) {
+				dictionary.add(header.getHeaderString(i));
+			}
+			BitSet headerTerms = new BitSet();
+			headerTerms.set(0, existing);
+
+			Set<String> paths = Sets.newHashSet();
+			if (!readDocuments(files, stopList, threads, dictionary, headerTerms, spillFile, paths, null)) {
+				return;
+			}
+
+			int[] remap = new int[dictionary.size()];
+			String[] newTerms = remapTerms(dictionary, headerTerms, existing, remap);
+
+			try {
+				List<String> segments = Segments.read(indexDir);
+				String name = Segments.newSegmentName(indexDir, segments);
+				File indexFile = Segments.getFile(indexDir, name, VectorIndexFormat.EXTENSION);
+
+				if (!writeVectors(spillFile, remap, null, existing + newTerms.length, tfidf, valueType, indexFile)) {
+					Segments.deleteFiles(indexDir, name);
+					return;
 				}
-				try (FileWriter fw = new FileWriter(new File(pathToIndexDir + "header.csv"))) {
-					fw.write(header.toString());
-					fw.flush();
-				} catch (IOException e) {
-					LOGGER.error("[index]", e);
+				writePostings(indexFile, Segments.getFile(indexDir, name, PostingsFormat.EXTENSION), Segments.getFile(indexDir, name, NormOrder.EXTENSION));
+
+				try (FileWriter fw = new FileWriter(headerFile, true)) {
+					for (String term : newTerms) {
+						fw.write(term);
+						fw.write("\n");
+					}
 				}
 
+				// najpierw nowy segment na liscie, potem usuniecie starych wersji - po awarii najwyzej zostaja duplikaty
+				List<String> older = Lists.newArrayList(segments);
+				segments.add(name);
+				Segments.write(indexDir, segments);
+				segmentCount = segments.size();
+
+				int replaced = deleteDocuments(indexDir, older, paths);
+
 				if (LOGGER.isInfoEnabled())
-					LOGGER.info("Header build. Time = " + (System.currentTimeMillis() - time) + "ms");
+					LOGGER.info("Segment " + name + " added, " + paths.size() + " documents (" + replaced + " replaced), "
+							+ newTerms.length + " new terms. Time = " + (System.currentTimeMillis() - time) + "ms");
+			} catch (IOException e) {
+				LOGGER.error("[add]", e);
+				return;
 			}
 		}
 
-		time = System.currentTimeMillis();
+		if (segmentCount > MAX_SEGMENTS) {
+			mergeSegmentsInBackground(indexDir, tfidf);
+		}
+	}
 
-		if (dir.isDirectory()) {
-			File[] files = dir.listFiles(new XmlFileFilter());
-			if (files != null) {
+	/**
+	 * Oznacza dokument jako usuniety we wszystkich segmentach. Zwraca liczbe usunietych dokumentow.
+	 */
+	public int delete(File indexDir, String path) {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(path);
+
+		synchronized (segmentsLock) {
+			try {
+				return deleteDocuments(indexDir, Segments.read(indexDir), Collections.singleton(new File(path).getAbsolutePath()));
+			} catch (IOException e) {
+				LOGGER.error("[delete]", e);
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Laczy wszystkie segmenty w jeden, bez usunietych dokumentow, z wymiarem aktualnego header.csv. W trakcie mozna
+	 * dodawac i usuwac dokumenty: usuniecia z czasu laczenia sa przenoszone na nowy segment, a segmenty dodane w tym
+	 * czasie zostaja na liscie za nim.
+	 */
+	public void mergeSegments(File indexDir, boolean tfidf) {
+		Preconditions.checkNotNull(indexDir);
+
+		long time = System.currentTimeMillis();
+
+		List<String> merged;
+		String name;
+		int dimensions;
+
+		synchronized (segmentsLock) {
+			try {
+				merged = Segments.read(indexDir);
+				if (merged.isEmpty() || merged.size() == 1
+						&& !Segments.getFile(indexDir, merged.get(0), DeletedDocuments.EXTENSION).exists()) {
+					return;
+				}
+
+				dimensions = readHeader(new File(indexDir, HEADER_FILE_NAME)).size();
+				name = Segments.newSegmentName(indexDir, merged);
+				// rezerwuje nazwe przed rownoleglym add
+				Segments.getFile(indexDir, name, VectorIndexFormat.EXTENSION).createNewFile();
+			} catch (IOException e) {
+				LOGGER.error("[mergeSegments]", e);
+				return;
+			}
+		}
+
+		File indexFile = Segments.getFile(indexDir, name, VectorIndexFormat.EXTENSION);
+		int[][] docMaps = new int[merged.size()][];
+		int documents;
+
+		try (SegmentedIndex index = SegmentedIndex.open(indexDir, merged);
+				VectorIndexWriter writer = createWriter(indexFile, dimensions, index.getSegments().get(0).getIndex().getValueType())) {
+			for (int s = 0; s < merged.size(); s++) {
+				Segment segment = index.getSegments().get(s);
+				int segmentDimensions = segment.getIndex().getDimensions();
+				docMaps[s] = new int[segment.getDocuments()];
+
+				for (int doc = 0; doc < segment.getDocuments(); doc++) {
+					if (segment.isDeleted(doc)) {
+						docMaps[s][doc] = -1;
+						continue;
+					}
+
+					SparseVector vector = segment.getIndex().getVector(doc);
+					if (!tfidf && segmentDimensions != dimensions) {
+						vector = rescale(vector, segmentDimensions, dimensions);
+					}
+					docMaps[s][doc] = writer.getDocuments();
+					writer.add(segment.getIndex().getPath(doc), vector);
+				}
+			}
+			documents = writer.getDocuments();
+		} catch (IOException e) {
+			LOGGER.error("[mergeSegments]", e);
+			Segments.deleteFiles(indexDir, name);
+			return;
+		}
+
+		writePostings(indexFile, Segments.getFile(indexDir, name, PostingsFormat.EXTENSION), Segments.getFile(indexDir, name, NormOrder.EXTENSION));
 
-				try (FileWriter fw = new FileWriter(new File(pathToIndexDir + "index.csv"))) {
-					for (File file : files) {
-						ChunkList cl = cclService.loadFile(file);
+		synchronized (segmentsLock) {
+			try {
+				List<String> current = Segments.read(indexDir);
+				if (!current.containsAll(merged)) {
+					// indeks zostal w tym czasie przebudowany albo polaczony
+					Segments.deleteFiles(indexDir, name);
+					return;
+				}
 
-						if (cl != null) {
-							IndexRecord ir = new IndexRecord();
-							ir.parseFromFile(file.getAbsolutePath(), cl.getBasePlainText(), header, tfidf);
-							fw.write(ir.toString());
-							fw.write("\n");
+				DeletedDocuments deleted = new DeletedDocuments(documents);
+				for (int s = 0; s < merged.size(); s++) {
+					File deletedFile = Segments.getFile(indexDir, merged.get(s), DeletedDocuments.EXTENSION);
+					DeletedDocuments now = DeletedDocuments.load(deletedFile, docMaps[s].length);
+					for (int doc = 0; doc < docMaps[s].length; doc++) {
+						if (docMaps[s][doc] != -1 && now.isDeleted(doc)) {
+							deleted.delete(docMaps[s][doc]);
 						}
 					}
+				}
+				if (deleted.getDeletedCount() > 0) {
+					deleted.write(Segments.getFile(indexDir, name, DeletedDocuments.EXTENSION));
+				}
 
-					fw.flush();
-				} catch (IOException e) {
-					LOGGER.error("[index]", e);
+				List<String> segments = Lists.newArrayList();
+				for (String segment : current) {
+					if (!merged.contains(segment)) {
+						segments.add(segment);
+					} else if (!segments.contains(name)) {
+						segments.add(name);
+					}
 				}
+				Segments.write(indexDir, segments);
 
-				if (LOGGER.isInfoEnabled())
-					LOGGER.info("Files indexed. Time = " + (System.currentTimeMillis() - time) + "ms");
+				for (String segment : merged) {
+					Segments.deleteFiles(indexDir, segment);
+				}
+			} catch (IOException e) {
+				LOGGER.error("[mergeSegments]", e);
+				return;
+			}
+		}
+
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info(merged.size() + " segments merged into " + name + ", " + documents + " documents. Time = "
+					+ (System.currentTimeMillis() - time) + "ms");
+	}
+
+	/**
+	 * Laczenie segmentow na osobnym watku. Watek wygasa gdy nie ma pracy, wiec nie trzyma programu przy zyciu.
+	 */
+	public Future<?> mergeSegmentsInBackground(final File indexDir, final boolean tfidf) {
+		return mergeExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				mergeSegments(indexDir, tfidf);
+			}
+		});
+	}
+
+	/**
+	 * Trzyma naglowek i segmenty indeksu w pamieci - kolejne wyszukiwania w tym katalogu nie czytaja header.csv i nie
+	 * otwieraja segmentow od nowa. Zmiana indeksu na dysku (segmenty, pliki pochodne, header.csv) jest wykrywana przy
+	 * wyszukiwaniu po czasach modyfikacji plikow i indeks jest wtedy wczytywany ponownie.
+	 */
+	public boolean loadIndex(File indexDir) {
+		Preconditions.checkNotNull(indexDir);
+
+		File dir = indexDir.getAbsoluteFile();
+		synchronized (loadedIndexes) {
+			if (!loadedIndexes.containsKey(dir)) {
+				try {
+					LoadedIndex loaded = readIndex(dir);
+					// serwer czyta naglowek od razu, a nie przy pierwszym zapytaniu
+					loaded.getHeader();
+					loadedIndexes.put(dir, loaded);
+				} catch (IOException e) {
+					LOGGER.error("[loadIndex]", e);
+					return false;
+				}
 			}
 		}
+		return true;
+	}
 
+	/**
+	 * Zwalnia wszystkie indeksy wczytane przez {@link #loadIndex(File)}. Trwajace wyszukiwania koncza na swoich
+	 * referencjach.
+	 */
+	public void unloadIndexes() {
+		synchronized (loadedIndexes) {
+			for (LoadedIndex loaded : loadedIndexes.values()) {
+				try {
+					loaded.close();
+				} catch (IOException e) {
+					LOGGER.error("[unloadIndexes]", e);
+				}
+			}
+			loadedIndexes.clear();
+		}
 	}
 
 	public List<Hint> search(File indexDir, String file, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms) {
+		return search(indexDir, file, stopList, distance, tfidf, useSynonyms, Main.MAX_DOCS);
+	}
+
+	public List<Hint> search(File indexDir, String file, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms, int maxDocs) {
+		return search(indexDir, file, stopList, distance, tfidf, useSynonyms, maxDocs, 1);
+	}
+
+	public List<Hint> search(File indexDir, String file, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms, int maxDocs, int threads) {
+		return search(indexDir, file, stopList, distance, tfidf, useSynonyms, maxDocs, threads, 0);
+	}
+
+	public List<Hint> search(File indexDir, String file, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms, int maxDocs, int threads,
+			int efSearch) {
+		return search(indexDir, file, stopList, distance, tfidf, useSynonyms, maxDocs, threads, efSearch, 0);
+	}
+
+	public List<Hint> search(File indexDir, String file, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms, int maxDocs, int threads,
+			int efSearch, int nprobe) {
+		return search(indexDir, file, stopList, distance, tfidf, useSynonyms, maxDocs, threads, efSearch, nprobe, false);
+	}
+
+	public List<Hint> search(File indexDir, String file, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms, int maxDocs, int threads,
+			int efSearch, int nprobe, boolean latent) {
+		return search(indexDir, file, stopList, distance, tfidf, useSynonyms, maxDocs, threads, efSearch, nprobe, latent, false, 0);
+	}
+
+	/**
+	 * Przeszukuje wszystkie segmenty indeksu, usuniete dokumenty sa pomijane.
+	 * @param threads przy pelnym przegladzie index.bin zakres dokumentow jest dzielony na tyle czesci, kazda liczona na
+	 *            osobnym watku z wlasnym kolektorem; wynik jest taki sam jak dla jednego watku
+	 * @param efSearch jesli > 0, segmenty z grafem HNSW dla tej miary sa przeszukiwane w przyblizeniu (szerokosc
+	 *            przeszukiwania max(efSearch, maxDocs)), pozostale dokladnie
+	 * @param nprobe jesli > 0, w segmentach z indeksem IVF dla tej miary (i bez uzytego grafu) przegladane sa tylko
+	 *            dokumenty nprobe skupien o najblizszych centroidach
+	 * @param latent jesli true, segmenty z indeksem LSA sa przegladane w zredukowanej przestrzeni (zapytanie rzutowane
+	 *            tak samo jak dokumenty), pierwszenstwo przed grafem i IVF
+	 * @param quantized jesli true, segmenty z wektorami skwantyzowanymi sa przegladane przez nie (w przestrzeni, z ktorej
+	 *            je policzono), pierwszenstwo przed wszystkimi pozostalymi trybami
+	 * @param rerank jesli > 0, tyle najlepszych kandydatow z wektorow skwantyzowanych dostaje dokladna range z wektorow
+	 *            zrodlowych (LSA albo index.bin)
+	 */
+	public List<Hint> search(File indexDir, String file, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms, int maxDocs, int threads,
+			int efSearch, int nprobe, boolean latent, boolean quantized, int rerank) {
+		Preconditions.checkArgument(threads > 0);
+
 		ChunkList cl = cclService.loadFile(file);
-		IndexHeader header = readHeader(new File(indexDir.getAbsoluteFile() + File.separator + "header.csv"));
 		IndexRecord searchedIR = new IndexRecord();
 		
 		String plainText = cl.getBasePlainText();
@@ -116,39 +524,303 @@ public class VectorSearchService {
 		
 		if (useSynonyms)
 			plainText = addSynonyms(plainText);
-		
-		searchedIR.parseFromFile(file, plainText, header, tfidf);
 
-		List<Hint> hints = Lists.newArrayList();
+		TopKCollector collector = new TopKCollector(maxDocs, distance);
+
+		try (LoadedIndex loaded = openIndex(indexDir)) {
+			IndexHeader header = loaded.getHeader();
+			SegmentedIndex index = loaded.getIndex();
+			searchedIR.parseFromFile(file, plainText, header, tfidf);
+
+			if (!index.isEmpty()) {
+				for (Segment segment : index.getSegments()) {
+					SparseVector searched = searchedIR.getVector();
+
+					// starszy segment ma mniej wymiarow, a bez tf/idf waga zalezy od rozmiaru slownika
+					int dimensions = segment.getIndex().getDimensions();
+					if (!tfidf && dimensions != header.size()) {
+						IndexRecord ir = new IndexRecord();
+						ir.parseFromFile(file, plainText, header, dimensions, tfidf);
+						searched = ir.getVector();
+					}
+
+					searchSegment(segment, searched, distance, collector, threads, efSearch, nprobe, latent, quantized, rerank);
+				}
+
+				return getHints(collector, index);
+			}
+		} catch (IOException e) {
+			LOGGER.error("[search]", e);
+			return Lists.newArrayList();
+		}
+
+		LOGGER.warn("No " + VectorIndexFormat.FILE_NAME + " in " + indexDir + ", scanning index.csv");
+
+		List<String> paths = Lists.newArrayList();
 
 		try (Scanner scan = new Scanner(new File(indexDir.getAbsoluteFile() + File.separator + "index.csv"))) {
 			while (scan.hasNextLine()) {
 				IndexRecord ir = new IndexRecord();
 				ir.parseFromCSV(scan.nextLine());
-				Hint hint = new Hint();
-				hint.setPath(ir.getFilePath());
-				hint.setRank(ir.compare(searchedIR, distance));
-				hints.add(hint);
+				collector.collect(paths.size(), ir.compare(searchedIR, distance));
+				paths.add(ir.getFilePath());
 			}
 		} catch (FileNotFoundException e) {
 			LOGGER.error("[search]", e);
 		}
 
-		Collections.sort(hints, distance.getComparator());
-		hints = hints.subList(0, Main.MAX_DOCS);
-		return hints;
+		return getHints(collector, paths);
+	}
+
+	public List<Hint> searchByDocument(File indexDir, int doc, Distance distance, boolean tfidf, int maxDocs) {
+		return searchByDocument(indexDir, doc, distance, tfidf, maxDocs, 1, 0, 0, false, false, 0);
+	}
+
+	/**
+	 * Dokumenty najblizsze zaindeksowanemu dokumentowi - zapytaniem jest jego wektor z index.bin, wiec nie ma czytania
+	 * pliku ccl, listy stop ani naglowka, a tylko liczenie wyniku. Sam dokument nie trafia do wynikow. Parametry jak w
+	 * {@link #search(File, String, Set, Distance, boolean, boolean, int, int, int, int, boolean, boolean, int)}.
+	 * @param doc numer dokumentu w calym indeksie (kolejno przez segmenty), np. z {@link #findDocument(File, String)}
+	 * @return pusta lista, gdy nie ma takiego dokumentu albo jest usuniety
+	 */
+	public List<Hint> searchByDocument(File indexDir, int doc, Distance distance, boolean tfidf, int maxDocs, int threads, int efSearch, int nprobe,
+			boolean latent, boolean quantized, int rerank) {
+		Preconditions.checkArgument(threads > 0);
+
+		try (LoadedIndex loaded = openIndex(indexDir)) {
+			SegmentedIndex index = loaded.getIndex();
+			if (doc < 0 || doc >= index.getDocuments() || index.getSegment(doc).isDeleted(doc - index.getSegment(doc).getBase())) {
+				LOGGER.warn("No document " + doc + " in " + indexDir);
+				return Lists.newArrayList();
+			}
+			Segment own = index.getSegment(doc);
+			SparseVector vector = own.getIndex().getVector(doc - own.getBase());
+			int ownDimensions = own.getIndex().getDimensions();
+
+			// jeden wiecej, bo najblizszy jest zwykle sam dokument
+			TopKCollector collector = new TopKCollector(maxDocs + 1, distance);
+			for (Segment segment : index.getSegments()) {
+				// jak w searchBatch - bez tf/idf waga zalezy od rozmiaru slownika segmentu
+				int dimensions = segment.getIndex().getDimensions();
+				SparseVector searched = !tfidf && dimensions != ownDimensions ? rescale(vector, ownDimensions, dimensions) : vector;
+				searchSegment(segment, searched, distance, collector, threads, efSearch, nprobe, latent, quantized, rerank);
+			}
+
+			collector.sort();
+			List<Hint> hints = Lists.newArrayList();
+			for (int i = 0; i < collector.size() && hints.size() < maxDocs; i++) {
+				if (collector.getDoc(i) != doc) {
+					Hint hint = new Hint();
+					hint.setPath(index.getPath(collector.getDoc(i)));
+					hint.setRank(collector.getRank(i));
+					hints.add(hint);
+				}
+			}
+			return hints;
+		} catch (IOException e) {
+			LOGGER.error("[searchByDocument]", e);
+			return Lists.newArrayList();
+		}
+	}
+
+	/**
+	 * Numer niezusunietego dokumentu o tej sciezce w calym indeksie (jak przy usuwaniu - sciezka bezwzgledna), -1 gdy go
+	 * nie ma. Przeglada sciezki wszystkich segmentow.
+	 */
+	public int findDocument(File indexDir, String path) {
+		Preconditions.checkNotNull(path);
+
+		try (LoadedIndex loaded = openIndex(indexDir)) {
+			return findDocument(loaded.getIndex(), new File(path).getAbsolutePath());
+		} catch (IOException e) {
+			LOGGER.error("[findDocument]", e);
+			return -1;
+		}
+	}
+
+	/**
+	 * Wszystkie dokumenty o randze nie gorszej od limitu: odleglosc euklidesowa <= limit albo podobienstwo kosinusowe
+	 * >= limit. Wyniki sa przekazywane do listener w trakcie przegladania (segmentami, nieposortowane), usuniete
+	 * dokumenty sa pomijane. Przeglad jest dokladny: dla odleglosci euklidesowej przycinany normami, dla kosinusa z
+	 * dodatnim limitem przez listy odwrocone (dokumenty bez wspolnego termu maja podobienstwo 0) z ograniczeniami
+	 * termow.
+	 * @return liczba znalezionych dokumentow
+	 */
+	public int searchRange(File indexDir, String file, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms, double limit,
+			final HintListener listener) {
+		Preconditions.checkNotNull(listener);
+
+		ChunkList cl = cclService.loadFile(file);
+		IndexRecord searchedIR = new IndexRecord();
+
+		String plainText = filterStopList(cl.getBasePlainText(), stopList);
+		if (useSynonyms)
+			plainText = addSynonyms(plainText);
+
+		try (LoadedIndex loaded = openIndex(indexDir)) {
+			IndexHeader header = loaded.getHeader();
+			final SegmentedIndex index = loaded.getIndex();
+			searchedIR.parseFromFile(file, plainText, header, tfidf);
+
+			if (!index.isEmpty()) {
+				RangeCollector collector = new RangeCollector(limit, distance) {
+
+					@Override
+					protected void found(int doc, double rank) {
+						Hint hint = new Hint();
+						hint.setPath(index.getPath(doc));
+						hint.setRank(rank);
+						listener.found(hint);
+					}
+
+				};
+				boolean matchedOnly = distance instanceof CosineDistance && distance.compareRanks(0, limit) > 0;
+
+				for (Segment segment : index.getSegments()) {
+					SparseVector searched = searchedIR.getVector();
+
+					// jak w search - bez tf/idf waga zalezy od rozmiaru slownika segmentu
+					int dimensions = segment.getIndex().getDimensions();
+					if (!tfidf && dimensions != header.size()) {
+						IndexRecord ir = new IndexRecord();
+						ir.parseFromFile(file, plainText, header, dimensions, tfidf);
+						searched = ir.getVector();
+					}
+
+					if (matchedOnly && segment.hasPostings()) {
+						scorePostings(segment, searched, collector);
+					} else {
+						scanIndex(segment, searched, distance, collector, 0, segment.getDocuments());
+					}
+				}
+				return collector.getFound();
+			}
+		} catch (IOException e) {
+			LOGGER.error("[searchRange]", e);
+			return 0;
+		}
+
+		LOGGER.warn("No " + VectorIndexFormat.FILE_NAME + " in " + indexDir + ", scanning index.csv");
+
+		int found = 0;
+		try (Scanner scan = new Scanner(new File(indexDir.getAbsoluteFile() + File.separator + "index.csv"))) {
+			while (scan.hasNextLine()) {
+				IndexRecord ir = new IndexRecord();
+				ir.parseFromCSV(scan.nextLine());
+				double rank = ir.compare(searchedIR, distance);
+				if (distance.compareRanks(rank, limit) <= 0) {
+					Hint hint = new Hint();
+					hint.setPath(ir.getFilePath());
+					hint.setRank(rank);
+					listener.found(hint);
+					found++;
+				}
+			}
+		} catch (FileNotFoundException e) {
+			LOGGER.error("[searchRange]", e);
+		}
+
+		return found;
+	}
+
+	/**
+	 * Wiele zapytan jednym przejsciem po indeksie: naglowek czytany raz, zapytania wektoryzowane raz, a kazdy blok
+	 * wierszy index.bin liczony naraz dla wszystkich zapytan ({@link BatchScorer}). Wyniki jak dla pelnego przegladu
+	 * w {@link #search(File, String, Set, Distance, boolean, boolean, int)}, z dokladnoscia do zaokraglen odleglosci
+	 * euklidesowej.
+	 * @return listy wynikow w kolejnosci zapytan
+	 */
+	public List<List<Hint>> searchBatch(File indexDir, List<String> files, Set<String> stopList, Distance distance, boolean tfidf, boolean useSynonyms,
+			int maxDocs) {
+		Preconditions.checkNotNull(files);
+
+		List<List<Hint>> results = Lists.newArrayList();
+
+		try (LoadedIndex loaded = openIndex(indexDir)) {
+			IndexHeader header = loaded.getHeader();
+			SegmentedIndex index = loaded.getIndex();
+			if (index.isEmpty()) {
+				LOGGER.warn("No " + VectorIndexFormat.FILE_NAME + " in " + indexDir + ", searching queries one by one");
+				for (String file : files) {
+					results.add(search(indexDir, file, stopList, distance, tfidf, useSynonyms, maxDocs));
+				}
+				return results;
+			}
+
+			SparseVector[] queries = new SparseVector[files.size()];
+			TopKCollector[] collectors = new TopKCollector[files.size()];
+
+			for (int q = 0; q < queries.length; q++) {
+				String file = files.get(q);
+				ChunkList cl = cclService.loadFile(file);
+				String plainText = filterStopList(cl.getBasePlainText(), stopList);
+				if (useSynonyms)
+					plainText = addSynonyms(plainText);
+
+				IndexRecord ir = new IndexRecord();
+				ir.parseFromFile(file, plainText, header, tfidf);
+				queries[q] = ir.getVector();
+				collectors[q] = new TopKCollector(maxDocs, distance);
+			}
+
+			for (Segment segment : index.getSegments()) {
+				SparseVector[] segmentQueries = queries;
+
+				// jak w search - bez tf/idf waga zalezy od rozmiaru slownika segmentu
+				int dimensions = segment.getIndex().getDimensions();
+				if (!tfidf && dimensions != header.size()) {
+					segmentQueries = new SparseVector[queries.length];
+					for (int q = 0; q < queries.length; q++) {
+						segmentQueries[q] = rescale(queries[q], header.size(), dimensions);
+					}
+				}
+
+				boolean matchedOnly = distance instanceof CosineDistance && segment.hasPostings();
+				new BatchScorer(segmentQueries).score(segment, distance, matchedOnly, collectors);
+			}
+
+			for (TopKCollector collector : collectors) {
+				results.add(getHints(collector, index));
+			}
+		} catch (IOException e) {
+			LOGGER.error("[searchBatch]", e);
+		}
+
+		return results;
 	}
 
 	public List<Hint> searchWithoutIndex(File dir, String path, Distance distance, Set<String> stopList, boolean tfidf, boolean useSynonyms) {
+		return searchWithoutIndex(dir, path, distance, stopList, tfidf, useSynonyms, Main.MAX_DOCS);
+	}
 
-		List<Hint> hints = Lists.newArrayList();
+	public List<Hint> searchWithoutIndex(File dir, String path, Distance distance, Set<String> stopList, boolean tfidf, boolean useSynonyms, int maxDocs) {
+		return searchWithoutIndex(dir, path, distance, stopList, tfidf, useSynonyms, maxDocs, 0);
+	}
+
+	/**
+	 * @param hashBuckets jesli > 0, dokumenty sa wektoryzowane przez {@link HashingVectorizer} z tyloma kubelkami - jeden
+	 *            przebieg po dokumencie zamiast wspolnego naglowka budowanego dla kazdej pary zapytanie-dokument
+	 */
+	public List<Hint> searchWithoutIndex(File dir, String path, Distance distance, Set<String> stopList, boolean tfidf, boolean useSynonyms, int maxDocs,
+			int hashBuckets) {
+
+		TopKCollector collector = new TopKCollector(maxDocs, distance);
+		List<String> paths = Lists.newArrayList();
 		ChunkList clSearched = cclService.loadFile(path);
 		String clSearchedString = filterStopList(clSearched.getBasePlainText(), stopList);
 
 		if (useSynonyms)
 			clSearchedString = addSynonyms(clSearchedString);
 		
-		
+		HashingVectorizer vectorizer = null;
+		SparseVector searched = null;
+		double searchedNorm = 0;
+		if (hashBuckets > 0) {
+			vectorizer = new HashingVectorizer(hashBuckets);
+			searched = vectorizer.vectorize(clSearchedString, tfidf);
+			searchedNorm = Math.sqrt(searched.squaredLength());
+		}
+
 		if (dir.isDirectory()) {
 			File[] files = dir.listFiles(new XmlFileFilter());
 			if (files != null) {
@@ -160,6 +832,13 @@ public class VectorSearchService {
 					if (cl != null) {
 
 						String clString = filterStopList(cl.getBasePlainText(), stopList);
+
+						if (vectorizer != null) {
+							SparseVector vector = vectorizer.vectorize(clString, tfidf);
+							collector.collect(paths.size(), distance.measureDistance(vector, Math.sqrt(vector.squaredLength()), searched, searchedNorm));
+							paths.add(file.getName());
+							continue;
+						}
 						
 						IndexHeader header = new IndexHeader();
 						header.parse(clSearchedString, clString);
@@ -170,10 +849,8 @@ public class VectorSearchService {
 						IndexRecord ir = new IndexRecord();
 						ir.parseFromFile(file.getName(), clString, header, tfidf);
 
-						Hint hint = new Hint();
-						hint.setPath(ir.getFilePath());
-						hint.setRank(ir.compare(searchedIR, distance));
-						hints.add(hint);
+						collector.collect(paths.size(), ir.compare(searchedIR, distance));
+						paths.add(ir.getFilePath());
 					}
 				}
 
@@ -182,44 +859,1051 @@ public class VectorSearchService {
 			}
 		}
 
-		Collections.sort(hints, distance.getComparator());
-		hints = hints.subList(0, Main.MAX_DOCS);
-		return hints;
+		return getHints(collector, paths);
 	}
 
-	private String addSynonyms(String input) {
-		StringBuilder sb = new StringBuilder();
-		
-		for (String s: input.split(" ")) {
-			sb.append(s);
-			sb.append(" ");
+	/**
+	 * Buduje graf HNSW dla kazdego segmentu indeksu (nazwa.hnsw), dla podanej miary odleglosci.
+	 */
+	public void buildGraphs(File indexDir, Distance distance, int m, int efConstruction) {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(distance);
 
-			List<String> list = WordnetJDBC.INSTANCE.getLexFromTheSameSynset(s);
+		try {
+			for (Map.Entry<String, Long> segment : readSegments(indexDir, VectorIndexFormat.EXTENSION).entrySet()) {
+				long time = System.currentTimeMillis();
+				String name = segment.getKey();
 
-			for (String syn : list) {
-				sb.append(syn);
-				sb.append(" ");
+				File tmp = Segments.getFile(indexDir, name, HnswFormat.EXTENSION + ".new");
+				try (VectorIndex index = openSegmentIndex(indexDir, name, segment.getValue(), VectorIndexFormat.EXTENSION)) {
+					if (index == null) {
+						continue;
+					}
+					HnswBuilder.build(index, distance, m, efConstruction, tmp);
+				}
+				if (!replaceDerivedFile(indexDir, name, segment.getValue(), tmp, HnswFormat.EXTENSION, null, VectorIndexFormat.EXTENSION)) {
+					continue;
+				}
+
+				if (LOGGER.isInfoEnabled())
+					LOGGER.info("HNSW graph for " + name + " built. Time = " + (System.currentTimeMillis() - time) + "ms");
 			}
+		} catch (IOException e) {
+			LOGGER.error("[buildGraphs]", e);
 		}
-		
-		return sb.toString();
 	}
-	
-	private String filterStopList(String content, Set<String> stopList) {
-		if (stopList == null) {
-			return content;
-		}
-		StringBuilder sb = new StringBuilder();
-		for (String s : content.split(" ")) {
-			if (!stopList.contains(s.toLowerCase())) {
-				sb.append(s);
-				sb.append(" ");
+
+	/**
+	 * Buduje indeks IVF (nazwa.ivf) dla kazdego segmentu indeksu, dla podanej miary odleglosci.
+	 * @param clusters liczba skupien w segmencie, 0 - pierwiastek z liczby dokumentow segmentu
+	 */
+	public void buildClusters(File indexDir, Distance distance, int clusters, int iterations) {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(distance);
+
+		try {
+			for (Map.Entry<String, Long> segment : readSegments(indexDir, VectorIndexFormat.EXTENSION).entrySet()) {
+				long time = System.currentTimeMillis();
+				String name = segment.getKey();
+
+				File tmp = Segments.getFile(indexDir, name, IvfFormat.EXTENSION + ".new");
+				try (VectorIndex index = openSegmentIndex(indexDir, name, segment.getValue(), VectorIndexFormat.EXTENSION)) {
+					if (index == null) {
+						continue;
+					}
+					IvfBuilder.build(index, distance, clusters, iterations, tmp);
+				}
+				if (!replaceDerivedFile(indexDir, name, segment.getValue(), tmp, IvfFormat.EXTENSION, null, VectorIndexFormat.EXTENSION)) {
+					continue;
+				}
+
+				if (LOGGER.isInfoEnabled())
+					LOGGER.info("IVF index for " + name + " built. Time = " + (System.currentTimeMillis() - time) + "ms");
 			}
+		} catch (IOException e) {
+			LOGGER.error("[buildClusters]", e);
 		}
+	}
+
+	/**
+	 * Buduje indeks LSA (nazwa.lsa) dla kazdego segmentu indeksu.
+	 * @param rank liczba wymiarow po rzucie
+	 */
+	public void buildLatentIndex(File indexDir, int rank) {
+		Preconditions.checkNotNull(indexDir);
+
+		try {
+			for (Map.Entry<String, Long> segment : readSegments(indexDir, VectorIndexFormat.EXTENSION).entrySet()) {
+				long time = System.currentTimeMillis();
+				String name = segment.getKey();
+
+				File tmp = Segments.getFile(indexDir, name, LsaFormat.EXTENSION + ".new");
+				try (VectorIndex index = openSegmentIndex(indexDir, name, segment.getValue(), VectorIndexFormat.EXTENSION)) {
+					if (index == null) {
+						continue;
+					}
+					LsaBuilder.build(index, rank, tmp);
+				}
+				// wektory skwantyzowane mogly byc liczone z poprzedniego LSA
+				if (!replaceDerivedFile(indexDir, name, segment.getValue(), tmp, LsaFormat.EXTENSION, QuantizedFormat.EXTENSION,
+						VectorIndexFormat.EXTENSION)) {
+					continue;
+				}
+
+				if (LOGGER.isInfoEnabled())
+					LOGGER.info("LSA index for " + name + " built. Time = " + (System.currentTimeMillis() - time) + "ms");
+			}
+		} catch (IOException e) {
+			LOGGER.error("[buildLatentIndex]", e);
+		}
+	}
+
+	/**
+	 * Kwantyzuje wektory kazdego segmentu indeksu (nazwa.qnt) - wektory LSA, jesli segment ma nazwa.lsa, inaczej geste
+	 * wiersze index.bin. Segment z rzadkim index.bin i bez LSA jest pomijany.
+	 * @param method {@link QuantizedFormat#SCALAR_INT8} albo {@link QuantizedFormat#PRODUCT}
+	 * @param subspaces liczba podprzestrzeni PQ, 0 - domyslna
+	 */
+	public void buildQuantized(File indexDir, int method, int subspaces) {
+		Preconditions.checkNotNull(indexDir);
+
+		try {
+			for (Map.Entry<String, Long> segment : readSegments(indexDir, VectorIndexFormat.EXTENSION, LsaFormat.EXTENSION).entrySet()) {
+				long time = System.currentTimeMillis();
+				String name = segment.getKey();
+
+				File latentFile = Segments.getFile(indexDir, name, LsaFormat.EXTENSION);
+				File tmp = Segments.getFile(indexDir, name, QuantizedFormat.EXTENSION + ".new");
+				try (VectorIndex index = openSegmentIndex(indexDir, name, segment.getValue(), VectorIndexFormat.EXTENSION, LsaFormat.EXTENSION);
+						LsaIndex latent = index != null && latentFile.exists() ? LsaIndex.open(latentFile, index) : null) {
+					if (index == null) {
+						continue;
+					}
+					if (latent == null && index.getLayout() != VectorIndexFormat.DENSE) {
+						LOGGER.warn("Segment " + name + " has sparse vectors and no LSA index, not quantised");
+						continue;
+					}
+					QuantizedBuilder.build(index, latent, method, subspaces, tmp);
+				}
+				if (!replaceDerivedFile(indexDir, name, segment.getValue(), tmp, QuantizedFormat.EXTENSION, null, VectorIndexFormat.EXTENSION,
+						LsaFormat.EXTENSION)) {
+					continue;
+				}
+
+				if (LOGGER.isInfoEnabled())
+					LOGGER.info("Quantised vectors for " + name + " built. Time = " + (System.currentTimeMillis() - time) + "ms");
+			}
+		} catch (IOException e) {
+			LOGGER.error("[buildQuantized]", e);
+		}
+	}
+
+	/**
+	 * Przepisuje listy odwrocone kazdego segmentu z dokumentami ulozonymi wg {@link DocumentOrder} - mniejszy plik
+	 * nazwa.post, wyniki bez zmian. Dodanie i laczenie segmentow zapisuje listy w kolejnosci index.bin.
+	 */
+	public void reorderPostings(File indexDir) {
+		Preconditions.checkNotNull(indexDir);
+
+		try {
+			for (Map.Entry<String, Long> segment : readSegments(indexDir, VectorIndexFormat.EXTENSION).entrySet()) {
+				long time = System.currentTimeMillis();
+				String name = segment.getKey();
+
+				// zaladowany indeks czyta stary plik az do podmiany
+				File tmp = Segments.getFile(indexDir, name, PostingsFormat.EXTENSION + ".new");
+				try (VectorIndex index = openSegmentIndex(indexDir, name, segment.getValue(), VectorIndexFormat.EXTENSION)) {
+					if (index == null || index.getValueType() == VectorIndexFormat.FLOAT64) {
+						continue;
+					}
+					PostingsWriter.write(index, tmp, DocumentOrder.compute(index));
+				}
+				if (!replaceDerivedFile(indexDir, name, segment.getValue(), tmp, PostingsFormat.EXTENSION, null, VectorIndexFormat.EXTENSION)) {
+					continue;
+				}
+
+				if (LOGGER.isInfoEnabled())
+					LOGGER.info("Postings for " + name + " reordered. Size = " + Segments.getFile(indexDir, name, PostingsFormat.EXTENSION).length()
+							+ "B, time = " + (System.currentTimeMillis() - time) + "ms");
+			}
+		} catch (IOException e) {
+			LOGGER.error("[reorderPostings]", e);
+		}
+	}
+
+	/**
+	 * Dla kazdego dokumentu indeksu k najpodobniejszych innych dokumentow (podobienstwo kosinusowe wektorow z index.bin),
+	 * zapisane w neighbours.knn. Dokumenty sa zapytaniami liczonymi paczkami przez {@link BatchScorer} - blok wierszy
+	 * segmentu mnozony przez macierz termow calej paczki - a paczki sa dzielone miedzy watki. Zapisywani sa tylko
+	 * sasiedzi o dodatnim podobienstwie, usuniete dokumenty nie maja sasiadow i nie sa niczyimi sasiadami.
+	 */
+	public void buildNeighbours(File indexDir, int k, int threads) {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkArgument(k > 0);
+		Preconditions.checkArgument(threads > 0);
+
+		long time = System.currentTimeMillis();
+
+		// zaladowany graf jest czytany az do podmiany
+		File file = new File(indexDir, NeighbourGraph.FILE_NAME);
+		File tmp = new File(indexDir, NeighbourGraph.FILE_NAME + ".new");
+		try {
+			// otwarte segmenty zostaja wazne, nawet gdy laczenie usunie ich pliki; graf dla starej listy segmentow
+			// getNeighbours uzna za nieaktualny
+			List<String> names;
+			SegmentedIndex index;
+			synchronized (segmentsLock) {
+				names = Segments.read(indexDir);
+				index = SegmentedIndex.open(indexDir, names);
+			}
+			try (SegmentedIndex opened = index; NeighbourGraph graph = NeighbourGraph.create(tmp, names, index.getDocuments(), k)) {
+				findNeighbours(opened, graph, threads);
+				graph.force();
+			}
+			synchronized (segmentsLock) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		} catch (IOException e) {
+			LOGGER.error("[buildNeighbours]", e);
+			return;
+		}
+
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("Neighbours built. Size = " + file.length() + "B, time = " + (System.currentTimeMillis() - time) + "ms");
+	}
+
+	/**
+	 * Sasiedzi zaindeksowanego dokumentu z neighbours.knn, od najpodobniejszego - bez liczenia podobienstw. Pusta lista,
+	 * gdy dokumentu nie ma w indeksie albo graf policzono dla innych segmentow (po dodaniu lub laczeniu segmentow trzeba
+	 * go zbudowac ponownie). Dokumenty usuniete po zbudowaniu grafu sa pomijane.
+	 */
+	public List<Hint> getNeighbours(File indexDir, String path) {
+		Preconditions.checkNotNull(indexDir);
+		Preconditions.checkNotNull(path);
+
+		List<Hint> hints = Lists.newArrayList();
+
+		try (LoadedIndex loaded = openIndex(indexDir); NeighbourGraph graph = NeighbourGraph.open(new File(indexDir, NeighbourGraph.FILE_NAME))) {
+			SegmentedIndex index = loaded.getIndex();
+			if (!graph.getSegments().equals(Segments.read(indexDir.getAbsoluteFile())) || graph.getDocuments() != index.getDocuments()) {
+				LOGGER.warn(NeighbourGraph.FILE_NAME + " in " + indexDir + " was built for other segments, rebuild it");
+				return hints;
+			}
+
+			int doc = findDocument(index, new File(path).getAbsolutePath());
+			if (doc < 0) {
+				return hints;
+			}
+
+			int[] docs = new int[graph.getK()];
+			float[] similarities = new float[graph.getK()];
+			int length = graph.getNeighbours(doc, docs, similarities);
+			for (int i = 0; i < length; i++) {
+				Segment segment = index.getSegment(docs[i]);
+				if (!segment.isDeleted(docs[i] - segment.getBase())) {
+					Hint hint = new Hint();
+					hint.setPath(index.getPath(docs[i]));
+					hint.setRank(similarities[i]);
+					hints.add(hint);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("[getNeighbours]", e);
+		}
+
+		return hints;
+	}
+
+	public RecallReport measureRecall(File indexDir, List<String> queries, Set<String> stopList, Distance distance, boolean tfidf, int maxDocs,
+			int efSearch) {
+		return measureRecall(indexDir, queries, stopList, distance, tfidf, maxDocs, efSearch, 0);
+	}
+
+	/**
+	 * Recall@maxDocs wyszukiwania przyblizonego (graf HNSW i/lub IVF) wzgledem dokladnego przegladu indeksu, dla
+	 * podanych zapytan.
+	 */
+	public RecallReport measureRecall(File indexDir, List<String> queries, Set<String> stopList, Distance distance, boolean tfidf, int maxDocs,
+			int efSearch, int nprobe) {
+		Preconditions.checkNotNull(queries);
+		Preconditions.checkArgument(efSearch > 0 || nprobe > 0);
+
+		RecallReport report = new RecallReport(maxDocs, efSearch, nprobe);
+
+		for (String query : queries) {
+			long time = System.currentTimeMillis();
+			List<Hint> exact = search(indexDir, query, stopList, distance, tfidf, false, maxDocs, 1, 0, 0);
+			long exactTime = System.currentTimeMillis() - time;
+
+			time = System.currentTimeMillis();
+			List<Hint> approximate = search(indexDir, query, stopList, distance, tfidf, false, maxDocs, 1, efSearch, nprobe);
+			long approximateTime = System.currentTimeMillis() - time;
+
+			Set<String> expected = Sets.newHashSet();
+			for (Hint hint : exact) {
+				expected.add(hint.getPath());
+			}
+			int found = 0;
+			for (Hint hint : approximate) {
+				if (expected.contains(hint.getPath())) {
+					found++;
+				}
+			}
+
+			report.addQuery(found, expected.size(), exactTime, approximateTime);
+		}
+
+		return report;
+	}
+
+	/**
+	 * Jednorazowa konwersja starego indeksu (header.csv + index.csv) do index.bin.
+	 */
+	public void convertIndex(File indexDir, int valueType) {
+		Preconditions.checkNotNull(indexDir);
+
+		long time = System.currentTimeMillis();
+
+		IndexHeader header = readHeader(new File(indexDir.getAbsoluteFile() + File.separator + HEADER_FILE_NAME));
+		File csvFile = new File(indexDir.getAbsoluteFile() + File.separator + "index.csv");
+		File indexFile = new File(indexDir.getAbsoluteFile() + File.separator + VectorIndexFormat.FILE_NAME);
+
+		resetSegments(indexDir.getAbsoluteFile());
+
+		try (Scanner scan = new Scanner(csvFile); VectorIndexWriter writer = createWriter(indexFile, header.size(), valueType)) {
+			while (scan.hasNextLine()) {
+				IndexRecord ir = new IndexRecord();
+				ir.parseFromCSV(scan.nextLine());
+				writer.add(ir.getFilePath(), ir.getVector());
+			}
+		} catch (IOException e) {
+			LOGGER.error("[convertIndex]", e);
+		}
+
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("Index converted. Time = " + (System.currentTimeMillis() - time) + "ms");
+
+		writePostings(indexFile, new File(indexDir.getAbsoluteFile() + File.separator + PostingsFormat.FILE_NAME),
+				Segments.getFile(indexDir.getAbsoluteFile(), Segments.DEFAULT_SEGMENT, NormOrder.EXTENSION));
+	}
+
+	// watki biora kolejne paczki dokumentow i licza je jako zapytania wsadowe
+	private void findNeighbours(final SegmentedIndex index, final NeighbourGraph graph, int threads) throws IOException {
+		final AtomicInteger next = new AtomicInteger();
+		List<Future<Void>> tasks = Lists.newArrayList();
+		try {
+			for (int i = 0; i < threads; i++) {
+				tasks.add(workers.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						int from;
+						while ((from = next.getAndAdd(NEIGHBOURS_BATCH)) < index.getDocuments()) {
+							findNeighbours(index, graph, from, Math.min(from + NEIGHBOURS_BATCH, index.getDocuments()));
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		} finally {
+			cancel(tasks);
+		}
+	}
+
+	private void findNeighbours(SegmentedIndex index, NeighbourGraph graph, int from, int to) {
+		Distance distance = new CosineDistance();
+		SparseVector[] vectors = new SparseVector[to - from];
+		TopKCollector[] collectors = new TopKCollector[to - from];
+		for (int doc = from; doc < to; doc++) {
+			Segment segment = index.getSegment(doc);
+			int local = doc - segment.getBase();
+			// usuniety dokument jako pusty wektor nie pasuje do zadnego dokumentu
+			vectors[doc - from] = segment.isDeleted(local) ? new SparseVector(new int[0], new float[0]) : segment.getIndex().getVector(local);
+			// k + 1, bo najpodobniejszy jest zwykle sam dokument
+			collectors[doc - from] = new TopKCollector(graph.getK() + 1, distance);
+		}
+
+		BatchScorer scorer = new BatchScorer(vectors);
+		for (Segment segment : index.getSegments()) {
+			scorer.score(segment, distance, true, collectors);
+		}
+
+		int[] docs = new int[graph.getK()];
+		float[] similarities = new float[graph.getK()];
+		for (int doc = from; doc < to; doc++) {
+			TopKCollector collector = collectors[doc - from];
+			collector.sort();
+			int length = 0;
+			for (int i = 0; i < collector.size() && length < graph.getK(); i++) {
+				// NaN (pusty wektor) i 0 nie sa sasiadami
+				if (collector.getDoc(i) != doc && collector.getRank(i) > 0) {
+					docs[length] = collector.getDoc(i);
+					similarities[length++] = (float) collector.getRank(i);
+				}
+			}
+			graph.setNeighbours(doc, docs, similarities, length);
+		}
+	}
+
+	// numer niezusunietego dokumentu o tej sciezce w calym indeksie, -1 gdy go nie ma
+	private int findDocument(SegmentedIndex index, String path) {
+		for (Segment segment : index.getSegments()) {
+			for (int doc = 0; doc < segment.getDocuments(); doc++) {
+				if (!segment.isDeleted(doc) && path.equals(segment.getIndex().getPath(doc))) {
+					return segment.getBase() + doc;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private void searchSegment(Segment segment, SparseVector searched, Distance distance, TopKCollector collector, int threads,
+			int efSearch, int nprobe, boolean latent, boolean quantized, int rerank) throws IOException {
+		if (collector.getK() == 0) {
+			return;
+		}
+
+		if (quantized && segment.hasQuantized()) {
+			scanQuantized(segment, searched, distance, rerank, collector);
+		} else if (latent && segment.hasLatent()) {
+			scanLatentIndex(segment, searched, distance, collector);
+		} else if (efSearch > 0 && segment.hasGraph() && segment.getGraph().getDistance().getClass() == distance.getClass()) {
+			searchGraph(segment, searched, Math.max(efSearch, collector.getK()), collector);
+		} else if (nprobe > 0 && segment.hasClusters() && segment.getClusters().getDistance().getClass() == distance.getClass()) {
+			searchClusters(segment, searched, distance, nprobe, collector);
+		} else if (distance instanceof CosineDistance && segment.hasPostings()) {
+			scorePostings(segment, searched, collector);
+		} else {
+			scanIndex(segment, searched, distance, collector, threads);
+		}
+	}
+
+	private void scanIndex(final Segment segment, final SparseVector searched, final Distance distance, TopKCollector collector, int threads)
+			throws IOException {
+		int documents = segment.getDocuments();
+		if (threads == 1 || documents < threads) {
+			scanIndex(segment, searched, distance, collector, 0, documents);
+			return;
+		}
+
+		final int k = collector.getK();
+		List<Future<TopKCollector>> partials = Lists.newArrayList();
+		try {
+			for (int i = 0; i < threads; i++) {
+				final int from = (int) ((long) documents * i / threads);
+				final int to = (int) ((long) documents * (i + 1) / threads);
+				partials.add(workers.submit(new Callable<TopKCollector>() {
+					@Override
+					public TopKCollector call() {
+						TopKCollector partial = new TopKCollector(k, distance);
+						scanIndex(segment, searched, distance, partial, from, to);
+						return partial;
+					}
+				}));
+			}
+
+			// remisy rozstrzyga numer dokumentu, wiec kolejnosc laczenia nie zmienia wyniku
+			for (Future<TopKCollector> partial : partials) {
+				collector.merge(partial.get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		} finally {
+			cancel(partials);
+		}
+	}
+
+	private void scanIndex(Segment segment, SparseVector searched, Distance distance, DocumentCollector collector, int from, int to) {
+		if (distance instanceof EuclidesDistance) {
+			new EuclideanScorer(segment, searched).score(collector, from, to);
+			return;
+		}
+
+		VectorIndex index = segment.getIndex();
+
+		// zapytanie moze miec termy spoza starszego segmentu - wtedy tylko postac rzadka
+		boolean fits = searched.size() == 0 || searched.getId(searched.size() - 1) < index.getDimensions();
+		if (index.getLayout() == VectorIndexFormat.DENSE && fits) {
+			scanDenseIndex(segment, searched, distance, collector, from, to);
+			return;
+		}
+
+		double searchedNorm = Math.sqrt(searched.squaredLength());
+		int base = segment.getBase();
+
+		for (int doc = from; doc < to; doc++) {
+			if (!segment.isDeleted(doc)) {
+				collector.collect(base + doc, distance.measureDistance(index.getVector(doc), index.getNorm(doc), searched, searchedNorm));
+			}
+		}
+	}
+
+	// uklad gesty: wiersze czytane do jednej tablicy prymitywow, bez pudelkowania
+	private void scanDenseIndex(Segment segment, SparseVector searched, Distance distance, DocumentCollector collector, int from, int to) {
+		VectorIndex index = segment.getIndex();
+		int dimensions = index.getDimensions();
+		int base = segment.getBase();
+		double searchedNorm = Math.sqrt(searched.squaredLength());
+
+		if (index.getValueType() == VectorIndexFormat.FLOAT64) {
+			double[] query = searched.toDense(dimensions, null);
+			double[] row = null;
+			for (int doc = from; doc < to; doc++) {
+				if (!segment.isDeleted(doc)) {
+					row = index.getVector(doc, row);
+					collector.collect(base + doc, distance.measureDistance(row, index.getNorm(doc), query, searchedNorm));
+				}
+			}
+		} else {
+			float[] query = searched.toDenseFloats(dimensions, null);
+			float[] row = null;
+			for (int doc = from; doc < to; doc++) {
+				if (!segment.isDeleted(doc)) {
+					row = index.getFloatVector(doc, row);
+					collector.collect(base + doc, distance.measureDistance(row, index.getNorm(doc), query, searchedNorm));
+				}
+			}
+		}
+	}
+
+	private void searchGraph(Segment segment, SparseVector searched, int ef, TopKCollector collector) {
+		TopKCollector nearest = segment.getGraph().search(searched, ef);
+
+		for (int i = 0; i < nearest.size(); i++) {
+			int doc = nearest.getDoc(i);
+			if (!segment.isDeleted(doc)) {
+				collector.collect(segment.getBase() + doc, nearest.getRank(i));
+			}
+		}
+	}
+
+	private void scanLatentIndex(Segment segment, SparseVector searched, Distance distance, TopKCollector collector) {
+		LsaIndex latent = segment.getLatent();
+		float[] query = latent.project(searched, null);
+		double queryNorm = 0;
+		for (float value : query) {
+			queryNorm += (double) value * value;
+		}
+		queryNorm = Math.sqrt(queryNorm);
+
+		int base = segment.getBase();
+		float[] row = null;
+		for (int doc = 0; doc < latent.getDocuments(); doc++) {
+			if (!segment.isDeleted(doc)) {
+				row = latent.getVector(doc, row);
+				collector.collect(base + doc, distance.measureDistance(row, latent.getNorm(doc), query, queryNorm));
+			}
+		}
+	}
+
+	private void scanQuantized(Segment segment, SparseVector searched, Distance distance, int rerank, TopKCollector collector) {
+		QuantizedIndex quantized = segment.getQuantized();
+		boolean fromLatent = quantized.getSource() == QuantizedFormat.SOURCE_LSA;
+
+		float[] query;
+		if (fromLatent) {
+			query = segment.getLatent().project(searched, null);
+		} else {
+			// termy spoza starszego segmentu nie maja wymiaru w index.bin
+			query = new float[quantized.getDimensions()];
+			for (int i = 0; i < searched.size() && searched.getId(i) < query.length; i++) {
+				query[searched.getId(i)] = searched.getValue(i);
+			}
+		}
+		double queryNorm = 0;
+		for (float value : query) {
+			queryNorm += (double) value * value;
+		}
+		queryNorm = Math.sqrt(queryNorm);
+
+		int base = segment.getBase();
+		TopKCollector candidates = rerank > 0 ? new TopKCollector(Math.max(rerank, collector.getK()), distance) : collector;
+		QuantizedIndex.Scorer scorer = quantized.getScorer(query);
+		for (int doc = 0; doc < quantized.getDocuments(); doc++) {
+			if (!segment.isDeleted(doc)) {
+				candidates.collect(rerank > 0 ? doc : base + doc, distance.fromDotProduct(scorer.dot(doc), quantized.getNorm(doc), queryNorm));
+			}
+		}
+
+		if (rerank <= 0) {
+			return;
+		}
+
+		VectorIndex index = segment.getIndex();
+		double searchedNorm = Math.sqrt(searched.squaredLength());
+		float[] row = null;
+		candidates.sort();
+		for (int i = 0; i < candidates.size(); i++) {
+			int doc = candidates.getDoc(i);
+			double rank;
+			if (fromLatent) {
+				row = segment.getLatent().getVector(doc, row);
+				rank = distance.measureDistance(row, segment.getLatent().getNorm(doc), query, queryNorm);
+			} else {
+				rank = distance.measureDistance(index.getVector(doc), index.getNorm(doc), searched, searchedNorm);
+			}
+			collector.collect(base + doc, rank);
+		}
+	}
+
+	private void searchClusters(Segment segment, SparseVector searched, Distance distance, int nprobe, TopKCollector collector) {
+		IvfIndex clusters = segment.getClusters();
+		VectorIndex index = segment.getIndex();
+		double searchedNorm = Math.sqrt(searched.squaredLength());
+		int base = segment.getBase();
+		int[] members = null;
+
+		for (int cluster : clusters.probe(searched, nprobe)) {
+			int size = clusters.getClusterSize(cluster);
+			if (members == null || members.length < size) {
+				members = new int[size];
+			}
+			clusters.getMembers(cluster, members);
+
+			for (int i = 0; i < size; i++) {
+				int doc = members[i];
+				if (!segment.isDeleted(doc)) {
+					collector.collect(base + doc, distance.measureDistance(index.getVector(doc), index.getNorm(doc), searched, searchedNorm));
+				}
+			}
+		}
+	}
+
+	// dokumenty bez wspolnego termu z zapytaniem maja podobienstwo 0 i nie trafiaja do wynikow
+	private void scorePostings(Segment segment, SparseVector searched, DocumentCollector collector) {
+		if (MaxScoreScorer.canScore(segment.getPostings(), searched)) {
+			new MaxScoreScorer(segment).score(searched, collector);
+			return;
+		}
+
+		PostingsIndex postings = segment.getPostings();
+		TermAtATimeScorer scorer = new TermAtATimeScorer(postings);
+		scorer.score(searched);
+
+		for (int i = 0; i < scorer.size(); i++) {
+			int doc = postings.getDocumentId(scorer.getDoc(i));
+			if (!segment.isDeleted(doc)) {
+				collector.collect(segment.getBase() + doc, scorer.getScore(i));
+			}
+		}
+	}
+
+	private List<Hint> getHints(TopKCollector collector, SegmentedIndex index) {
+		collector.sort();
+
+		List<Hint> hints = Lists.newArrayList();
+		for (int i = 0; i < collector.size(); i++) {
+			Hint hint = new Hint();
+			hint.setPath(index.getPath(collector.getDoc(i)));
+			hint.setRank(collector.getRank(i));
+			hints.add(hint);
+		}
+		return hints;
+	}
+
+	private List<Hint> getHints(TopKCollector collector, List<String> paths) {
+		collector.sort();
+
+		List<Hint> hints = Lists.newArrayList();
+		for (int i = 0; i < collector.size(); i++) {
+			Hint hint = new Hint();
+			hint.setPath(paths.get(collector.getDoc(i)));
+			hint.setRank(collector.getRank(i));
+			hints.add(hint);
+		}
+		return hints;
+	}
+
+	// listy odwrocone (kosinus) i kolejnosc norm (odleglosc euklidesowa); listy maja wagi float32, wiec indeks float64
+	// ich nie dostaje - kosinus liczy sie wtedy pelnym przegladem na wartosciach double
+	private void writePostings(File indexFile, File postingsFile, File normOrderFile) {
+		long time = System.currentTimeMillis();
+
+		try (VectorIndex index = VectorIndex.open(indexFile)) {
+			if (index.getValueType() == VectorIndexFormat.FLOAT64) {
+				postingsFile.delete();
+			} else {
+				PostingsWriter.write(index, postingsFile);
+			}
+			NormOrder.write(index, normOrderFile);
+		} catch (IOException e) {
+			LOGGER.error("[writePostings]", e);
+		}
+
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("Postings written. Time = " + (System.currentTimeMillis() - time) + "ms");
+	}
+
+	// float64 zostawiamy tylko dla ukladu gestego, wektory rzadkie sa zawsze float32
+	private VectorIndexWriter createWriter(File file, int dimensions, int valueType) throws IOException {
+		int layout = valueType == VectorIndexFormat.FLOAT64 ? VectorIndexFormat.DENSE : VectorIndexFormat.SPARSE;
+		return new VectorIndexWriter(file, dimensions, layout, valueType);
+	}
+
+	/**
+	 * Pierwszy przebieg: dokumenty do pliku tymczasowego z numerami termow z dictionary. W headerTerms zaznaczane sa
+	 * termy z tekstu po stop liscie - tylko one trafiaja do naglowka. Jesli paths != null, zbiera sciezki dokumentow.
+	 *
+	 * @param runs jesli nie null, slownik jest przebiegiem o ograniczonym rozmiarze - po przekroczeniu
+	 *            {@link VocabularyRuns#getRunTerms()} termow jest zapisywany na dysk i czyszczony, a plik tymczasowy
+	 *            dostaje numery z kolejnego przebiegu
+	 */
+	private boolean readDocuments(File[] files, final Set<String> stopList, int threads, TermDictionary dictionary, BitSet headerTerms,
+			File spillFile, Set<String> paths, VocabularyRuns runs) {
+		// ograniczona liczba dokumentow w locie, zeby nie trzymac w pamieci calego korpusu
+		Deque<Future<TokenizedDocument>> pending = new ArrayDeque<>();
+		try (TermCountsSpill.Writer spill = new TermCountsSpill.Writer(spillFile)) {
+			int next = 0;
+			int runDocuments = 0;
+			int[] ids = new int[64];
+			int[] counts = new int[64];
+
+			while (next < files.length || !pending.isEmpty()) {
+				while (next < files.length && pending.size() < threads * 4) {
+					final File file = files[next++];
+					pending.add(workers.submit(new Callable<TokenizedDocument>() {
+						@Override
+						public TokenizedDocument call() {
+							return tokenize(file, stopList);
+						}
+					}));
+				}
+
+				TokenizedDocument document = pending.poll().get();
+				if (document == null) {
+					continue;
+				}
+
+				if (document.size() > ids.length) {
+					ids = new int[document.size()];
+					counts = new int[document.size()];
+				}
+				int length = 0;
+				for (int i = 0; i < document.size(); i++) {
+					int id = dictionary.add(document.getTerm(i));
+					if (document.isHeaderTerm(i)) {
+						headerTerms.set(id);
+					}
+					// wektor liczony jest z pelnego tekstu, jak w parseFromFile
+					if (document.getCount(i) > 0) {
+						ids[length] = id;
+						counts[length++] = document.getCount(i);
+					}
+				}
+
+				spill.write(document.getPath(), ids, counts, length);
+				if (paths != null) {
+					paths.add(document.getPath());
+				}
+
+				runDocuments++;
+				if (runs != null && dictionary.size() >= runs.getRunTerms()) {
+					runs.writeRun(dictionary, headerTerms, runDocuments);
+					dictionary.clear();
+					headerTerms.clear();
+					runDocuments = 0;
+				}
+			}
+
+			if (runs != null && runDocuments > 0) {
+				runs.writeRun(dictionary, headerTerms, runDocuments);
+			}
+			return true;
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			LOGGER.error("[readDocuments]", e);
+			spillFile.delete();
+			return false;
+		} finally {
+			cancel(pending);
+		}
+	}
+
+	/**
+	 * Numery termow z pierwszego przebiegu -> numery w header.csv (remap, -1 dla termow spoza naglowka). Pierwsze
+	 * existing termow juz jest w naglowku, nowe termy naglowka ida za nimi alfabetycznie - zwraca je w tej kolejnosci.
+	 */
+	private String[] remapTerms(TermDictionary dictionary, BitSet headerTerms, int existing, int[] remap) {
+		String[] terms = dictionary.toArray();
+
+		String[] newTerms = new String[headerTerms.cardinality() - existing];
+		for (int i = headerTerms.nextSetBit(existing), j = 0; i >= 0; i = headerTerms.nextSetBit(i + 1)) {
+			newTerms[j++] = terms[i];
+		}
+		Arrays.sort(newTerms);
+
+		for (int i = 0; i < terms.length; i++) {
+			if (i < existing) {
+				remap[i] = i;
+			} else {
+				remap[i] = headerTerms.get(i) ? existing + Arrays.binarySearch(newTerms, terms[i]) : -1;
+			}
+		}
+		return newTerms;
+	}
+
+	/**
+	 * Drugi przebieg: plik tymczasowy -> wektory w indexFile. Plik tymczasowy jest potem usuwany.
+	 * @param runs jesli nie null, numery termow kolejnych dokumentow pochodza z kolejnych przebiegow slownika, a remap
+	 *            jest wczytywany dla kazdego przebiegu osobno (podany jest pomijany)
+	 */
+	private boolean writeVectors(File spillFile, int[] remap, VocabularyRuns runs, int dimensions, boolean tfidf, int valueType, File indexFile) {
+		try (TermCountsSpill.Reader spill = new TermCountsSpill.Reader(spillFile);
+				VectorIndexWriter writer = createWriter(indexFile, dimensions, valueType)) {
+			long[] pairs = new long[64];
+			int[] ids = new int[64];
+			int[] counts = new int[64];
+			int run = -1;
+			int runDocuments = 0;
+
+			while (spill.next()) {
+				if (runs != null) {
+					while (runDocuments == 0) {
+						remap = runs.readRemap(++run);
+						runDocuments = runs.getDocuments(run);
+					}
+					runDocuments--;
+				}
+
+				int length = spill.getLength();
+				if (length > pairs.length) {
+					pairs = new long[length];
+					ids = new int[length];
+					counts = new int[length];
+				}
+
+				// nowy numer termu w starszych bitach, liczba wystapien w mlodszych - jedno sortowanie
+				int found = 0;
+				for (int i = 0; i < length; i++) {
+					int id = remap[spill.getIds()[i]];
+					if (id != -1) {
+						pairs[found++] = ((long) id << 32) | spill.getCounts()[i];
+					}
+				}
+				Arrays.sort(pairs, 0, found);
+				for (int i = 0; i < found; i++) {
+					ids[i] = (int) (pairs[i] >>> 32);
+					counts[i] = (int) pairs[i];
+				}
+
+				IndexRecord ir = new IndexRecord();
+				ir.setFilePath(spill.getPath());
+				ir.setDimensions(dimensions);
+				ir.setTermCounts(ids, counts, found, tfidf);
+				writer.add(ir.getFilePath(), ir.getVector());
+			}
+			return true;
+		} catch (IOException e) {
+			LOGGER.error("[writeVectors]", e);
+			return false;
+		} finally {
+			spillFile.delete();
+		}
+	}
+
+	// wymaga segmentsLock
+	private int deleteDocuments(File indexDir, List<String> segments, Set<String> paths) throws IOException {
+		int count = 0;
+		for (String name : segments) {
+			try (Segment segment = Segment.open(indexDir, name, 0)) {
+				DeletedDocuments deleted = segment.getDeletedDocuments();
+				int before = count;
+				for (int doc = 0; doc < segment.getDocuments(); doc++) {
+					if (paths.contains(segment.getIndex().getPath(doc)) && deleted.delete(doc)) {
+						count++;
+					}
+				}
+				if (count > before) {
+					deleted.write(Segments.getFile(indexDir, name, DeletedDocuments.EXTENSION));
+				}
+			}
+		}
+		return count;
+	}
+
+	// pelne indeksowanie zastepuje wszystkie segmenty jednym segmentem "index"
+	private void resetSegments(File indexDir) {
+		synchronized (segmentsLock) {
+			try {
+				for (String name : Segments.read(indexDir)) {
+					if (!Segments.DEFAULT_SEGMENT.equals(name)) {
+						Segments.deleteFiles(indexDir, name);
+					}
+				}
+			} catch (IOException e) {
+				LOGGER.error("[resetSegments]", e);
+			}
+			new File(indexDir, Segments.FILE_NAME).delete();
+			Segments.deleteDerivedFiles(indexDir, Segments.DEFAULT_SEGMENT);
+		}
+	}
+
+	// waga count/dimensions zapisana przy mniejszym slowniku - odtwarzamy liczbe wystapien i liczymy wage od nowa
+	private SparseVector rescale(SparseVector vector, int from, int to) {
+		int[] counts = new int[vector.size()];
+		for (int i = 0; i < vector.size(); i++) {
+			counts[i] = (int) Math.round(vector.getValue(i) * (double) from);
+		}
+
+		IndexRecord ir = new IndexRecord();
+		ir.setDimensions(to);
+		ir.setTermCounts(vector.getIds(), counts, vector.size(), false);
+		return ir.getVector();
+	}
+
+	// watki wygasaja gdy nie ma pracy, wiec pula nie trzyma programu przy zyciu
+	private static ThreadPoolExecutor createExecutor(int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	// segmenty ze skrotami plikow, z ktorych liczy sie plik pochodny - lista i skroty z jednej chwili
+	private Map<String, Long> readSegments(File indexDir, String... sources) throws IOException {
+		synchronized (segmentsLock) {
+			Map<String, Long> segments = Maps.newLinkedHashMap();
+			for (String name : Segments.read(indexDir)) {
+				segments.put(name, getVersion(indexDir, name, sources));
+			}
+			return segments;
+		}
+	}
+
+	/**
+	 * index.bin segmentu do budowy pliku pochodnego bez blokady - otwarty zostaje wazny, nawet gdy laczenie usunie plik.
+	 * Null, gdy segmentu juz nie ma albo jego pliki zrodlowe zmienily sie od {@link #readSegments(File, String...)}.
+	 */
+	private VectorIndex openSegmentIndex(File indexDir, String name, long version, String... sources) throws IOException {
+		synchronized (segmentsLock) {
+			if (!isUnchanged(indexDir, name, version, sources)) {
+				LOGGER.warn("Segment " + name + " changed, skipped");
+				return null;
+			}
+			return VectorIndex.open(Segments.getFile(indexDir, name, VectorIndexFormat.EXTENSION));
+		}
+	}
+
+	/**
+	 * Podmienia plik pochodny segmentu zbudowany bez blokady (tmp), jesli segment nie zmienil sie od
+	 * {@link #readSegments(File, String...)} - inaczej tmp jest usuwany.
+	 * @param obsolete rozszerzenie pliku usuwanego razem z podmiana (np. liczonego z poprzedniej wersji), null - brak
+	 */
+	private boolean replaceDerivedFile(File indexDir, String name, long version, File tmp, String extension, String obsolete,
+			String... sources) throws IOException {
+		synchronized (segmentsLock) {
+			if (!isUnchanged(indexDir, name, version, sources)) {
+				tmp.delete();
+				LOGGER.warn("Segment " + name + " changed during the build, " + name + extension + " not replaced");
+				return false;
+			}
+			if (obsolete != null) {
+				Segments.getFile(indexDir, name, obsolete).delete();
+			}
+			Files.move(tmp.toPath(), Segments.getFile(indexDir, name, extension).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}
+	}
+
+	// wolane pod segmentsLock
+	private boolean isUnchanged(File indexDir, String name, long version, String... sources) throws IOException {
+		return Segments.read(indexDir).contains(name) && getVersion(indexDir, name, sources) == version;
+	}
+
+	private static long getVersion(File indexDir, String name, String... extensions) {
+		long version = 0;
+		for (String extension : extensions) {
+			version = 31 * version + Segments.getVersion(Segments.getFile(indexDir, name, extension));
+		}
+		return version;
+	}
+
+	// pula jest wspolna - po bledzie albo przerwaniu odwolujemy tylko wlasne zadania
+	private static void cancel(Collection<? extends Future<?>> tasks) {
+		for (Future<?> task : tasks) {
+			task.cancel(true);
+		}
+	}
+
+	private TokenizedDocument tokenize(File file, Set<String> stopList) {
+		ChunkList cl = cclService.loadFile(file);
+		if (cl == null) {
+			return null;
+		}
+
+		String plainText = cl.getBasePlainText();
+		return TokenizedDocument.tokenize(file.getAbsolutePath(), plainText, filterStopList(plainText, stopList));
+	}
+
+	private String addSynonyms(String input) {
+		StringBuilder sb = new StringBuilder();
+		
+		for (String s: input.split(" ")) {
+			sb.append(s);
+			sb.append(" ");
+
+			List<String> list = WordnetJDBC.INSTANCE.getLexFromTheSameSynset(s);
+
+			for (String syn : list) {
+				sb.append(syn);
+				sb.append(" ");
+			}
+		}
+		
 		return sb.toString();
 	}
+	
+	private String filterStopList(String content, Set<String> stopList) {
+		if (stopList == null) {
+			return content;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String s : content.split(" ")) {
+			if (!stopList.contains(s.toLowerCase())) {
+				sb.append(s);
+				sb.append(" ");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Indeks do jednego wyszukiwania - wczytany przez {@link #loadIndex(File)} (nowsza wersja z dysku podmienia stara),
+	 * a jesli katalog nie jest trzymany w pamieci - otwierany tylko na czas wyszukiwania. Referencje trzeba zamknac.
+	 */
+	private LoadedIndex openIndex(File indexDir) throws IOException {
+		File dir = indexDir.getAbsoluteFile();
+		synchronized (loadedIndexes) {
+			LoadedIndex loaded = loadedIndexes.get(dir);
+			if (loaded != null) {
+				if (loaded.getVersion() != getVersion(dir, Segments.read(dir))) {
+					LoadedIndex current = readIndex(dir);
+					loadedIndexes.put(dir, current);
+					loaded.close();
+					loaded = current;
+				}
+				return loaded.retain();
+			}
+		}
+		return readIndex(dir);
+	}
+
+	private LoadedIndex readIndex(File indexDir) throws IOException {
+		List<String> segments = Segments.read(indexDir);
+		long version = getVersion(indexDir, segments);
+		return new LoadedIndex(new File(indexDir, HEADER_FILE_NAME), SegmentedIndex.open(indexDir, segments), version);
+	}
+
+	private long getVersion(File indexDir, List<String> segments) {
+		File header = new File(indexDir, HEADER_FILE_NAME);
+		return 31 * (31 * Segments.getVersion(indexDir, segments) + header.lastModified()) + header.length();
+	}
 
-	private IndexHeader readHeader(File path) {
+	static IndexHeader readHeader(File path) {
 		IndexHeader ir = new IndexHeader();
 		StringBuilder sb = new StringBuilder();
 
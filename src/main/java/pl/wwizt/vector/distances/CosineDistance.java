@@ -4,6 +4,7 @@ import java.util.Comparator;
 import java.util.List;
 
 import pl.wwiizt.vector.model.Hint;
+import pl.wwiizt.vector.model.SparseVector;
 
 import com.google.common.primitives.Doubles;
 
@@ -11,23 +12,65 @@ public class CosineDistance implements Distance {
 
 	@Override
 	public double measureDistance(List<Double> thisVector, List<Double> thatVector) {
-		double result = 0;
+		return measureDistance(Doubles.toArray(thisVector), Doubles.toArray(thatVector));
+	}
+
+	@Override
+	public double measureDistance(double[] thisVector, double[] thatVector) {
+		double result = VectorKernels.dot(thisVector, thatVector);
+
+		result /= Math.sqrt(VectorKernels.squaredLength(thisVector)) * Math.sqrt(VectorKernels.squaredLength(thatVector));
+
+		return result;
+	}
 
-		for (int i = 0; i < thisVector.size(); i++)
-			result += thisVector.get(i) * thatVector.get(i);
+	@Override
+	public double measureDistance(float[] thisVector, float[] thatVector) {
+		double result = VectorKernels.dot(thisVector, thatVector);
+
+		result /= Math.sqrt(VectorKernels.squaredLength(thisVector)) * Math.sqrt(VectorKernels.squaredLength(thatVector));
+
+		return result;
+	}
+
+	@Override
+	public double measureDistance(SparseVector thisVector, SparseVector thatVector) {
+		double result = thisVector.dot(thatVector);
 
-		result /= vectorLength(thisVector) * vectorLength(thatVector);
+		result /= Math.sqrt(thisVector.squaredLength()) * Math.sqrt(thatVector.squaredLength());
 
 		return result;
 	}
 
-	private double vectorLength(List<Double> vector) {
-		double measure = 0;
+	@Override
+	public double measureDistance(double[] thisVector, double thisNorm, double[] thatVector, double thatNorm) {
+		return VectorKernels.dot(thisVector, thatVector) / (thisNorm * thatNorm);
+	}
+
+	@Override
+	public double measureDistance(float[] thisVector, double thisNorm, float[] thatVector, double thatNorm) {
+		return VectorKernels.dot(thisVector, thatVector) / (thisNorm * thatNorm);
+	}
+
+	@Override
+	public double measureDistance(SparseVector thisVector, double thisNorm, SparseVector thatVector, double thatNorm) {
+		return thisVector.dot(thatVector) / (thisNorm * thatNorm);
+	}
 
-		for (int i = 0; i < vector.size(); i++)
-			measure += vector.get(i) * vector.get(i);
+	@Override
+	public double fromDotProduct(double dot, double thisNorm, double thatNorm) {
+		return dot / (thisNorm * thatNorm);
+	}
 
-		return Math.sqrt(measure);
+	@Override
+	public int compareRanks(double r1, double r2) {
+		if (Double.isNaN(r1))
+			return Double.isNaN(r2) ? 0 : 1;
+
+		else if (Double.isNaN(r2))
+			return -1;
+
+		return -Doubles.compare(r1, r2);
 	}
 
 	@Override
@@ -36,20 +79,10 @@ public class CosineDistance implements Distance {
 
 			@Override
 			public int compare(Hint o1, Hint o2) {
-				double r1 = o1.getRank();
-				double r2 = o2.getRank();
-				
-				if (Double.isNaN(r1))
-					return 1;
-				
-				else if (Double.isNaN(r2))
-					return -1;
-				
-				
-				return -Doubles.compare(o1.getRank(), o2.getRank());
+				return compareRanks(o1.getRank(), o2.getRank());
 			}
 
 		};
 	}
-	
+
 }
@@ -4,11 +4,37 @@ import java.util.Comparator;
 import java.util.List;
 
 import pl.wwiizt.vector.model.Hint;
+import pl.wwiizt.vector.model.SparseVector;
 
 public interface Distance {
 
 	public double measureDistance(List<Double> thisVector, List<Double> thatVector);
 
+	public double measureDistance(double[] thisVector, double[] thatVector);
+
+	public double measureDistance(float[] thisVector, float[] thatVector);
+
+	public double measureDistance(SparseVector thisVector, SparseVector thatVector);
+
+	/**
+	 * Wersje z gotowymi normami L2 obu wektorow (np. zapisanymi w indeksie) - nie trzeba ich liczyc przy kazdym porownaniu.
+	 */
+	public double measureDistance(double[] thisVector, double thisNorm, double[] thatVector, double thatNorm);
+
+	public double measureDistance(float[] thisVector, double thisNorm, float[] thatVector, double thatNorm);
+
+	public double measureDistance(SparseVector thisVector, double thisNorm, SparseVector thatVector, double thatNorm);
+
+	/**
+	 * Ranga z gotowego iloczynu skalarnego i norm L2 - np. dla wektorow skwantyzowanych, gdzie iloczyn liczony jest z tablic.
+	 */
+	public double fromDotProduct(double dot, double thisNorm, double thatNorm);
+
+	/**
+	 * Ujemne gdy ranga r1 jest lepsza od r2, NaN zawsze na koncu.
+	 */
+	public int compareRanks(double r1, double r2);
+
 	public Comparator<Hint> getComparator();
 	
 }
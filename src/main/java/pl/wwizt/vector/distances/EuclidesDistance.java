@@ -6,17 +6,60 @@ import java.util.List;
 import com.google.common.primitives.Doubles;
 
 import pl.wwiizt.vector.model.Hint;
+import pl.wwiizt.vector.model.SparseVector;
 
 public class EuclidesDistance implements Distance {
 
 	@Override
 	public double measureDistance(List<Double> thisVector, List<Double> thatVector) {
-		double measure = 0;
-		
-		for (int i = 0; i < thisVector.size(); i++)
-			measure += (thisVector.get(i) -  thatVector.get(i)) * (thisVector.get(i) -  thatVector.get(i));
-		
-		return Math.sqrt(measure);
+		return measureDistance(Doubles.toArray(thisVector), Doubles.toArray(thatVector));
+	}
+
+	@Override
+	public double measureDistance(double[] thisVector, double[] thatVector) {
+		return Math.sqrt(VectorKernels.squaredDistance(thisVector, thatVector));
+	}
+
+	@Override
+	public double measureDistance(float[] thisVector, float[] thatVector) {
+		return Math.sqrt(VectorKernels.squaredDistance(thisVector, thatVector));
+	}
+
+	@Override
+	public double measureDistance(SparseVector thisVector, SparseVector thatVector) {
+		return Math.sqrt(thisVector.squaredDistance(thatVector));
+	}
+
+	@Override
+	public double measureDistance(double[] thisVector, double thisNorm, double[] thatVector, double thatNorm) {
+		return measureDistance(thisVector, thatVector);
+	}
+
+	@Override
+	public double measureDistance(float[] thisVector, double thisNorm, float[] thatVector, double thatNorm) {
+		return measureDistance(thisVector, thatVector);
+	}
+
+	@Override
+	public double measureDistance(SparseVector thisVector, double thisNorm, SparseVector thatVector, double thatNorm) {
+		return measureDistance(thisVector, thatVector);
+	}
+
+	@Override
+	public double fromDotProduct(double dot, double thisNorm, double thatNorm) {
+		// |a - b|^2 = |a|^2 + |b|^2 - 2 a.b, bledy zaokraglen moga dac minimalnie ujemny wynik
+		return Math.sqrt(Math.max(0, thisNorm * thisNorm + thatNorm * thatNorm - 2 * dot));
+	}
+
+	@Override
+	public int compareRanks(double r1, double r2) {
+		if (Double.isNaN(r1))
+			return Double.isNaN(r2) ? 0 : 1;
+
+		else if (Double.isNaN(r2))
+			return -1;
+
+		return Doubles.compare(r1, r2);
 	}
 
 	@Override
@@ -25,18 +68,9 @@ public class EuclidesDistance implements Distance {
 
 			@Override
 			public int compare(Hint o1, Hint o2) {
-				double r1 = o1.getRank();
-				double r2 = o2.getRank();
-				
-				if (Double.isNaN(r1))
-					return 1;
-				
-				else if (Double.isNaN(r2))
-					return -1;
-				
-				return Doubles.compare(r1, r2);
+				return compareRanks(o1.getRank(), o2.getRank());
 			}
-			
+
 		};
 	}
 
@@ -0,0 +1,184 @@
+package pl.wwizt.vector.distances;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Petle po tablicach prymitywow rozwiniete x4, z osobnymi akumulatorami - JIT usuwa sprawdzanie zakresow i moze je
+ * zwektoryzowac. Wyniki moga sie roznic od sumowania po kolei na ostatnich bitach. Obie tablice musza miec te sama
+ * dlugosc.
+ */
+public final class VectorKernels {
+
+	public static final int CHECK_INTERVAL = 64;
+
+	private VectorKernels() {
+	}
+
+	public static double dot(double[] a, double[] b) {
+		Preconditions.checkArgument(a.length == b.length);
+
+		int length = a.length;
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+
+		for (; i + 3 < length; i += 4) {
+			s0 += a[i] * b[i];
+			s1 += a[i + 1] * b[i + 1];
+			s2 += a[i + 2] * b[i + 2];
+			s3 += a[i + 3] * b[i + 3];
+		}
+		for (; i < length; i++) {
+			s0 += a[i] * b[i];
+		}
+
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	public static double dot(float[] a, float[] b) {
+		Preconditions.checkArgument(a.length == b.length);
+
+		int length = a.length;
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+
+		for (; i + 3 < length; i += 4) {
+			s0 += (double) a[i] * b[i];
+			s1 += (double) a[i + 1] * b[i + 1];
+			s2 += (double) a[i + 2] * b[i + 2];
+			s3 += (double) a[i + 3] * b[i + 3];
+		}
+		for (; i < length; i++) {
+			s0 += (double) a[i] * b[i];
+		}
+
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	public static double squaredLength(double[] a) {
+		return dot(a, a);
+	}
+
+	public static double squaredLength(float[] a) {
+		return dot(a, a);
+	}
+
+	public static double squaredDistance(double[] a, double[] b) {
+		Preconditions.checkArgument(a.length == b.length);
+
+		int length = a.length;
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+
+		for (; i + 3 < length; i += 4) {
+			double d0 = a[i] - b[i];
+			double d1 = a[i + 1] - b[i + 1];
+			double d2 = a[i + 2] - b[i + 2];
+			double d3 = a[i + 3] - b[i + 3];
+			s0 += d0 * d0;
+			s1 += d1 * d1;
+			s2 += d2 * d2;
+			s3 += d3 * d3;
+		}
+		for (; i < length; i++) {
+			double d = a[i] - b[i];
+			s0 += d * d;
+		}
+
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	public static double squaredDistance(float[] a, float[] b) {
+		Preconditions.checkArgument(a.length == b.length);
+
+		int length = a.length;
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+
+		for (; i + 3 < length; i += 4) {
+			double d0 = (double) a[i] - b[i];
+			double d1 = (double) a[i + 1] - b[i + 1];
+			double d2 = (double) a[i + 2] - b[i + 2];
+			double d3 = (double) a[i + 3] - b[i + 3];
+			s0 += d0 * d0;
+			s1 += d1 * d1;
+			s2 += d2 * d2;
+			s3 += d3 * d3;
+		}
+		for (; i < length; i++) {
+			double d = (double) a[i] - b[i];
+			s0 += d * d;
+		}
+
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Jak {@link #squaredDistance(double[], double[])}, ale co {@link #CHECK_INTERVAL} elementow sprawdza sume i gdy
+	 * przekroczy limit, zwraca ja od razu (wynik wiekszy od limitu). Sumy czesciowe tylko rosna, wiec gdy limit nie
+	 * zostanie przekroczony, wynik jest identyczny z pelnym liczeniem.
+	 */
+	public static double squaredDistance(double[] a, double[] b, double limit) {
+		Preconditions.checkArgument(a.length == b.length);
+
+		int length = a.length;
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+
+		while (i + 3 < length) {
+			int end = i + CHECK_INTERVAL;
+			for (; i + 3 < length && i < end; i += 4) {
+				double d0 = a[i] - b[i];
+				double d1 = a[i + 1] - b[i + 1];
+				double d2 = a[i + 2] - b[i + 2];
+				double d3 = a[i + 3] - b[i + 3];
+				s0 += d0 * d0;
+				s1 += d1 * d1;
+				s2 += d2 * d2;
+				s3 += d3 * d3;
+			}
+			double sum = (s0 + s1) + (s2 + s3);
+			if (sum > limit) {
+				return sum;
+			}
+		}
+		for (; i < length; i++) {
+			double d = a[i] - b[i];
+			s0 += d * d;
+		}
+
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	public static double squaredDistance(float[] a, float[] b, double limit) {
+		Preconditions.checkArgument(a.length == b.length);
+
+		int length = a.length;
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+
+		while (i + 3 < length) {
+			int end = i + CHECK_INTERVAL;
+			for (; i + 3 < length && i < end; i += 4) {
+				double d0 = (double) a[i] - b[i];
+				double d1 = (double) a[i + 1] - b[i + 1];
+				double d2 = (double) a[i + 2] - b[i + 2];
+				double d3 = (double) a[i + 3] - b[i + 3];
+				s0 += d0 * d0;
+				s1 += d1 * d1;
+				s2 += d2 * d2;
+				s3 += d3 * d3;
+			}
+			double sum = (s0 + s1) + (s2 + s3);
+			if (sum > limit) {
+				return sum;
+			}
+		}
+		for (; i < length; i++) {
+			double d = (double) a[i] - b[i];
+			s0 += d * d;
+		}
+
+		return (s0 + s1) + (s2 + s3);
+	}
+
+}